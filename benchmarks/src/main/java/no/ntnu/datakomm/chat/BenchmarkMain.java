@@ -0,0 +1,24 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result comes with its allocation rate in
+ * bytes per operation. Takes the usual JMH command line options, for example a regular
+ * expression to select benchmarks.
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions cmdLine = new CommandLineOptions(args);
+        new Runner(new OptionsBuilder()
+                .parent(cmdLine)
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
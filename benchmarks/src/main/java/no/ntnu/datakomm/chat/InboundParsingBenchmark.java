@@ -0,0 +1,100 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of turning received bytes into listener arguments: splitting the stream into lines, as
+ * the listener thread does in parseIncomingCommands(), and tokenizing each line.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class InboundParsingBenchmark {
+    // Lines of the chosen kind, repeated, as they arrive on the socket
+    private static final int LINES_PER_STREAM = 1000;
+
+    @Param({"msg", "privmsg", "users"})
+    public String kind;
+
+    private byte[] line;
+    private byte[] stream;
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+
+    @Setup
+    public void setUp() {
+        String text;
+        switch (kind) {
+            case "privmsg":
+                text = "privmsg alice hello there, how is the lab going today?";
+                break;
+            case "users":
+                StringBuilder users = new StringBuilder("users");
+                for (int i = 0; i < 50; i++) {
+                    users.append(" user").append(i);
+                }
+                text = users.toString();
+                break;
+            case "msg":
+            default:
+                text = "msg alice hello everyone, the server is up again";
+        }
+        line = text.getBytes(StandardCharsets.UTF_8);
+        stream = (text + "\n").repeat(LINES_PER_STREAM).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Tokenize one line and extract what the listener gets.
+     */
+    @Benchmark
+    public void tokenizeLine(Blackhole bh) {
+        consume(tokenizer.tokenize(line, 0, line.length), bh);
+    }
+
+    /**
+     * Read a stream of lines and tokenize each one, like the listener thread does.
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES_PER_STREAM)
+    public void readAndTokenizeStream(Blackhole bh) throws IOException {
+        LineReader reader = new LineReader(new ByteArrayInputStream(stream));
+        LineHandler handler = (buffer, offset, length) -> consume(tokenizer.tokenize(buffer, offset, length), bh);
+        while (reader.readLine(handler)) {
+            // Each line is handled in readLine()
+        }
+    }
+
+    private void consume(ServerCommand command, Blackhole bh) {
+        switch (command) {
+            case MSG:
+            case PRIVMSG:
+                bh.consume(tokenizer.sender());
+                bh.consume(tokenizer.payload());
+                break;
+            case USERS:
+                bh.consume(tokenizer.payloadWords());
+                break;
+            default:
+                bh.consume(command);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of notifying the listeners of one received message, as done by the onMsgReceived()
+ * family in TCPClient: the event is built and queued for every listener, and each listener's
+ * thread takes it and calls the listener. With the blocking policy the rate is also limited by
+ * how fast the listener threads keep up.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ListenerFanOutBenchmark {
+
+    /**
+     * A listener that only counts the messages it gets.
+     */
+    private static final class CountingListener implements ChatListener {
+        volatile long messages;
+
+        @Override
+        public void onMessageReceived(TextMessage message) {
+            messages++;
+        }
+
+        @Override
+        public void onDisconnect() {
+        }
+
+        @Override
+        public void onLoginResult(boolean success, String errMsg) {
+        }
+
+        @Override
+        public void onMessageError(String errMsg) {
+        }
+
+        @Override
+        public void onUserList(String[] usernames) {
+        }
+
+        @Override
+        public void onSupportedCommands(String[] commands) {
+        }
+
+        @Override
+        public void onCommandError(String errMsg) {
+        }
+    }
+
+    @Param({"1", "4", "16"})
+    public int listeners;
+
+    @Param({"BLOCK", "DROP_OLDEST"})
+    public OverflowPolicy policy;
+
+    private final EventDispatcher dispatcher = new EventDispatcher();
+    private final List<CountingListener> registered = new ArrayList<>();
+    private ExecutionModel executionModel;
+
+    @Setup
+    public void setUp() {
+        executionModel = ExecutionModel.platform();
+        for (int i = 0; i < listeners; i++) {
+            CountingListener listener = new CountingListener();
+            registered.add(listener);
+            dispatcher.add(listener, 1024, policy, executionModel);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (CountingListener listener : registered) {
+            dispatcher.remove(listener);
+        }
+        registered.clear();
+        executionModel.shutdown(Duration.ofSeconds(2));
+    }
+
+    @Benchmark
+    public void publishMessage() {
+        dispatcher.publish(ChatEvent.message(new TextMessage("alice", false, "hello everyone")));
+    }
+}
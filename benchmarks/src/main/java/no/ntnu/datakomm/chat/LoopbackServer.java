@@ -0,0 +1,114 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal chat server on the loopback interface for the benchmarks. Every command gets the
+ * reply a real server would send to the sender (loginok, msgok, users, supported or cmderr);
+ * nothing is forwarded to other users. In discard mode commands are read and not answered.
+ */
+class LoopbackServer implements AutoCloseable {
+    private static final byte[] LOGINOK = "loginok\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MSGOK = "msgok 1\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] USERS = "users alice bob carol\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] SUPPORTED = "supported login msg privmsg users help\n".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CMDERR = "cmderr command not supported\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ServerSocket serverSocket;
+    private final boolean reply;
+    private final Thread acceptThread;
+
+    /**
+     * Start listening on a free port.
+     *
+     * @param reply When false, commands are read and thrown away
+     * @throws IOException if the server socket could not be opened
+     */
+    LoopbackServer(boolean reply) throws IOException {
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        this.reply = reply;
+        this.acceptThread = new Thread(this::acceptLoop, "loopback-accept");
+        this.acceptThread.setDaemon(true);
+        this.acceptThread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread t = new Thread(() -> serve(socket), "loopback-connection");
+                t.setDaemon(true);
+                t.start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            byte[] word = new byte[16];
+            int wordLength = 0;
+            boolean inWord = true;
+            int b;
+            while ((b = in.read()) >= 0) {
+                if (b == '\n') {
+                    if (reply) {
+                        out.write(replyTo(word, wordLength));
+                        // Answer a burst of commands with one write
+                        if (in.available() == 0) {
+                            out.flush();
+                        }
+                    }
+                    wordLength = 0;
+                    inWord = true;
+                } else if (inWord) {
+                    if (b == ' ' || wordLength == word.length) {
+                        inWord = false;
+                    } else {
+                        word[wordLength++] = (byte) b;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        }
+    }
+
+    private static byte[] replyTo(byte[] word, int length) {
+        String command = new String(word, 0, length, StandardCharsets.US_ASCII).trim();
+        switch (command) {
+            case "login":
+                return LOGINOK;
+            case "msg":
+            case "privmsg":
+                return MSGOK;
+            case "users":
+                return USERS;
+            case "help":
+                return SUPPORTED;
+            default:
+                return CMDERR;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
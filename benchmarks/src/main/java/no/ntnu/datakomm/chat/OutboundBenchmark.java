@@ -0,0 +1,63 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of sending a message through TCPClient: formatting the command in
+ * sendPrivateMessage()/sendPublicMessage(), buffering it and writing it to a loopback server
+ * that reads and ignores it. With a byte threshold most calls only format and buffer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutboundBenchmark {
+
+    @Param({"immediate", "afterBytes"})
+    public String flush;
+
+    private LoopbackServer server;
+    private TCPClient client;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new LoopbackServer(false);
+        client = new TCPClient();
+        client.setFlushPolicy("afterBytes".equals(flush) ? FlushPolicy.afterBytes(16 * 1024) : FlushPolicy.immediate());
+        if (!client.connect("localhost", server.getPort())) {
+            throw new IOException(client.getLastError());
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.disconnect();
+        server.close();
+    }
+
+    @Benchmark
+    public boolean sendPublicMessage() {
+        return client.sendPublicMessage("msg hello everyone, the server is up again");
+    }
+
+    @Benchmark
+    public boolean sendPrivateMessage() {
+        return client.sendPrivateMessage("alice", "hello there, how is the lab going today?");
+    }
+}
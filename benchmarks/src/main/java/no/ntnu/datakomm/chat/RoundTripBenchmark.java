@@ -0,0 +1,124 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from sending a command to the listener getting the reply, through a loopback server:
+ * formatting, socket write, server, socket read, tokenizing and listener dispatch.
+ */
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    /**
+     * Releases a permit for every reply.
+     */
+    private static final class ReplyListener implements ChatListener {
+        final Semaphore replies = new Semaphore(0);
+
+        @Override
+        public void onMessageAccepted() {
+            replies.release();
+        }
+
+        @Override
+        public void onUserList(String[] usernames) {
+            replies.release();
+        }
+
+        @Override
+        public void onLoginResult(boolean success, String errMsg) {
+            replies.release();
+        }
+
+        @Override
+        public void onDisconnect() {
+        }
+
+        @Override
+        public void onMessageReceived(TextMessage message) {
+        }
+
+        @Override
+        public void onMessageError(String errMsg) {
+            replies.release();
+        }
+
+        @Override
+        public void onSupportedCommands(String[] commands) {
+            replies.release();
+        }
+
+        @Override
+        public void onCommandError(String errMsg) {
+            replies.release();
+        }
+    }
+
+    @Param({"blocking", "nio"})
+    public String transport;
+
+    private LoopbackServer server;
+    private NioEventLoop eventLoop;
+    private TCPClient client;
+    private ExecutionModel executionModel;
+    private final ReplyListener listener = new ReplyListener();
+
+    @Setup
+    public void setUp() throws IOException, InterruptedException {
+        server = new LoopbackServer(true);
+        eventLoop = "nio".equals(transport) ? new NioEventLoop() : null;
+        executionModel = ExecutionModel.platform();
+        client = new TCPClient(eventLoop);
+        client.setExecutionModel(executionModel);
+        if (!client.connect("localhost", server.getPort())) {
+            throw new IOException(client.getLastError());
+        }
+        client.addListener(listener);
+        client.startListenThread();
+        client.tryLogin("bench");
+        listener.replies.acquire();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        client.disconnect();
+        executionModel.shutdown(Duration.ofSeconds(2));
+        if (eventLoop != null) {
+            eventLoop.close();
+        }
+        server.close();
+    }
+
+    @Benchmark
+    public void publicMessage() throws InterruptedException {
+        client.sendPublicMessage("msg hello everyone");
+        listener.replies.acquire();
+    }
+
+    @Benchmark
+    public void userList() throws InterruptedException {
+        client.sendRequest("users");
+        listener.replies.acquire();
+    }
+}
@@ -0,0 +1,61 @@
+package no.ntnu.datakomm.chat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the message value object: construction, hashCode() and equals().
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextMessageBenchmark {
+    private String sender;
+    private String text;
+    private TextMessage message;
+    private TextMessage same;
+    private TextMessage other;
+
+    @Setup
+    public void setUp() {
+        // New instances, so the benchmarks do not hit the same string objects
+        sender = new String("alice");
+        text = new String("hello everyone, the server is up again");
+        message = new TextMessage(sender, false, text);
+        same = new TextMessage(new String(sender), false, new String(text));
+        other = new TextMessage(sender, true, text);
+    }
+
+    @Benchmark
+    public TextMessage construct() {
+        return new TextMessage(sender, false, text);
+    }
+
+    @Benchmark
+    public int hash() {
+        return message.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsSame() {
+        return message.equals(same);
+    }
+
+    @Benchmark
+    public boolean equalsOther() {
+        return message.equals(other);
+    }
+}
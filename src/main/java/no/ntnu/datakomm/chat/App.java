@@ -17,44 +17,75 @@ import java.net.URL;
  */
 public class App extends Application {
 
+    // Kept to shut down the connection and background threads on exit
+    private GUIController controller;
+
     public static void main(String[] args) {
         launch(args);
     }
 
     /**
      * This method is called automatically by JavaFX when the application is
-     * launched
+     * launched. The window is built in code unless the system property
+     * "chat.fxml" is true, then it is loaded from layout.fxml. Setup the first
+     * frame does not need is done after it is shown, and the time spent in
+     * each phase is printed.
      *
      * @param primaryStage The main "stage" where the GUI will be rendered
      */
     @Override
     public void start(Stage primaryStage) {
+        StartupTimer timer = new StartupTimer();
         URL fxmlUrl = getClass().getResource("layout.fxml");
         URL cssUrl = getClass().getResource("styles/style.css");
+        URL extraCssUrl = getClass().getResource("styles/messages.css");
         URL iconUrl = getClass().getResource("styles/ntnu.png");
+        boolean useFxml = Boolean.getBoolean("chat.fxml");
         Parent root = null;
         boolean loaded = false;
-        if (fxmlUrl != null && cssUrl != null && iconUrl != null) {
+        if ((fxmlUrl != null || !useFxml) && cssUrl != null && extraCssUrl != null && iconUrl != null) {
             try {
-                root = FXMLLoader.load(fxmlUrl);
+                if (useFxml) {
+                    FXMLLoader loader = new FXMLLoader(fxmlUrl);
+                    root = loader.load();
+                    controller = loader.getController();
+                    timer.mark("fxml");
+                } else {
+                    ChatLayout layout = new ChatLayout();
+                    root = layout.getRoot();
+                    timer.mark("scene");
+                    controller = new GUIController();
+                    controller.bind(layout);
+                    timer.mark("controller");
+                }
                 Scene scene = new Scene(root, 600, 400);
                 scene.getStylesheets().add(cssUrl.toURI().toString());
+                String extraCss = extraCssUrl.toURI().toString();
+                String icon = iconUrl.toURI().toString();
                 primaryStage.setTitle("NTNU Ålesund - ChatClient");
                 primaryStage.setScene(scene);
-                Image anotherIcon = null;
-                anotherIcon = new Image(iconUrl.toURI().toString());
-                primaryStage.getIcons().add(anotherIcon);
                 primaryStage.show();
+                controller.watchWindow(primaryStage);
+                timer.mark("show");
+                afterFirstFrame(scene, () -> {
+                    timer.mark("first frame");
+                    scene.getStylesheets().add(extraCss);
+                    // Decoded on a background thread, the window gets its icon when it is ready
+                    primaryStage.getIcons().add(new Image(icon, true));
+                    controller.finishStartup();
+                    timer.mark("deferred");
+                    System.out.println(timer.report());
+                });
                 loaded = true;
             } catch (URISyntaxException | IOException e) {
                 System.out.println("Error while loading FXML: " + e.getMessage());
             }
         }
         if (!loaded) {
-            if (fxmlUrl == null) {
+            if (fxmlUrl == null && useFxml) {
                 System.out.println("FXML file not found!");
             }
-            if (cssUrl == null) {
+            if (cssUrl == null || extraCssUrl == null) {
                 System.out.println("CSS file not found!");
             }
             if (iconUrl == null) {
@@ -63,4 +94,38 @@ public class App extends Application {
             Platform.exit();
         }
     }
+
+    /**
+     * Run a task on the GUI thread once the scene has been laid out and drawn for the first time.
+     *
+     * @param scene The scene to watch
+     * @param task  What to run
+     */
+    private static void afterFirstFrame(Scene scene, Runnable task) {
+        scene.addPostLayoutPulseListener(new Runnable() {
+            private boolean done = false;
+
+            @Override
+            public void run() {
+                if (!done) {
+                    done = true;
+                    // The frame is drawn at the end of this pulse. The listener is removed outside of it
+                    Platform.runLater(() -> {
+                        scene.removePostLayoutPulseListener(this);
+                        task.run();
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * This method is called automatically by JavaFX when the application exits
+     */
+    @Override
+    public void stop() {
+        if (controller != null) {
+            controller.shutdown();
+        }
+    }
 }
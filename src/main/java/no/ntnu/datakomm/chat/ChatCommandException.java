@@ -0,0 +1,25 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * The server answered a command with an error: msgerr, loginerr or cmderr. Futures returned by
+ * the asynchronous send methods of {@link TCPClient} complete with this exception.
+ */
+public class ChatCommandException extends Exception {
+    private final ServerCommand reply;
+
+    /**
+     * @param reply   The error reply of the server
+     * @param message The error text of the server
+     */
+    public ChatCommandException(ServerCommand reply, String message) {
+        super(reply.getWord() + " " + message);
+        this.reply = reply;
+    }
+
+    /**
+     * @return the error reply of the server: MSGERR, LOGINERR or CMDERR
+     */
+    public ServerCommand getReply() {
+        return reply;
+    }
+}
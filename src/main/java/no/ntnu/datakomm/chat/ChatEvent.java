@@ -0,0 +1,141 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * One event received from the server, queued until a listener is ready for it.
+ */
+final class ChatEvent {
+
+    enum Type {
+        DISCONNECT,
+        LOGIN_RESULT,
+        MESSAGE,
+        MESSAGE_OK,
+        MESSAGE_ERROR,
+        USER_LIST,
+        SUPPORTED_COMMANDS,
+        COMMAND_ERROR,
+        CONNECTION_STATE
+    }
+
+    final Type type;
+    final boolean success;
+    final String text;
+    final TextMessage message;
+    final String[] words;
+    final ConnectionState state;
+    // When the line of this event was parsed, to time its delivery. The wait in the inbound
+    // buffer before that is timed by the buffer
+    final long receivedAt = System.nanoTime();
+
+    private ChatEvent(Type type, boolean success, String text, TextMessage message, String[] words) {
+        this(type, success, text, message, words, null);
+    }
+
+    private ChatEvent(Type type, boolean success, String text, TextMessage message, String[] words,
+                      ConnectionState state) {
+        this.type = type;
+        this.success = success;
+        this.text = text;
+        this.message = message;
+        this.words = words;
+        this.state = state;
+    }
+
+    static ChatEvent disconnect() {
+        return new ChatEvent(Type.DISCONNECT, false, null, null, null);
+    }
+
+    static ChatEvent loginResult(boolean success, String errMsg) {
+        return new ChatEvent(Type.LOGIN_RESULT, success, errMsg, null, null);
+    }
+
+    static ChatEvent message(TextMessage message) {
+        return new ChatEvent(Type.MESSAGE, false, null, message, null);
+    }
+
+    static ChatEvent messageAccepted() {
+        return new ChatEvent(Type.MESSAGE_OK, false, null, null, null);
+    }
+
+    static ChatEvent messageError(String errMsg) {
+        return new ChatEvent(Type.MESSAGE_ERROR, false, errMsg, null, null);
+    }
+
+    static ChatEvent userList(String[] users) {
+        return new ChatEvent(Type.USER_LIST, false, null, null, users);
+    }
+
+    static ChatEvent supportedCommands(String[] commands) {
+        return new ChatEvent(Type.SUPPORTED_COMMANDS, false, null, null, commands);
+    }
+
+    static ChatEvent commandError(String errMsg) {
+        return new ChatEvent(Type.COMMAND_ERROR, false, errMsg, null, null);
+    }
+
+    static ChatEvent connectionState(ConnectionState state) {
+        return new ChatEvent(Type.CONNECTION_STATE, false, null, null, null, state);
+    }
+
+    /**
+     * @return the lane this event waits in: messages by privacy, everything else as control
+     */
+    EventLane lane() {
+        if (type != Type.MESSAGE) {
+            return EventLane.CONTROL;
+        }
+        return message.isPrivate() ? EventLane.PRIVATE : EventLane.PUBLIC;
+    }
+
+    /**
+     * @return true if a newer event of the same type makes this one useless
+     */
+    boolean isCoalescable() {
+        return type == Type.USER_LIST;
+    }
+
+    /**
+     * @return true if this event changes the state of the connection, so that it must not
+     * overtake the messages that arrived before it
+     */
+    boolean isLifecycle() {
+        return type == Type.DISCONNECT || type == Type.CONNECTION_STATE;
+    }
+
+    /**
+     * Call the listener method that matches this event.
+     *
+     * @param listener the listener to notify
+     */
+    void deliverTo(ChatListener listener) {
+        switch (type) {
+            case DISCONNECT:
+                listener.onDisconnect();
+                break;
+            case LOGIN_RESULT:
+                listener.onLoginResult(success, text);
+                break;
+            case MESSAGE:
+                listener.onMessageReceived(message);
+                break;
+            case MESSAGE_OK:
+                listener.onMessageAccepted();
+                break;
+            case MESSAGE_ERROR:
+                listener.onMessageError(text);
+                break;
+            case USER_LIST:
+                listener.onUserList(words);
+                break;
+            case SUPPORTED_COMMANDS:
+                listener.onSupportedCommands(words);
+                break;
+            case CONNECTION_STATE:
+                listener.onConnectionStateChanged(state);
+                break;
+            case COMMAND_ERROR:
+            default:
+                listener.onCommandError(text);
+        }
+    }
+}
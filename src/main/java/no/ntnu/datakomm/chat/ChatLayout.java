@@ -0,0 +1,136 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.geometry.Insets;
+import javafx.scene.Parent;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
+import javafx.scene.control.SplitPane;
+import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
+import javafx.scene.control.TitledPane;
+import javafx.scene.layout.AnchorPane;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+
+/**
+ * The main window built in code: the same controls as layout.fxml, without parsing XML and
+ * injecting fields by reflection at startup. Changes to one must be made to the other.
+ */
+class ChatLayout {
+    final Button submitBtn = new Button("Submit");
+    final Button connectBtn = new Button("Connect");
+    final Button loginBtn = new Button("Login");
+    final Button helpBtn = new Button("Help");
+    final ListView<String> userList = new ListView<>();
+    final ListView<ChatLogEntry> textOutput = new ListView<>();
+    final TextArea textInput = new TextArea();
+    final TextField hostInput = new TextField();
+    final TextField portInput = new TextField();
+    final TextField loginInput = new TextField();
+    final TitledPane serverStatus = new TitledPane();
+    final TextField searchInput = new TextField();
+
+    private final SplitPane root = new SplitPane();
+
+    ChatLayout() {
+        root.getItems().addAll(fill(buildUserPane()), fill(buildChatPane()));
+        root.setDividerPositions(0.29797979797979796);
+        root.setMinSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        root.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        root.setPrefSize(600, 400);
+    }
+
+    /**
+     * @return the top node of the window
+     */
+    Parent getRoot() {
+        return root;
+    }
+
+    /**
+     * Left side: the user list, login and help, and the history search.
+     */
+    private Region buildUserPane() {
+        userList.setFocusTraversable(false);
+        userList.setPrefSize(175, 303);
+        userList.getStyleClass().add("userList");
+        TitledPane users = new TitledPane("Users logged in", userList);
+        users.setAnimated(false);
+        users.setCollapsible(false);
+        users.setPrefSize(175, 380);
+
+        loginInput.setPrefSize(218, 25);
+        loginBtn.setMnemonicParsing(false);
+        loginBtn.setPrefSize(145, 25);
+        loginBtn.setDisable(true);
+        HBox login = new HBox(loginInput, loginBtn);
+        login.setPrefSize(175, 32);
+
+        helpBtn.setMnemonicParsing(false);
+        helpBtn.setPrefSize(229, 25);
+        helpBtn.setDisable(true);
+        searchInput.setPrefSize(229, 25);
+        searchInput.setPromptText("Search history");
+
+        VBox pane = new VBox(users, login, helpBtn, searchInput);
+        pane.setPrefSize(100, 200);
+        return pane;
+    }
+
+    /**
+     * Right side: the server settings on top, the chat log, and the message input at the bottom.
+     */
+    private Region buildChatPane() {
+        Label hostLabel = new Label("HOST");
+        hostLabel.setPrefSize(37, 25);
+        HBox.setMargin(hostLabel, new Insets(2, 0, 2, 8));
+        hostInput.setPrefSize(115, 25);
+        HBox.setMargin(hostInput, new Insets(2, 0, 2, 0));
+        Label portLabel = new Label("PORT");
+        portLabel.setPrefSize(35, 25);
+        HBox.setMargin(portLabel, new Insets(2, 0, 2, 8));
+        portInput.setPrefSize(69, 25);
+        HBox.setMargin(portInput, new Insets(2, 0, 2, 8));
+        HBox server = new HBox(hostLabel, hostInput, portLabel, portInput);
+        server.setPrefSize(325, 49);
+        serverStatus.setText("Server - disconnected");
+        serverStatus.setContent(server);
+        serverStatus.setPrefSize(345, 75);
+        connectBtn.setMnemonicParsing(false);
+        connectBtn.setPrefSize(121, 75);
+        HBox top = new HBox(serverStatus, connectBtn);
+        top.setPrefSize(417, 0);
+
+        textOutput.setFocusTraversable(false);
+        textOutput.setPrefSize(395, 286);
+        textOutput.getStyleClass().add("chatLog");
+
+        textInput.setPrefSize(333, 0);
+        submitBtn.setMnemonicParsing(false);
+        submitBtn.setPrefSize(101, 37);
+        submitBtn.setDisable(true);
+        HBox bottom = new HBox(textInput, submitBtn);
+        bottom.setPrefSize(417, 28);
+
+        BorderPane pane = new BorderPane(textOutput, top, null, bottom, null);
+        pane.setPrefSize(417, 398);
+        return pane;
+    }
+
+    /**
+     * Wrap a side of the split pane so that its content fills it, as the anchors in the FXML do.
+     */
+    private static AnchorPane fill(Region content) {
+        AnchorPane.setTopAnchor(content, 0.0);
+        AnchorPane.setRightAnchor(content, 0.0);
+        AnchorPane.setBottomAnchor(content, 0.0);
+        AnchorPane.setLeftAnchor(content, 0.0);
+        AnchorPane side = new AnchorPane(content);
+        side.setMinSize(0, 0);
+        side.setPrefSize(100, 160);
+        return side;
+    }
+}
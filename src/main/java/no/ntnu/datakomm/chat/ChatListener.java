@@ -29,6 +29,13 @@ public interface ChatListener {
      */
     public void onMessageReceived(TextMessage message);
 
+    /**
+     * This method is called when the server confirmed that our message was
+     * delivered. Listeners that do not track sent messages can ignore it.
+     */
+    public default void onMessageAccepted() {
+    }
+
     /**
      * This method is called when an error happened when we tried to send
      * message to the server (the message was not sent to necessary recipients)
@@ -60,4 +67,15 @@ public interface ChatListener {
      */
     public void onCommandError(String errMsg);
 
+    /**
+     * This method is called when the connection is lost and the client starts
+     * reconnecting, when it is connected again, and when it stops trying. A
+     * lost connection that is not reconnected is also reported with
+     * {@link #onDisconnect()}.
+     *
+     * @param state The new state of the connection
+     */
+    public default void onConnectionStateChanged(ConnectionState state) {
+    }
+
 }
@@ -0,0 +1,76 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+
+/**
+ * Shows one chat log entry. The list view creates only as many cells as fit on the screen and
+ * reuses them while scrolling, so the GUI elements of a message are built once per cell and
+ * not once per message.
+ */
+class ChatLogCell extends ListCell<ChatLogEntry> {
+    // Room left for the scroll bar and the cell padding when wrapping long messages
+    private static final double WRAP_MARGIN = 48;
+
+    private final HBox message = new HBox();
+    private final VBox messageContent = new VBox();
+    private final Label messageSender = new Label();
+    private final Label messageText = new Label();
+    private final Pane spacer = new Pane();
+
+    ChatLogCell() {
+        messageSender.getStyleClass().add("sender");
+        messageText.setWrapText(true);
+        messageText.maxWidthProperty().bind(widthProperty().subtract(WRAP_MARGIN));
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        spacer.setMinSize(10, 1);
+        // Keep the cell from growing wider than the list, so that long messages wrap
+        setPrefWidth(0);
+        getStyleClass().add("chatLogCell");
+    }
+
+    @Override
+    protected void updateItem(ChatLogEntry entry, boolean empty) {
+        super.updateItem(entry, empty);
+        if (empty || entry == null) {
+            setGraphic(null);
+            return;
+        }
+
+        // Set texts and style according to what type of message this is
+        TextMessage msg = entry.getMessage();
+        if (msg.isPrivate()) {
+            messageSender.setText("Private from " + msg.getSender() + ":");
+            messageSender.getStyleClass().setAll("label", "sender", "private");
+        } else {
+            messageSender.setText(msg.getSender() + ":");
+            messageSender.getStyleClass().setAll("label", "sender");
+        }
+        messageText.setText(msg.getText());
+
+        String textStyle;
+        if (entry.isWarning()) {
+            // This message is a warning/info, add specific style to it
+            textStyle = msg.getSender().equals("err") ? "warning" : "info";
+            messageContent.getChildren().setAll(messageText);
+            message.getChildren().setAll(messageContent);
+        } else if (entry.isLocal()) {
+            // Trying to send a message without an active connection is shown as failed
+            textStyle = entry.isFailed() ? "failedMessage" : "sentMessage";
+            // Add empty space first (left), then the message (right)
+            messageContent.getChildren().setAll(messageText);
+            message.getChildren().setAll(spacer, messageContent);
+        } else {
+            textStyle = "otherMessage";
+            // Add message first (left), then empty space (right)
+            messageContent.getChildren().setAll(messageSender, messageText);
+            message.getChildren().setAll(messageContent, spacer);
+        }
+        messageText.getStyleClass().setAll("label", "message", textStyle);
+        setGraphic(message);
+    }
+}
@@ -0,0 +1,40 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * One entry in the GUI chat log: a message together with how it should be shown.
+ */
+class ChatLogEntry {
+    private final TextMessage message;
+    private final boolean local;
+    private final boolean warning;
+    private final boolean failed;
+
+    /**
+     * @param message The message to show
+     * @param local   When true, this message was sent by us. When false - received from another user
+     * @param warning When true, this message is a warning or info that must be displayed to the user
+     * @param failed  When true, this is a local message that could not be sent
+     */
+    ChatLogEntry(TextMessage message, boolean local, boolean warning, boolean failed) {
+        this.message = message;
+        this.local = local;
+        this.warning = warning;
+        this.failed = failed;
+    }
+
+    TextMessage getMessage() {
+        return message;
+    }
+
+    boolean isLocal() {
+        return local;
+    }
+
+    boolean isWarning() {
+        return warning;
+    }
+
+    boolean isFailed() {
+        return failed;
+    }
+}
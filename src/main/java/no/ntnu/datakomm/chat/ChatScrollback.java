@@ -0,0 +1,164 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * The chat log shown in the GUI, with a cap on how many entries the list view holds. When the
+ * cap is passed, the oldest entries move to an archive of plain entries that have no GUI nodes,
+ * and are moved back page by page when the user scrolls to the top. The archive is bounded
+ * too; entries that fall out of it are gone.
+ *
+ * <p>While the user has scrolled back, the list view may hold up to {@link #SCROLLED_BACK_FACTOR}
+ * times the cap, so that the entries being read are not archived at once. New entries past that
+ * archive the oldest shown ones anyway, and the caller keeps the view in place by moving it up
+ * by the number archived.
+ *
+ * <p>Only used on the FX thread.
+ */
+class ChatScrollback {
+    static final int DEFAULT_CAPACITY = 1000;
+    static final int DEFAULT_ARCHIVE_CAPACITY = 50_000;
+    // How many times the cap the list view may hold while the user has scrolled back
+    static final int SCROLLED_BACK_FACTOR = 2;
+
+    private final ObservableList<ChatLogEntry> entries = FXCollections.observableArrayList();
+    // Oldest first, the last entry is the one just before the first shown entry
+    private final Deque<ChatLogEntry> archive = new ArrayDeque<>();
+    private int capacity;
+    private int archiveCapacity;
+    private long droppedCount = 0;
+
+    ChatScrollback() {
+        this(DEFAULT_CAPACITY, DEFAULT_ARCHIVE_CAPACITY);
+    }
+
+    /**
+     * @param capacity        Largest number of entries kept in the list view
+     * @param archiveCapacity Largest number of older entries kept to scroll back to, 0 for none
+     */
+    ChatScrollback(int capacity, int archiveCapacity) {
+        setCapacity(capacity, archiveCapacity);
+    }
+
+    /**
+     * Change the caps. Takes effect on the next append.
+     *
+     * @param capacity        Largest number of entries kept in the list view
+     * @param archiveCapacity Largest number of older entries kept to scroll back to, 0 for none
+     */
+    void setCapacity(int capacity, int archiveCapacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        if (archiveCapacity < 0) {
+            throw new IllegalArgumentException("Archive capacity must not be negative");
+        }
+        this.capacity = capacity;
+        this.archiveCapacity = archiveCapacity;
+    }
+
+    /**
+     * @return the entries to show in the list view
+     */
+    ObservableList<ChatLogEntry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Append new entries at the bottom.
+     *
+     * @param batch     The entries to append
+     * @param following When true, the user looks at the bottom of the log and the oldest shown
+     *                  entries are archived down to the cap. When false, the user has scrolled
+     *                  back, and entries are only archived past the larger scrolled back cap
+     * @return number of entries archived from the top, which moves every shown entry up by as
+     * many places
+     */
+    int append(List<ChatLogEntry> batch, boolean following) {
+        entries.addAll(batch);
+        return trimTo(following ? capacity : capacity * SCROLLED_BACK_FACTOR);
+    }
+
+    /**
+     * Archive the oldest shown entries until no more than the cap are shown.
+     *
+     * @return number of entries archived
+     */
+    int trim() {
+        return trimTo(capacity);
+    }
+
+    private int trimTo(int limit) {
+        int excess = entries.size() - limit;
+        if (excess <= 0) {
+            return 0;
+        }
+        List<ChatLogEntry> evicted = entries.subList(0, excess);
+        archive.addAll(evicted);
+        evicted.clear();
+        while (archive.size() > archiveCapacity) {
+            archive.pollFirst();
+            droppedCount++;
+        }
+        return excess;
+    }
+
+    /**
+     * Move archived entries back to the top of the list view.
+     *
+     * @param pageSize Largest number of entries to move back
+     * @return number of entries moved back, 0 if the archive is empty
+     */
+    int restoreOlder(int pageSize) {
+        int count = Math.min(pageSize, archive.size());
+        if (count > 0) {
+            List<ChatLogEntry> page = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                page.add(archive.pollLast());
+            }
+            Collections.reverse(page);
+            entries.addAll(0, page);
+        }
+        return count;
+    }
+
+    /**
+     * Insert older entries, for example read back from the message history, at the top of the
+     * list view.
+     *
+     * @param page The entries, oldest first
+     * @return number of entries inserted
+     */
+    int prepend(List<ChatLogEntry> page) {
+        entries.addAll(0, page);
+        return page.size();
+    }
+
+    /**
+     * @return true when there are archived entries to scroll back to
+     */
+    boolean hasOlder() {
+        return !archive.isEmpty();
+    }
+
+    /**
+     * @return number of entries kept in the archive
+     */
+    int getArchivedCount() {
+        return archive.size();
+    }
+
+    /**
+     * @return number of entries that fell out of the archive and can no longer be shown
+     */
+    long getDroppedCount() {
+        return droppedCount;
+    }
+}
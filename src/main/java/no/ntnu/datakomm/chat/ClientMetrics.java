@@ -0,0 +1,457 @@
+package no.ntnu.datakomm.chat;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of one {@link TCPClient}: bytes and lines in and out per
+ * command type, the time from sending a command to its reply, the time received bytes wait in
+ * the inbound buffer before they are parsed, and the time from parsing a received line to
+ * delivering it to a listener.
+ *
+ * <p>Recording allocates nothing and takes no lock. The values can be read at any time, as a
+ * {@link #snapshot()}, or through JMX once the client is registered with
+ * {@link TCPClient#registerMBean(String)}.
+ */
+public class ClientMetrics implements ClientMetricsMXBean {
+
+    /**
+     * The kinds of commands the client sends.
+     */
+    public enum Outbound {
+        LOGIN("login "),
+        MSG("msg "),
+        PRIVMSG("privmsg "),
+        USERS("users"),
+        HELP("help"),
+        INBOX("inbox"),
+        OTHER("");
+
+        private static final Outbound[] KINDS = values();
+
+        private final String prefix;
+
+        Outbound(String prefix) {
+            this.prefix = prefix;
+        }
+
+        /**
+         * Find the kind of a command without creating any object.
+         *
+         * @param command A command as sent to the server
+         * @return the kind of the command
+         */
+        public static Outbound of(String command) {
+            for (Outbound kind : KINDS) {
+                if (kind != OTHER && command.startsWith(kind.prefix)) {
+                    return kind;
+                }
+            }
+            return OTHER;
+        }
+    }
+
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final AtomicLongArray linesIn = new AtomicLongArray(ServerCommand.values().length);
+    private final AtomicLongArray linesOut = new AtomicLongArray(Outbound.values().length);
+    private final LatencyHistogram messageReplyLatency = new LatencyHistogram();
+    private final LatencyHistogram loginReplyLatency = new LatencyHistogram();
+    private final LatencyHistogram inboundWaitLatency = new LatencyHistogram();
+    private final LatencyHistogram dispatchLatency = new LatencyHistogram();
+    // Dispatch latency of each event lane, indexed by ordinal
+    private final LatencyHistogram[] laneLatency = histograms(EventLane.values().length);
+    // Commands waiting for their reply
+    private volatile int unansweredCommands = 0;
+    // Fill level of the inbound buffer, its highest level, and how often it was full
+    private volatile long inboundBuffered = 0;
+    private final AtomicLong inboundHighWater = new AtomicLong();
+    private final LongAdder inboundStalls = new LongAdder();
+    // Commands waiting for their rate limit, and commands rejected because too many were waiting
+    private volatile int outboundBacklog = 0;
+    private final LongAdder rejectedCommands = new LongAdder();
+    // Phases of opening the last connection: resolving the host, connecting, and waiting for the first line
+    private volatile long resolveNanos = 0;
+    private volatile long connectNanos = 0;
+    private volatile long firstLineNanos = 0;
+    // When the connection waiting for its first line was opened, 0 when not waiting
+    private final AtomicLong firstLineWaitStart = new AtomicLong();
+
+    /**
+     * Count a command handed to the socket.
+     *
+     * @param kind The kind of the command
+     */
+    void commandSent(Outbound kind) {
+        linesOut.incrementAndGet(kind.ordinal());
+    }
+
+    /**
+     * Count bytes written to the socket.
+     *
+     * @param bytes Number of bytes
+     */
+    void bytesWritten(int bytes) {
+        bytesOut.add(bytes);
+    }
+
+    /**
+     * Count a line received from the server.
+     *
+     * @param command The command word of the line
+     * @param bytes   Length of the line, including the line terminator
+     */
+    void lineReceived(ServerCommand command, int bytes) {
+        long waitStart = firstLineWaitStart.get();
+        if (waitStart != 0 && firstLineWaitStart.compareAndSet(waitStart, 0)) {
+            firstLineNanos = System.nanoTime() - waitStart;
+        }
+        bytesIn.add(bytes);
+        linesIn.incrementAndGet(command.ordinal());
+    }
+
+    /**
+     * Time the reply to a command. Called when a reply is matched to the command it answers.
+     *
+     * @param kind   The kind of the answered command
+     * @param sentAt When the command was handed to the socket, in {@link System#nanoTime()} time
+     */
+    void replyReceived(Outbound kind, long sentAt) {
+        if (kind == Outbound.MSG || kind == Outbound.PRIVMSG) {
+            messageReplyLatency.recordNanos(System.nanoTime() - sentAt);
+        } else if (kind == Outbound.LOGIN) {
+            loginReplyLatency.recordNanos(System.nanoTime() - sentAt);
+        }
+    }
+
+    /**
+     * Record the number of commands waiting for their reply.
+     */
+    void unansweredCommands(int commands) {
+        unansweredCommands = commands;
+    }
+
+    /**
+     * Time the wait of received bytes in the inbound buffer, from arriving to being taken by
+     * the parser.
+     *
+     * @param nanos How long the oldest of the bytes taken waited
+     */
+    void inboundWaited(long nanos) {
+        inboundWaitLatency.recordNanos(nanos);
+    }
+
+    /**
+     * Time the delivery of an event to a listener. The wait in the inbound buffer before the
+     * line was parsed is timed by {@link #inboundWaited(long)}.
+     *
+     * @param lane       The lane the event waited in
+     * @param receivedAt When the line of the event was parsed, in {@link System#nanoTime()} time
+     */
+    void eventDelivered(EventLane lane, long receivedAt) {
+        long waited = System.nanoTime() - receivedAt;
+        dispatchLatency.recordNanos(waited);
+        laneLatency[lane.ordinal()].recordNanos(waited);
+    }
+
+    private static LatencyHistogram[] histograms(int count) {
+        LatencyHistogram[] histograms = new LatencyHistogram[count];
+        for (int i = 0; i < count; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * Record the fill level of the inbound buffer.
+     *
+     * @param bytes Number of received bytes waiting to be parsed
+     */
+    void inboundBuffered(int bytes) {
+        inboundBuffered = bytes;
+        if (bytes > inboundHighWater.get()) {
+            inboundHighWater.accumulateAndGet(bytes, Math::max);
+        }
+    }
+
+    /**
+     * Count one time the inbound buffer was full and the socket was no longer read.
+     */
+    void inboundStalled() {
+        inboundStalls.increment();
+    }
+
+    /**
+     * Record the number of commands waiting for their rate limit.
+     */
+    void outboundBacklog(int commands) {
+        outboundBacklog = commands;
+    }
+
+    /**
+     * Count one command rejected because the outbound backlog was full.
+     */
+    void commandRejected() {
+        rejectedCommands.increment();
+    }
+
+    /**
+     * Record how long opening a connection took, and start timing the wait for its first line.
+     *
+     * @param resolveNanos Time spent waiting for the host name to be resolved
+     * @param connectNanos Time spent waiting for a TCP connection after that
+     */
+    void connectionOpened(long resolveNanos, long connectNanos) {
+        this.resolveNanos = resolveNanos;
+        this.connectNanos = connectNanos;
+        this.firstLineNanos = 0;
+        firstLineWaitStart.set(System.nanoTime());
+    }
+
+    /**
+     * @param command A command word the server sends
+     * @return number of lines of that kind received
+     */
+    public long getLinesIn(ServerCommand command) {
+        return linesIn.get(command.ordinal());
+    }
+
+    /**
+     * @param kind A kind of command the client sends
+     * @return number of commands of that kind sent
+     */
+    public long getLinesOut(Outbound kind) {
+        return linesOut.get(kind.ordinal());
+    }
+
+    /**
+     * @return time from sending msg/privmsg to receiving msgok/msgerr
+     */
+    public LatencyHistogram getMessageReplyLatency() {
+        return messageReplyLatency;
+    }
+
+    /**
+     * @return time from sending login to receiving loginok/loginerr
+     */
+    public LatencyHistogram getLoginReplyLatency() {
+        return loginReplyLatency;
+    }
+
+    /**
+     * @return time from received bytes arriving in the inbound buffer to the parser taking them
+     */
+    public LatencyHistogram getInboundWaitLatency() {
+        return inboundWaitLatency;
+    }
+
+    /**
+     * @return time from parsing a received line to a listener getting the event
+     */
+    public LatencyHistogram getDispatchLatency() {
+        return dispatchLatency;
+    }
+
+    /**
+     * @param lane An event lane
+     * @return time from parsing a received line to a listener getting the event, for the
+     * events of one lane
+     */
+    public LatencyHistogram getDispatchLatency(EventLane lane) {
+        return laneLatency[lane.ordinal()];
+    }
+
+    /**
+     * @return a copy of all current values
+     */
+    public MetricsSnapshot snapshot() {
+        long[] in = new long[linesIn.length()];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = linesIn.get(i);
+        }
+        long[] out = new long[linesOut.length()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = linesOut.get(i);
+        }
+        return new MetricsSnapshot(bytesIn.sum(), bytesOut.sum(), in, out,
+                MetricsSnapshot.Latency.of(messageReplyLatency),
+                MetricsSnapshot.Latency.of(loginReplyLatency),
+                MetricsSnapshot.Latency.of(inboundWaitLatency),
+                MetricsSnapshot.Latency.of(dispatchLatency));
+    }
+
+    /**
+     * Set all counters and histograms to zero. Values recorded while resetting may be partly
+     * kept. Commands still waiting for their reply are timed when it arrives.
+     */
+    @Override
+    public void reset() {
+        bytesIn.reset();
+        bytesOut.reset();
+        for (int i = 0; i < linesIn.length(); i++) {
+            linesIn.set(i, 0);
+        }
+        for (int i = 0; i < linesOut.length(); i++) {
+            linesOut.set(i, 0);
+        }
+        messageReplyLatency.reset();
+        loginReplyLatency.reset();
+        inboundWaitLatency.reset();
+        dispatchLatency.reset();
+        for (LatencyHistogram histogram : laneLatency) {
+            histogram.reset();
+        }
+        inboundHighWater.set(0);
+        inboundStalls.reset();
+        rejectedCommands.reset();
+    }
+
+    ///////////////////////////////////////////////////////////////////////
+    // JMX attributes
+    ///////////////////////////////////////////////////////////////////////
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getLinesIn() {
+        long total = 0;
+        for (int i = 0; i < linesIn.length(); i++) {
+            total += linesIn.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public long getLinesOut() {
+        long total = 0;
+        for (int i = 0; i < linesOut.length(); i++) {
+            total += linesOut.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public long getMessagesReceived() {
+        return getLinesIn(ServerCommand.MSG) + getLinesIn(ServerCommand.PRIVMSG);
+    }
+
+    @Override
+    public long getErrorsReceived() {
+        return getLinesIn(ServerCommand.MSGERR) + getLinesIn(ServerCommand.LOGINERR)
+                + getLinesIn(ServerCommand.CMDERR);
+    }
+
+    @Override
+    public int getUnansweredCommands() {
+        return unansweredCommands;
+    }
+
+    @Override
+    public double getMessageReplyP50Millis() {
+        return messageReplyLatency.getPercentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getMessageReplyP99Millis() {
+        return messageReplyLatency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getMessageReplyMaxMillis() {
+        return messageReplyLatency.getMaxMicros() / 1000.0;
+    }
+
+    @Override
+    public double getLoginReplyP99Millis() {
+        return loginReplyLatency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getInboundWaitP99Millis() {
+        return inboundWaitLatency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getInboundWaitMaxMillis() {
+        return inboundWaitLatency.getMaxMicros() / 1000.0;
+    }
+
+    @Override
+    public double getDispatchP50Millis() {
+        return dispatchLatency.getPercentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getDispatchP99Millis() {
+        return dispatchLatency.getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getControlDispatchP99Millis() {
+        return laneLatency[EventLane.CONTROL.ordinal()].getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getPrivateDispatchP99Millis() {
+        return laneLatency[EventLane.PRIVATE.ordinal()].getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getPublicDispatchP99Millis() {
+        return laneLatency[EventLane.PUBLIC.ordinal()].getPercentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getDispatchMaxMillis() {
+        return dispatchLatency.getMaxMicros() / 1000.0;
+    }
+
+    @Override
+    public long getInboundBufferedBytes() {
+        return inboundBuffered;
+    }
+
+    @Override
+    public long getInboundHighWaterBytes() {
+        return inboundHighWater.get();
+    }
+
+    @Override
+    public long getInboundStalls() {
+        return inboundStalls.sum();
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outboundBacklog;
+    }
+
+    @Override
+    public long getRejectedCommands() {
+        return rejectedCommands.sum();
+    }
+
+    @Override
+    public double getResolveMillis() {
+        return resolveNanos / 1_000_000.0;
+    }
+
+    @Override
+    public double getConnectMillis() {
+        return connectNanos / 1_000_000.0;
+    }
+
+    @Override
+    public double getFirstLineMillis() {
+        return firstLineNanos / 1_000_000.0;
+    }
+}
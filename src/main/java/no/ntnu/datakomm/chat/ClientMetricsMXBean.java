@@ -0,0 +1,104 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * The JMX view of {@link ClientMetrics}. Latencies are in milliseconds.
+ */
+public interface ClientMetricsMXBean {
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getLinesIn();
+
+    long getLinesOut();
+
+    /**
+     * @return number of public and private messages received from other users
+     */
+    long getMessagesReceived();
+
+    /**
+     * @return number of msgerr, loginerr and cmderr replies received
+     */
+    long getErrorsReceived();
+
+    /**
+     * @return number of sent commands still waiting for their reply
+     */
+    int getUnansweredCommands();
+
+    double getMessageReplyP50Millis();
+
+    double getMessageReplyP99Millis();
+
+    double getMessageReplyMaxMillis();
+
+    double getLoginReplyP99Millis();
+
+    /**
+     * @return 99th percentile of the time received bytes wait in the inbound buffer before they
+     * are parsed
+     */
+    double getInboundWaitP99Millis();
+
+    double getInboundWaitMaxMillis();
+
+    double getDispatchP50Millis();
+
+    double getDispatchP99Millis();
+
+    double getDispatchMaxMillis();
+
+    double getControlDispatchP99Millis();
+
+    double getPrivateDispatchP99Millis();
+
+    double getPublicDispatchP99Millis();
+
+    /**
+     * @return number of received bytes waiting in the inbound buffer to be parsed
+     */
+    long getInboundBufferedBytes();
+
+    /**
+     * @return the most bytes ever waiting in the inbound buffer
+     */
+    long getInboundHighWaterBytes();
+
+    /**
+     * @return number of times the inbound buffer was full and the socket was no longer read
+     */
+    long getInboundStalls();
+
+    /**
+     * @return number of commands waiting for their rate limit
+     */
+    int getOutboundBacklog();
+
+    /**
+     * @return number of commands rejected because the outbound backlog was full
+     */
+    long getRejectedCommands();
+
+    /**
+     * @return time spent resolving the host name when the last connection was opened
+     */
+    double getResolveMillis();
+
+    /**
+     * @return time from the host name being resolved to the last connection being established
+     */
+    double getConnectMillis();
+
+    /**
+     * @return time from the last connection being established to the first line from the
+     * server, 0 until that line arrives
+     */
+    double getFirstLineMillis();
+
+    /**
+     * Set all counters and histograms to zero.
+     */
+    void reset();
+}
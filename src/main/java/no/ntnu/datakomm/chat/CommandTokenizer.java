@@ -0,0 +1,137 @@
+package no.ntnu.datakomm.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits one line received from the server into command word, sender and payload by index
+ * arithmetic on the raw bytes. No intermediate arrays or lists are created: the only objects
+ * allocated are the strings a listener actually gets.
+ *
+ * <p>A tokenizer keeps the position of the last line it was given, so one instance must only
+ * be used by one thread at a time. It does not copy the line: the buffer must stay unchanged
+ * until the caller is done with the tokenizer.
+ */
+public class CommandTokenizer {
+    private static final String[] NO_WORDS = new String[0];
+
+    private byte[] buffer;
+    private ServerCommand command = ServerCommand.UNKNOWN;
+    private int senderStart;
+    private int senderEnd;
+    private int payloadStart;
+    private int payloadEnd;
+
+    /**
+     * Tokenize a line. Words are separated by single or repeated spaces.
+     *
+     * @param buffer Buffer holding the line, without the line terminator
+     * @param offset Start of the line in the buffer
+     * @param length Length of the line in bytes
+     * @return the command word of the line
+     */
+    public ServerCommand tokenize(byte[] buffer, int offset, int length) {
+        this.buffer = buffer;
+        int end = offset + length;
+        int commandStart = skipSpaces(offset, end);
+        int commandEnd = findSpace(commandStart, end);
+        command = ServerCommand.fromBytes(buffer, commandStart, commandEnd - commandStart);
+
+        int rest = skipSpaces(commandEnd, end);
+        if (command.hasSender()) {
+            senderStart = rest;
+            senderEnd = findSpace(rest, end);
+            rest = skipSpaces(senderEnd, end);
+        } else {
+            senderStart = rest;
+            senderEnd = rest;
+        }
+        payloadStart = rest;
+        payloadEnd = end;
+        while (payloadEnd > payloadStart && buffer[payloadEnd - 1] == ' ') {
+            payloadEnd--;
+        }
+        return command;
+    }
+
+    /**
+     * @return the command word of the last tokenized line
+     */
+    public ServerCommand command() {
+        return command;
+    }
+
+    /**
+     * @return the sender of a "msg" or "privmsg" line, or "" for other commands
+     */
+    public String sender() {
+        return slice(senderStart, senderEnd);
+    }
+
+    /**
+     * @return the sender of a "msg" or "privmsg" line as a shared string, which is only created
+     * the first time a sender is seen
+     */
+    public String internedSender() {
+        return SenderNames.intern(buffer, senderStart, senderEnd - senderStart);
+    }
+
+    /**
+     * @return the payload as a copy of its UTF-8 bytes, without decoding it
+     */
+    public byte[] payloadBytes() {
+        return Arrays.copyOfRange(buffer, payloadStart, payloadEnd);
+    }
+
+    /**
+     * @return everything after the command word (and sender), without surrounding spaces
+     */
+    public String payload() {
+        return slice(payloadStart, payloadEnd);
+    }
+
+    /**
+     * Split the payload into words, for "users" and "supported" lines.
+     *
+     * @return the words of the payload, empty array if there are none
+     */
+    public String[] payloadWords() {
+        int count = 0;
+        int i = payloadStart;
+        while (i < payloadEnd) {
+            i = findSpace(i, payloadEnd);
+            count++;
+            i = skipSpaces(i, payloadEnd);
+        }
+        if (count == 0) {
+            return NO_WORDS;
+        }
+        String[] words = new String[count];
+        int w = 0;
+        i = payloadStart;
+        while (i < payloadEnd) {
+            int wordEnd = findSpace(i, payloadEnd);
+            words[w++] = slice(i, wordEnd);
+            i = skipSpaces(wordEnd, payloadEnd);
+        }
+        return words;
+    }
+
+    private String slice(int start, int end) {
+        return start < end ? new String(buffer, start, end - start, StandardCharsets.UTF_8) : "";
+    }
+
+    private int skipSpaces(int from, int end) {
+        while (from < end && buffer[from] == ' ') {
+            from++;
+        }
+        return from;
+    }
+
+    private int findSpace(int from, int end) {
+        while (from < end && buffer[from] != ' ') {
+            from++;
+        }
+        return from;
+    }
+}
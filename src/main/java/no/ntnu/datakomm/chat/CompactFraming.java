@@ -0,0 +1,270 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The compact framing of the chat protocol, an optional mode for slow links. A server that
+ * supports it lists "compact" in its "supported" reply. The client then sends the text line
+ * "compact"; every byte it sends after that line is compact. The server answers with the text
+ * line "compactok"; every byte it sends after that line is compact.
+ *
+ * <p>In compact mode each direction is one DEFLATE stream, flushed at the end of every write,
+ * holding a sequence of frames. A frame is a command code byte, the length of the payload as an
+ * unsigned LEB128 varint, and the payload: the UTF-8 text after the command word. Code 0 means
+ * the command word is not in the table and the payload is the whole line. Otherwise code n is
+ * the n-th word of the command table of the direction.
+ */
+public final class CompactFraming {
+    /**
+     * The word a server lists in its "supported" reply when it can use the compact framing.
+     */
+    public static final String FEATURE = "compact";
+    /**
+     * The line the client sends to switch to the compact framing.
+     */
+    public static final String REQUEST = "compact";
+    /**
+     * The line the server answers with before it switches.
+     */
+    public static final String ACCEPT = "compactok";
+
+    // Command words the client sends, code i + 1
+    private static final String[] CLIENT_WORDS = {"login", "msg", "privmsg", "users", "help", "inbox"};
+    // Command words the server sends, code i + 1
+    private static final String[] SERVER_WORDS = {
+            "msg", "privmsg", "inbox", "msgok", "msgerr", "loginok", "loginerr", "supported", "users", "cmderr"
+    };
+
+    // Largest accepted frame payload
+    private static final int MAX_PAYLOAD = 16 * 1024 * 1024;
+
+    private CompactFraming() {
+    }
+
+    /**
+     * @return an encoder for the commands a client sends
+     */
+    public static Encoder clientEncoder() {
+        return new Encoder(CLIENT_WORDS);
+    }
+
+    /**
+     * @return an encoder for the lines a server sends
+     */
+    public static Encoder serverEncoder() {
+        return new Encoder(SERVER_WORDS);
+    }
+
+    /**
+     * @return a decoder for the lines a server sends
+     */
+    public static Decoder clientDecoder() {
+        return new Decoder(SERVER_WORDS);
+    }
+
+    /**
+     * @return a decoder for the commands a client sends
+     */
+    public static Decoder serverDecoder() {
+        return new Decoder(CLIENT_WORDS);
+    }
+
+    private static byte[][] toBytes(String[] words) {
+        byte[][] bytes = new byte[words.length][];
+        for (int i = 0; i < words.length; i++) {
+            bytes[i] = words[i].getBytes(StandardCharsets.US_ASCII);
+        }
+        return bytes;
+    }
+
+    /**
+     * Turns newline-terminated lines into compressed frames. One encoder per connection and
+     * direction: the compression state carries over from one write to the next.
+     */
+    public static final class Encoder {
+        private final byte[][] words;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private byte[] frames = new byte[1024];
+        private int framesLength = 0;
+        private byte[] output = new byte[1024];
+
+        private Encoder(String[] words) {
+            this.words = toBytes(words);
+        }
+
+        /**
+         * Encode lines. A last line without a newline is encoded as a whole line too.
+         *
+         * @param lines  Buffer holding the lines, each terminated by "\n"
+         * @param offset Start of the first line
+         * @param length Number of bytes
+         * @return the compressed bytes to send
+         */
+        public synchronized byte[] encode(byte[] lines, int offset, int length) {
+            framesLength = 0;
+            int start = offset;
+            int end = offset + length;
+            for (int i = offset; i < end; i++) {
+                if (lines[i] == '\n') {
+                    addFrame(lines, start, i - start);
+                    start = i + 1;
+                }
+            }
+            if (start < end) {
+                addFrame(lines, start, end - start);
+            }
+            deflater.setInput(frames, 0, framesLength);
+            int outputLength = 0;
+            while (true) {
+                outputLength += deflater.deflate(output, outputLength, output.length - outputLength, Deflater.SYNC_FLUSH);
+                if (outputLength < output.length) {
+                    // Room was left, so everything is flushed
+                    break;
+                }
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            return Arrays.copyOf(output, outputLength);
+        }
+
+        private void addFrame(byte[] line, int offset, int length) {
+            int wordEnd = offset;
+            while (wordEnd < offset + length && line[wordEnd] != ' ') {
+                wordEnd++;
+            }
+            int code = 0;
+            for (int i = 0; i < words.length && code == 0; i++) {
+                if (Arrays.equals(words[i], 0, words[i].length, line, offset, wordEnd)) {
+                    code = i + 1;
+                }
+            }
+            int payloadStart = offset;
+            if (code != 0) {
+                payloadStart = Math.min(wordEnd + 1, offset + length);
+            }
+            int payloadLength = offset + length - payloadStart;
+            ensureFrameSpace(1 + 5 + payloadLength);
+            frames[framesLength++] = (byte) code;
+            int value = payloadLength;
+            while (value >= 0x80) {
+                frames[framesLength++] = (byte) (value | 0x80);
+                value >>>= 7;
+            }
+            frames[framesLength++] = (byte) value;
+            System.arraycopy(line, payloadStart, frames, framesLength, payloadLength);
+            framesLength += payloadLength;
+        }
+
+        private void ensureFrameSpace(int needed) {
+            if (framesLength + needed > frames.length) {
+                frames = Arrays.copyOf(frames, Math.max(frames.length * 2, framesLength + needed));
+            }
+        }
+    }
+
+    /**
+     * Turns received compressed bytes back into lines. One decoder per connection and direction.
+     * Only used by the thread that reads the connection.
+     */
+    public static final class Decoder {
+        private final byte[][] words;
+        private final Inflater inflater = new Inflater(true);
+        // Inflated bytes not yet parsed into frames
+        private byte[] pending = new byte[8192];
+        private int pendingLength = 0;
+        private byte[] line = new byte[256];
+
+        private Decoder(String[] words) {
+            this.words = toBytes(words);
+        }
+
+        /**
+         * Decode received bytes and hand every complete line to the handler. Bytes of an
+         * incomplete frame are kept for the next call.
+         *
+         * @param input   The received bytes. All of them are consumed
+         * @param handler Receives the lines, without the line terminator
+         * @throws IOException if the bytes are not a valid compact stream
+         */
+        public void decode(ByteBuffer input, LineHandler handler) throws IOException {
+            inflater.setInput(input);
+            try {
+                while (true) {
+                    if (pendingLength == pending.length) {
+                        pending = Arrays.copyOf(pending, pending.length * 2);
+                    }
+                    int inflated = inflater.inflate(pending, pendingLength, pending.length - pendingLength);
+                    pendingLength += inflated;
+                    parseFrames(handler);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.finished())) {
+                        break;
+                    }
+                    if (inflated == 0 && inflater.needsDictionary()) {
+                        throw new IOException("Compact stream asks for a dictionary");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Bad compact stream: " + e.getMessage());
+            }
+        }
+
+        private void parseFrames(LineHandler handler) throws IOException {
+            int position = 0;
+            while (position < pendingLength) {
+                int code = pending[position] & 0xFF;
+                int payloadLength = 0;
+                int shift = 0;
+                int p = position + 1;
+                boolean complete = false;
+                while (p < pendingLength) {
+                    byte b = pending[p++];
+                    payloadLength |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) {
+                        complete = true;
+                        break;
+                    }
+                    shift += 7;
+                    if (shift > 28) {
+                        throw new IOException("Bad compact frame length");
+                    }
+                }
+                if (!complete) {
+                    break;
+                }
+                if (code > words.length || payloadLength > MAX_PAYLOAD) {
+                    throw new IOException("Bad compact frame");
+                }
+                if (pendingLength - p < payloadLength) {
+                    break;
+                }
+                emit(code, p, payloadLength, handler);
+                position = p + payloadLength;
+            }
+            System.arraycopy(pending, position, pending, 0, pendingLength - position);
+            pendingLength -= position;
+        }
+
+        private void emit(int code, int payloadStart, int payloadLength, LineHandler handler) {
+            if (code == 0) {
+                handler.onLine(pending, payloadStart, payloadLength);
+                return;
+            }
+            byte[] word = words[code - 1];
+            int length = word.length + (payloadLength > 0 ? 1 + payloadLength : 0);
+            if (length > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length));
+            }
+            System.arraycopy(word, 0, line, 0, word.length);
+            if (payloadLength > 0) {
+                line[word.length] = ' ';
+                System.arraycopy(pending, payloadStart, line, word.length + 1, payloadLength);
+            }
+            handler.onLine(line, 0, length);
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The socket end of an {@link OutboundQueue} that switches to the compact framing right after
+ * the "compact" request line, so that no command can slip in between in the wrong framing.
+ * Writes are serialized by the queue.
+ */
+class CompactSink implements OutboundQueue.Sink {
+    private static final byte[] REQUEST_LINE = (CompactFraming.REQUEST + "\n").getBytes(StandardCharsets.US_ASCII);
+
+    private final OutboundQueue.Sink out;
+    // True while a request line is expected, so that other writes are not scanned for it
+    private volatile boolean armed = false;
+    // Set once the request line is written
+    private volatile CompactFraming.Encoder encoder;
+
+    /**
+     * @param out Where the bytes go
+     */
+    CompactSink(OutboundQueue.Sink out) {
+        this.out = out;
+    }
+
+    /**
+     * Watch for the request line: every byte written after it is encoded.
+     */
+    void arm() {
+        armed = true;
+    }
+
+    @Override
+    public void write(byte[] data, int offset, int length) throws IOException {
+        if (encoder != null) {
+            writeEncoded(data, offset, length);
+            return;
+        }
+        int end = offset + length;
+        if (armed) {
+            for (int lineStart = offset; lineStart < end; ) {
+                if (isRequestLine(data, lineStart, end)) {
+                    int switchAt = lineStart + REQUEST_LINE.length;
+                    out.write(data, offset, switchAt - offset);
+                    encoder = CompactFraming.clientEncoder();
+                    armed = false;
+                    if (switchAt < end) {
+                        writeEncoded(data, switchAt, end - switchAt);
+                    }
+                    return;
+                }
+                while (lineStart < end && data[lineStart] != '\n') {
+                    lineStart++;
+                }
+                lineStart++;
+            }
+        }
+        out.write(data, offset, length);
+    }
+
+    private static boolean isRequestLine(byte[] data, int start, int end) {
+        return end - start >= REQUEST_LINE.length
+                && Arrays.equals(REQUEST_LINE, 0, REQUEST_LINE.length, data, start, start + REQUEST_LINE.length);
+    }
+
+    private void writeEncoded(byte[] data, int offset, int length) throws IOException {
+        byte[] encoded = encoder.encode(data, offset, length);
+        out.write(encoded, 0, encoded.length);
+    }
+
+    /**
+     * @return true once commands are sent in the compact framing
+     */
+    boolean isCompact() {
+        return encoder != null;
+    }
+}
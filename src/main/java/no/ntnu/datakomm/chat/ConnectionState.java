@@ -0,0 +1,21 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * The health of a {@link TCPClient}'s connection, as reported to
+ * {@link ChatListener#onConnectionStateChanged(ConnectionState)}.
+ */
+public enum ConnectionState {
+    /**
+     * Connected to the server. After a reconnect the client logs in again with the last
+     * username and fetches the inbox on its own.
+     */
+    CONNECTED,
+    /**
+     * The connection was lost and the client is trying to connect again. Commands sent now fail.
+     */
+    RECONNECTING,
+    /**
+     * Not connected, and not trying to: the client was disconnected or gave up reconnecting.
+     */
+    DISCONNECTED
+}
@@ -0,0 +1,247 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opens TCP connections to a host that may have several addresses. Every address of the host is
+ * tried, a new attempt starting each time the previous one has not connected within the attempt
+ * delay or has failed, and the first connection made wins ("happy eyeballs", RFC 8305). An
+ * unreachable address then costs the attempt delay instead of the system's connect timeout.
+ * The address that worked is tried first next time, without waiting for the host name lookup.
+ */
+class Connector {
+    /**
+     * Finds the addresses of a host name.
+     */
+    interface Resolver {
+        InetAddress[] resolve(String host) throws UnknownHostException;
+    }
+
+    private final ClientMetrics metrics;
+    private final Resolver resolver;
+    // The address that last worked for each "host:port", tried first
+    private final Map<String, InetAddress> lastGood = new ConcurrentHashMap<>();
+    // Longest time for resolving the host and connecting together
+    private volatile Duration timeout = Duration.ofSeconds(10);
+    // Time given to an attempt before the next address is tried as well. RFC 8305 recommends 250 ms
+    private volatile Duration attemptDelay = Duration.ofMillis(250);
+
+    /**
+     * @param metrics Where the time spent on each phase is recorded
+     */
+    Connector(ClientMetrics metrics) {
+        this(metrics, InetAddress::getAllByName);
+    }
+
+    /**
+     * @param metrics  Where the time spent on each phase is recorded
+     * @param resolver Finds the addresses of a host name
+     */
+    Connector(ClientMetrics metrics, Resolver resolver) {
+        this.metrics = metrics;
+        this.resolver = resolver;
+    }
+
+    /**
+     * @param timeout Longest time for resolving the host and connecting together
+     */
+    void setTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Connect timeout must be positive");
+        }
+        this.timeout = timeout;
+    }
+
+    /**
+     * @param delay Time given to an attempt before the next address is tried as well
+     */
+    void setAttemptDelay(Duration delay) {
+        if (delay.isNegative()) {
+            throw new IllegalArgumentException("Attempt delay can not be negative");
+        }
+        this.attemptDelay = delay;
+    }
+
+    /**
+     * Connect to the first address of the host that accepts a connection.
+     *
+     * @param host           Host name or IP address
+     * @param port           TCP port
+     * @param executionModel Runs the host name lookup, so that it can be given up on
+     * @return a connected channel in blocking mode
+     * @throws UnknownHostException   if the host has no address
+     * @throws SocketTimeoutException if no connection was made in time
+     * @throws InterruptedIOException if the thread was interrupted
+     * @throws IOException            if every address refused the connection or failed
+     */
+    SocketChannel connect(String host, int port, ExecutionModel executionModel) throws IOException {
+        String key = host + ":" + port;
+        long start = System.nanoTime();
+        long deadline = start + timeout.toNanos();
+        long delay = attemptDelay.toNanos();
+
+        Deque<InetAddress> untried = new ArrayDeque<>();
+        InetAddress cached = lastGood.get(key);
+        if (cached != null) {
+            untried.add(cached);
+        }
+        Selector selector = Selector.open();
+        CompletableFuture<InetAddress[]> lookup = new CompletableFuture<>();
+        lookup.whenComplete((addresses, error) -> {
+            synchronized (lookup) {
+                if (selector.isOpen()) {
+                    selector.wakeup();
+                }
+            }
+        });
+
+        List<SocketChannel> attempts = new ArrayList<>();
+        int connecting = 0;
+        SocketChannel winner = null;
+        boolean resolved = false;
+        long resolveNanos = 0;
+        long nextAttempt = start;
+        IOException failure = null;
+        try {
+            executionModel.start("chat-resolve", () -> {
+                try {
+                    lookup.complete(resolver.resolve(host));
+                } catch (UnknownHostException | RuntimeException e) {
+                    lookup.completeExceptionally(e);
+                }
+            });
+            while (winner == null) {
+                long now = System.nanoTime();
+                if (!resolved && lookup.isDone()) {
+                    resolved = true;
+                    resolveNanos = now - start;
+                    try {
+                        for (InetAddress address : interleave(lookup.join())) {
+                            if (!address.equals(cached)) {
+                                untried.add(address);
+                            }
+                        }
+                    } catch (CompletionException e) {
+                        if (e.getCause() instanceof UnknownHostException unknown) {
+                            failure = unknown;
+                        } else {
+                            failure = new UnknownHostException(host + ": " + e.getCause());
+                        }
+                    }
+                }
+                if (now >= nextAttempt && !untried.isEmpty()) {
+                    InetAddress address = untried.poll();
+                    try {
+                        SocketChannel channel = SocketChannel.open();
+                        attempts.add(channel);
+                        channel.configureBlocking(false);
+                        if (channel.connect(new InetSocketAddress(address, port))) {
+                            winner = channel;
+                            break;
+                        }
+                        channel.register(selector, SelectionKey.OP_CONNECT, address);
+                        connecting++;
+                        nextAttempt = now + delay;
+                    } catch (IOException e) {
+                        // For example no route to an IPv6 address: go on with the next one at once
+                        failure = e;
+                        lastGood.remove(key, address);
+                    }
+                    continue;
+                }
+                if (resolved && untried.isEmpty() && connecting == 0) {
+                    throw failure != null ? failure : new ConnectException("No address for " + host);
+                }
+                if (now >= deadline) {
+                    throw new SocketTimeoutException("No connection to " + key + " within "
+                            + timeout.toMillis() + " ms");
+                }
+                long wait = deadline - now;
+                if (!untried.isEmpty()) {
+                    wait = Math.min(wait, nextAttempt - now);
+                }
+                // select(0) would wait forever
+                selector.select(Math.max(1, wait / 1_000_000));
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Interrupted while connecting to " + key);
+                }
+                for (SelectionKey selected : selector.selectedKeys()) {
+                    SocketChannel channel = (SocketChannel) selected.channel();
+                    try {
+                        if (channel.finishConnect()) {
+                            winner = channel;
+                            break;
+                        }
+                    } catch (IOException e) {
+                        // Refused or unreachable: the next address need not wait for the delay
+                        failure = e;
+                        connecting--;
+                        channel.close();
+                        lastGood.remove(key, (InetAddress) selected.attachment());
+                        nextAttempt = System.nanoTime();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } finally {
+            synchronized (lookup) {
+                // Also deregisters the channels, so that the winner can be switched back to blocking mode
+                selector.close();
+            }
+            for (SocketChannel attempt : attempts) {
+                if (attempt != winner) {
+                    attempt.close();
+                }
+            }
+        }
+        lastGood.put(key, ((InetSocketAddress) winner.getRemoteAddress()).getAddress());
+        winner.configureBlocking(true);
+        // A connection made before the lookup finished did not wait for it
+        metrics.connectionOpened(resolveNanos, System.nanoTime() - start - resolveNanos);
+        return winner;
+    }
+
+    /**
+     * Order addresses so that the families alternate, starting with the family of the first one,
+     * so that a broken IPv6 or IPv4 network costs only one attempt delay.
+     */
+    static List<InetAddress> interleave(InetAddress[] addresses) {
+        List<InetAddress> first = new ArrayList<>();
+        List<InetAddress> other = new ArrayList<>();
+        for (InetAddress address : addresses) {
+            if (address.getClass() == addresses[0].getClass()) {
+                first.add(address);
+            } else {
+                other.add(address);
+            }
+        }
+        List<InetAddress> ordered = new ArrayList<>(addresses.length);
+        for (int i = 0; i < Math.max(first.size(), other.size()); i++) {
+            if (i < first.size()) {
+                ordered.add(first.get(i));
+            }
+            if (i < other.size()) {
+                ordered.add(other.get(i));
+            }
+        }
+        return ordered;
+    }
+}
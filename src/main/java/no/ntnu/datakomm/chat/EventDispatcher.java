@@ -0,0 +1,143 @@
+package no.ntnu.datakomm.chat;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Delivers server events to the registered listeners without letting them slow down the
+ * thread that reads the socket. Every listener gets its own bounded {@link EventRing} and its
+ * own consumer thread, so a slow listener only delays itself. The consumer serves control
+ * events first, then private messages, then public ones, and calls its listener from that one
+ * thread only.
+ *
+ * <p>The registry is copy-on-write: listeners can be added or removed from any thread,
+ * including from inside a listener callback, while events are being published.
+ */
+class EventDispatcher {
+
+    /**
+     * One registered listener with its queue and consumer thread.
+     */
+    private static final class ListenerChannel {
+        final ChatListener listener;
+        final EventRing ring;
+        final OverflowPolicy policy;
+        final ClientMetrics metrics;
+
+        ListenerChannel(ChatListener listener, int capacity, OverflowPolicy policy, ClientMetrics metrics) {
+            this.listener = listener;
+            this.ring = new EventRing(capacity);
+            this.policy = policy;
+            this.metrics = metrics;
+        }
+
+        void consume() {
+            try {
+                ChatEvent event;
+                while ((event = ring.take()) != null) {
+                    metrics.eventDelivered(event.lane(), event.receivedAt);
+                    try {
+                        event.deliverTo(listener);
+                    } catch (RuntimeException e) {
+                        // A failing listener must not stop its own deliveries
+                        e.printStackTrace();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final List<ListenerChannel> channels = new CopyOnWriteArrayList<>();
+    private final ClientMetrics metrics;
+
+    EventDispatcher() {
+        this(new ClientMetrics());
+    }
+
+    /**
+     * @param metrics Records how long events wait before they are delivered
+     */
+    EventDispatcher(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Register a listener and start its consumer thread. Registering the same listener twice
+     * has no effect.
+     *
+     * @param listener       The listener to register
+     * @param capacity       Largest number of events queued for this listener
+     * @param policy         What to do when the queue is full
+     * @param executionModel Starts the consumer thread
+     */
+    synchronized void add(ChatListener listener, int capacity, OverflowPolicy policy,
+                          ExecutionModel executionModel) {
+        if (find(listener) == null) {
+            ListenerChannel channel = new ListenerChannel(listener, capacity, policy, metrics);
+            channels.add(channel);
+            executionModel.start("chat-dispatch", channel::consume);
+        }
+    }
+
+    /**
+     * Unregister a listener. Events still queued for it are thrown away.
+     *
+     * @param listener the listener to remove
+     */
+    synchronized void remove(ChatListener listener) {
+        ListenerChannel channel = find(listener);
+        if (channel != null) {
+            channels.remove(channel);
+            channel.ring.close();
+        }
+    }
+
+    private ListenerChannel find(ChatListener listener) {
+        for (ListenerChannel channel : channels) {
+            if (channel.listener == listener) {
+                return channel;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queue an event for every registered listener.
+     *
+     * @param event the event to publish
+     */
+    void publish(ChatEvent event) {
+        for (ListenerChannel channel : channels) {
+            try {
+                channel.ring.offer(event, channel.policy);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return total number of events waiting in the listener queues
+     */
+    int queuedEventCount() {
+        int queued = 0;
+        for (ListenerChannel channel : channels) {
+            queued += channel.ring.size();
+        }
+        return queued;
+    }
+
+    /**
+     * @return total number of events thrown away or coalesced because a listener fell behind
+     */
+    long droppedEventCount() {
+        long dropped = 0;
+        for (ListenerChannel channel : channels) {
+            dropped += channel.ring.droppedCount();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,23 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * The queues server events wait in before a listener gets them. Every listener has one queue per
+ * lane and is served from the first non-empty lane, so replies and errors are not held up
+ * behind a flood of public messages. Within a lane, events keep the order they arrived in.
+ * Connection changes are the exception to the lane order: they wait for the messages that
+ * arrived before them, so a listener never hears of a disconnect ahead of older messages.
+ */
+public enum EventLane {
+    /**
+     * Replies, errors and connection changes.
+     */
+    CONTROL,
+    /**
+     * Private messages.
+     */
+    PRIVATE,
+    /**
+     * Public messages.
+     */
+    PUBLIC
+}
@@ -0,0 +1,230 @@
+package no.ntnu.datakomm.chat;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded ring buffers of events between the thread reading the socket and one listener's
+ * consumer thread, one ring per {@link EventLane}. The consumer takes from the first lane that
+ * has an event, so control events overtake queued messages. Disconnects and connection state
+ * changes do not: they wait until the messages queued before them are taken.
+ *
+ * <p>Control events are never thrown away: when the control lane is full and the policy does
+ * not block, the lane grows instead, up to {@link #CONTROL_LIMIT} events or the capacity if
+ * that is larger. Beyond that the producer waits for room, as with
+ * {@link OverflowPolicy#BLOCK}, so a stalled listener can not take all of the heap.
+ */
+class EventRing {
+    private static final EventLane[] LANES = EventLane.values();
+    // Largest number of queued control events when the policy does not block
+    static final int CONTROL_LIMIT = 1024;
+
+    private final ChatEvent[][] events;
+    // Arrival number of each queued event, parallel to the events
+    private final long[][] arrivals;
+    private final int controlLimit;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition[] notFull = new Condition[LANES.length];
+    private final int[] head = new int[LANES.length];
+    private final int[] count = new int[LANES.length];
+    private int total = 0;
+    private long arrived = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /**
+     * @param capacity Largest number of queued events in each lane
+     */
+    EventRing(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.events = new ChatEvent[LANES.length][capacity];
+        this.arrivals = new long[LANES.length][capacity];
+        this.controlLimit = Math.max(capacity, CONTROL_LIMIT);
+        for (int i = 0; i < notFull.length; i++) {
+            notFull[i] = lock.newCondition();
+        }
+    }
+
+    /**
+     * Queue an event in its lane. What happens when the lane is full depends on the policy.
+     *
+     * @param event  The event to queue
+     * @param policy What to do when the lane is full
+     * @throws InterruptedException if interrupted while waiting for room (BLOCK, or a control
+     *                              lane at its limit)
+     */
+    void offer(ChatEvent event, OverflowPolicy policy) throws InterruptedException {
+        int lane = event.lane().ordinal();
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            if (policy == OverflowPolicy.COALESCE && event.isCoalescable() && replaceQueued(lane, event)) {
+                return;
+            }
+            ChatEvent[] ring = events[lane];
+            boolean control = event.lane() == EventLane.CONTROL;
+            if (count[lane] == ring.length && control && policy != OverflowPolicy.BLOCK
+                    && ring.length < controlLimit) {
+                ring = grow(lane);
+            }
+            if (count[lane] == ring.length) {
+                if (policy == OverflowPolicy.BLOCK || control) {
+                    while (count[lane] == events[lane].length && !closed) {
+                        notFull[lane].await();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    // Another producer may have grown the lane meanwhile
+                    ring = events[lane];
+                } else {
+                    // Drop the oldest event of the lane
+                    ring[head[lane]] = null;
+                    head[lane] = (head[lane] + 1) % ring.length;
+                    count[lane]--;
+                    total--;
+                    dropped++;
+                }
+            }
+            int tail = (head[lane] + count[lane]) % ring.length;
+            ring[tail] = event;
+            arrivals[lane][tail] = arrived++;
+            count[lane]++;
+            total++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Double the size of a full lane, up to the control limit, moving its events to the start of
+     * the new ring.
+     */
+    private ChatEvent[] grow(int lane) {
+        ChatEvent[] ring = events[lane];
+        ChatEvent[] grown = new ChatEvent[Math.min(ring.length * 2, controlLimit)];
+        long[] grownArrivals = new long[grown.length];
+        for (int i = 0; i < count[lane]; i++) {
+            int index = (head[lane] + i) % ring.length;
+            grown[i] = ring[index];
+            grownArrivals[i] = arrivals[lane][index];
+        }
+        events[lane] = grown;
+        arrivals[lane] = grownArrivals;
+        head[lane] = 0;
+        return grown;
+    }
+
+    /**
+     * Replace the newest queued event of the same type, if there is one.
+     */
+    private boolean replaceQueued(int lane, ChatEvent event) {
+        ChatEvent[] ring = events[lane];
+        for (int i = count[lane] - 1; i >= 0; i--) {
+            int index = (head[lane] + i) % ring.length;
+            if (ring[index].type == event.type) {
+                ring[index] = event;
+                dropped++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wait for the next event.
+     *
+     * @return the oldest event of the first non-empty lane, or null once the ring is closed. A
+     * connection change at the head of its lane comes after the messages queued before it
+     * @throws InterruptedException if interrupted while waiting
+     */
+    ChatEvent take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (total == 0 && !closed) {
+                notEmpty.await();
+            }
+            if (closed) {
+                return null;
+            }
+            int lane = 0;
+            while (count[lane] == 0) {
+                lane++;
+            }
+            if (events[lane][head[lane]].isLifecycle()) {
+                lane = olderLane(lane);
+            }
+            ChatEvent[] ring = events[lane];
+            ChatEvent event = ring[head[lane]];
+            ring[head[lane]] = null;
+            head[lane] = (head[lane] + 1) % ring.length;
+            count[lane]--;
+            total--;
+            notFull[lane].signal();
+            return event;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the first lane after the given one whose oldest event arrived before the oldest
+     * event of the given lane, or the given lane if there is none
+     */
+    private int olderLane(int lane) {
+        long before = arrivals[lane][head[lane]];
+        for (int other = lane + 1; other < LANES.length; other++) {
+            if (count[other] > 0 && arrivals[other][head[other]] < before) {
+                return other;
+            }
+        }
+        return lane;
+    }
+
+    /**
+     * Close the ring: queued events are thrown away and waiting threads wake up.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            for (Condition condition : notFull) {
+                condition.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of queued events in all lanes
+     */
+    int size() {
+        lock.lock();
+        try {
+            return total;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of messages thrown away because their lane was full, and of user lists
+     * replaced by newer ones
+     */
+    long droppedCount() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
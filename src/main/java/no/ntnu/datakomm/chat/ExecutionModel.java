@@ -0,0 +1,258 @@
+package no.ntnu.datakomm.chat;
+
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides what kind of threads the client runs its background work on: the socket listener,
+ * the connection attempt and periodic tasks such as user list polling. Every thread started
+ * through a model is tracked, so {@link #shutdown(Duration)} can stop all of them together.
+ *
+ * <p>In virtual mode every task gets its own virtual thread. Thousands of sessions blocked in
+ * socket reads then share a small pool of carrier threads instead of one OS thread each.
+ *
+ * <p>Scheduled tasks are short, so every run of one gets a virtual thread in both modes: a
+ * firing then never costs the start of an OS thread.
+ */
+public class ExecutionModel implements AutoCloseable {
+
+    /**
+     * The kind of threads a model starts.
+     */
+    public enum Mode {
+        PLATFORM,
+        VIRTUAL
+    }
+
+    private static final Duration DEFAULT_SHUTDOWN_TIMEOUT = Duration.ofSeconds(5);
+
+    // One timer thread triggers the scheduled tasks of all models
+    private static ScheduledExecutorService timer;
+
+    private final Mode mode;
+    private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+    private final Set<ScheduledFuture<?>> scheduled = ConcurrentHashMap.newKeySet();
+    private volatile boolean shutDown = false;
+
+    private ExecutionModel(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * @return a model that runs every task on its own daemon platform thread
+     */
+    public static ExecutionModel platform() {
+        return new ExecutionModel(Mode.PLATFORM);
+    }
+
+    /**
+     * @return a model that runs every task on its own virtual thread
+     */
+    public static ExecutionModel virtual() {
+        return new ExecutionModel(Mode.VIRTUAL);
+    }
+
+    /**
+     * @return the kind of threads this model starts
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Run a task on a new thread.
+     *
+     * @param name Thread name, shown in thread dumps
+     * @param task The task to run
+     * @return the started thread
+     * @throws RejectedExecutionException if the model has been shut down
+     */
+    public Thread start(String name, Runnable task) {
+        return start(name, task, mode == Mode.VIRTUAL);
+    }
+
+    private Thread start(String name, Runnable task, boolean virtual) {
+        if (shutDown) {
+            throw new RejectedExecutionException("Execution model is shut down");
+        }
+        Runnable tracked = () -> {
+            try {
+                task.run();
+            } finally {
+                threads.remove(Thread.currentThread());
+            }
+        };
+        Thread t;
+        if (virtual) {
+            t = Thread.ofVirtual().name(name).unstarted(tracked);
+        } else {
+            t = Thread.ofPlatform().name(name).daemon(true).unstarted(tracked);
+        }
+        threads.add(t);
+        t.start();
+        return t;
+    }
+
+    /**
+     * Run a task repeatedly with a fixed delay between the end of one run and the start of the
+     * next. Each run happens on a virtual thread of this model; no thread sleeps between runs.
+     *
+     * @param name         Thread name for each run
+     * @param task         The task to run
+     * @param initialDelay Delay before the first run
+     * @param delay        Delay between runs
+     * @param unit         Unit of both delays
+     * @return a future that stops further runs when cancelled
+     */
+    public Future<?> scheduleWithFixedDelay(String name, Runnable task, long initialDelay,
+                                            long delay, TimeUnit unit) {
+        CompletableFuture<Void> handle = new CompletableFuture<>();
+        scheduleRepeat(handle, name, task, initialDelay, delay, unit);
+        return handle;
+    }
+
+    private void scheduleRepeat(CompletableFuture<Void> handle, String name, Runnable task,
+                                long wait, long delay, TimeUnit unit) {
+        schedule(name, () -> {
+            if (handle.isDone()) {
+                return;
+            }
+            try {
+                task.run();
+            } finally {
+                if (!handle.isDone() && !shutDown) {
+                    try {
+                        scheduleRepeat(handle, name, task, delay, delay, unit);
+                    } catch (RejectedExecutionException e) {
+                        // Shut down while the task ran
+                    }
+                }
+            }
+        }, wait, unit);
+    }
+
+    /**
+     * Run a task once after a delay, on a virtual thread of this model.
+     *
+     * @param name  Thread name
+     * @param task  The task to run
+     * @param delay Delay before the run
+     * @param unit  Unit of the delay
+     * @return a future that cancels the run
+     */
+    public ScheduledFuture<?> schedule(String name, Runnable task, long delay, TimeUnit unit) {
+        if (shutDown) {
+            throw new RejectedExecutionException("Execution model is shut down");
+        }
+        ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+        // The shared timer thread only triggers the run, the run itself gets its own thread
+        ScheduledFuture<?> future = timer().schedule(() -> {
+            // Not set yet if the run is due at once: the done future is pruned below
+            if (self[0] != null) {
+                scheduled.remove(self[0]);
+            }
+            try {
+                start(name, task, true);
+            } catch (RejectedExecutionException e) {
+                // Shut down while the timer fired
+            }
+        }, delay, unit);
+        self[0] = future;
+        scheduled.removeIf(ScheduledFuture::isDone);
+        if (!future.isDone()) {
+            scheduled.add(future);
+        }
+        return future;
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "execution-model-timer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return timer;
+    }
+
+    /**
+     * @return number of threads started by this model that are still running
+     */
+    public int getActiveThreadCount() {
+        return threads.size();
+    }
+
+    /**
+     * Count the carrier threads that currently run virtual threads in this JVM. Carrier threads
+     * are shared by all virtual threads, so this is the number of OS threads that all
+     * virtual-mode models together are using.
+     *
+     * @return number of live carrier threads, 0 if no virtual thread has run yet
+     */
+    public static int getCarrierThreadCount() {
+        int count = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            ThreadGroup group = t.getThreadGroup();
+            if (group != null && "CarrierThreads".equals(group.getName())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return true once {@link #shutdown(Duration)} has been called
+     */
+    public boolean isShutDown() {
+        return shutDown;
+    }
+
+    /**
+     * Stop all work: no new tasks are accepted, scheduled tasks are cancelled, and every running
+     * thread is interrupted. Waits until they have all ended or the timeout has passed.
+     *
+     * @param timeout Longest time to wait for the threads to end
+     * @return true if all threads ended in time
+     */
+    public boolean shutdown(Duration timeout) {
+        shutDown = true;
+        for (ScheduledFuture<?> future : scheduled) {
+            future.cancel(false);
+        }
+        scheduled.clear();
+        for (Thread t : threads) {
+            t.interrupt();
+        }
+        long deadline = System.nanoTime() + timeout.toNanos();
+        for (Thread t : threads) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                break;
+            }
+            try {
+                t.join(Duration.ofNanos(left));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return threads.isEmpty();
+    }
+
+    /**
+     * Shut down with a timeout of five seconds.
+     */
+    @Override
+    public void close() {
+        shutdown(DEFAULT_SHUTDOWN_TIMEOUT);
+    }
+}
@@ -0,0 +1,111 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * Decides when commands buffered by a {@link TCPClient} are written to the socket. Commands
+ * that are flushed together leave in one write call and usually one TCP segment.
+ *
+ * <p>A single {@code sendCommand()} call counts as a batch of one command, and
+ * {@link TCPClient#sendCommands(java.util.List)} sends one batch of many commands.
+ */
+public class FlushPolicy {
+    private final int byteThreshold;
+    private final long deadlineMicros;
+    private final boolean flushAtEndOfBatch;
+
+    private FlushPolicy(int byteThreshold, long deadlineMicros, boolean flushAtEndOfBatch) {
+        this.byteThreshold = byteThreshold;
+        this.deadlineMicros = deadlineMicros;
+        this.flushAtEndOfBatch = flushAtEndOfBatch;
+    }
+
+    /**
+     * Write every command as soon as it is queued. This is how the client behaved with an
+     * auto-flushing PrintWriter.
+     *
+     * @return the policy
+     */
+    public static FlushPolicy immediate() {
+        return new FlushPolicy(1, 0, true);
+    }
+
+    /**
+     * Write once at least the given number of bytes are buffered. Whatever is left below the
+     * threshold stays buffered until {@link TCPClient#flush()} is called, unless a deadline is
+     * added with {@link #orAfterMicros(long)}.
+     *
+     * @param bytes Number of buffered bytes that triggers a write
+     * @return the policy
+     */
+    public static FlushPolicy afterBytes(int bytes) {
+        if (bytes < 1) {
+            throw new IllegalArgumentException("Byte threshold must be positive");
+        }
+        return new FlushPolicy(bytes, 0, false);
+    }
+
+    /**
+     * Write at the latest the given number of microseconds after the first command was buffered.
+     * Commands queued by any thread before the deadline leave together.
+     *
+     * @param micros Longest time a command may stay buffered
+     * @return the policy
+     */
+    public static FlushPolicy afterMicros(long micros) {
+        return new FlushPolicy(0, checkMicros(micros), false);
+    }
+
+    /**
+     * Write once at the end of every batch: after each single command, and after the last
+     * command of a {@code sendCommands()} call.
+     *
+     * @return the policy
+     */
+    public static FlushPolicy endOfBatch() {
+        return new FlushPolicy(0, 0, true);
+    }
+
+    /**
+     * Add a deadline to this policy, so that buffered commands are also written when the
+     * deadline passes.
+     *
+     * @param micros Longest time a command may stay buffered
+     * @return a new policy with the deadline added
+     */
+    public FlushPolicy orAfterMicros(long micros) {
+        return new FlushPolicy(byteThreshold, checkMicros(micros), flushAtEndOfBatch);
+    }
+
+    /**
+     * @return number of buffered bytes that triggers a write, 0 if size never triggers one
+     */
+    public int getByteThreshold() {
+        return byteThreshold;
+    }
+
+    /**
+     * @return longest time in microseconds a command may stay buffered, 0 for no deadline
+     */
+    public long getDeadlineMicros() {
+        return deadlineMicros;
+    }
+
+    /**
+     * @return true if the buffer is written at the end of every batch
+     */
+    public boolean isFlushAtEndOfBatch() {
+        return flushAtEndOfBatch;
+    }
+
+    private static long checkMicros(long micros) {
+        if (micros < 1) {
+            throw new IllegalArgumentException("Deadline must be positive");
+        }
+        return micros;
+    }
+
+    @Override
+    public String toString() {
+        return "FlushPolicy{bytes=" + byteThreshold + ", deadlineMicros=" + deadlineMicros
+                + ", endOfBatch=" + flushAtEndOfBatch + "}";
+    }
+}
@@ -1,18 +1,23 @@
 package no.ntnu.datakomm.chat;
 
 import javafx.application.Platform;
-import javafx.collections.ObservableList;
+import javafx.beans.InvalidationListener;
+import javafx.collections.FXCollections;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
 import javafx.scene.input.KeyCode;
-import javafx.scene.layout.HBox;
-import javafx.scene.layout.Pane;
-import javafx.scene.layout.Priority;
-import javafx.scene.layout.VBox;
-
-import java.util.Arrays;
-
-import static java.lang.Thread.sleep;
+import javafx.stage.Stage;
+import no.ntnu.datakomm.chat.history.HistoryEntry;
+import no.ntnu.datakomm.chat.history.HistorySearch;
+import no.ntnu.datakomm.chat.history.MessageHistory;
+import no.ntnu.datakomm.chat.history.SearchQuery;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * The graphical interface containing all the user interface controls: buttons, inputs, etc.
@@ -23,7 +28,8 @@ import static java.lang.Thread.sleep;
 public class GUIController implements ChatListener {
 
     // The following variables are bound to GUI controls. For example, submitBtn is bound to the
-    // "Submit" button in the GUI. The binding is done by JavaFX, by using correct attributes in the FXML layout file.
+    // "Submit" button in the GUI. The binding is done by JavaFX, by using correct attributes in the FXML layout file,
+    // or by bind() when the window is built in code.
 
     @FXML
     private Button submitBtn;
@@ -38,10 +44,10 @@ public class GUIController implements ChatListener {
     private Button helpBtn;
 
     @FXML
-    private VBox userList;
+    private ListView<String> userList;
 
     @FXML
-    private VBox textOutput;
+    private ListView<ChatLogEntry> textOutput;
 
     @FXML
     private TextArea textInput;
@@ -59,34 +65,185 @@ public class GUIController implements ChatListener {
     private TitledPane serverStatus;
 
     @FXML
-    private ScrollPane outputScroll;
+    private TextField searchInput;
 
     // The TCP client that can connect, send commands, etc.
     private TCPClient tcpClient;
 
-    // Active user list will be refreshed periodically. This will be done on a separate CPU Thread to avoid blocking
-    // the GUI.
-    private Thread userPollThread;
+    // All background work (connecting, listening, polling) runs on virtual threads of this model, so that it can be
+    // shut down together when the window closes.
+    private final ExecutionModel executionModel = ExecutionModel.virtual();
+
+    // Active user list will be refreshed periodically. Each refresh runs on a background thread to avoid blocking
+    // the GUI. Polling slows down while nobody joins or leaves, and pauses while the window is hidden.
+    private PresenceScheduler presence;
+
+    // Events from the server are applied to the GUI in one batch per frame
+    private GuiUpdateBatcher<ChatLogEntry> guiUpdates;
+
+    // Number of archived messages moved back into the chat window each time the user scrolls to the top
+    private static final int SCROLLBACK_PAGE = 200;
+
+    // The messages shown in the chat window, and the older ones it can scroll back to
+    private final ChatScrollback scrollback = new ChatScrollback();
+
+    // Where sent and received messages are stored, so they are shown again after a restart
+    private static final Path HISTORY_DIR = Path.of(System.getProperty("user.home"), ".ntnu-chat", "history");
+
+    // Stored messages, or null if the history is not opened yet or could not be opened. Opened on the GUI thread,
+    // read by the thread receiving messages
+    private volatile MessageHistory history;
+
+    // Sequence number of the oldest stored message shown in the chat window. Older ones are read
+    // from the history when the user scrolls to the top
+    private long oldestShownSequence;
+
+    // Finds stored messages, or null if there is no history
+    private volatile HistorySearch search;
+
+    // Largest number of messages shown for a search
+    private static final int SEARCH_LIMIT = 500;
+
+    // True while the chat window shows search results instead of the chat log
+    private boolean showingResults = false;
+
+    // The users shown in the user list
+    private final UserListModel users = new UserListModel();
+
+    // The scrolling part of the chat window, available once the list view is shown
+    private VirtualFlow<?> outputFlow;
+
+    /**
+     * Use the controls of a window built in code, then initialize as the FXML loader would.
+     *
+     * @param layout The window
+     */
+    void bind(ChatLayout layout) {
+        submitBtn = layout.submitBtn;
+        connectBtn = layout.connectBtn;
+        loginBtn = layout.loginBtn;
+        helpBtn = layout.helpBtn;
+        userList = layout.userList;
+        textOutput = layout.textOutput;
+        textInput = layout.textInput;
+        hostInput = layout.hostInput;
+        portInput = layout.portInput;
+        loginInput = layout.loginInput;
+        serverStatus = layout.serverStatus;
+        searchInput = layout.searchInput;
+        initialize();
+    }
 
     /**
-     * Called by the FXML loader after the labels declared above are injected:
+     * Called by the FXML loader after the labels declared above are injected. Only sets up what the first frame
+     * needs, the rest is done by {@link #finishStartup()}.
      */
     public void initialize() {
         tcpClient = new TCPClient();
+        tcpClient.setExecutionModel(executionModel);
+        // Saves bandwidth on slow links with servers that support it, plain text with the others
+        tcpClient.setCompactMode(true);
+        // Bursts wait in a bounded buffer outside the heap, and beyond it in the socket
+        tcpClient.setInboundBufferCapacity(256 * 1024);
+        // Short network blips are bridged without the user having to connect and log in again
+        tcpClient.setReconnectPolicy(ReconnectPolicy.exponential(Duration.ofMillis(500), Duration.ofSeconds(30)));
+        presence = new PresenceScheduler(tcpClient, executionModel);
         hostInput.setText("datakomm.work");
         portInput.setText("1300");
-        textOutput.heightProperty().addListener((observable, oldValue, newValue)
-                -> outputScroll.setVvalue(1.0));
+        textOutput.setItems(scrollback.getEntries());
+        textOutput.setCellFactory(listView -> new ChatLogCell());
+        userList.setItems(users.getUsers());
+        textOutput.skinProperty().addListener((observable, oldSkin, newSkin) -> attachOutputFlow());
+        guiUpdates = new GuiUpdateBatcher<>(this::appendToLog, this::showUserList);
+        guiUpdates.start();
         setKeyAndClickListeners();
     }
 
+    /**
+     * Set up what is not needed to show the window: the message history and its search, user list
+     * rendering and the help button. Called on the GUI thread once the first frame is shown.
+     */
+    public void finishStartup() {
+        // Clicking a user starts a private message to them
+        userList.setCellFactory(listView -> new UserCell(user -> {
+            textInput.setText("/privmsg " + user + " ");
+            textInput.requestFocus();
+            textInput.end();
+        }));
+        // Mouse clicked on "Help" button
+        helpBtn.setOnMouseClicked(event -> tcpClient.askSupportedCommands());
+        searchInput.setOnKeyPressed(event -> {
+            if (event.getCode().equals(KeyCode.ENTER)) {
+                // Search the history, or go back to the chat log when the search box is empty
+                runSearch(searchInput.getText());
+            } else if (event.getCode().equals(KeyCode.ESCAPE)) {
+                searchInput.setText("");
+                showChatLog();
+            }
+        });
+        openHistory();
+    }
+
+    /**
+     * Open the message history and show the newest stored messages.
+     */
+    private void openHistory() {
+        try {
+            MessageHistory opened = MessageHistory.open(HISTORY_DIR, executionModel);
+            List<HistoryEntry> tail = opened.readTail(SCROLLBACK_PAGE);
+            oldestShownSequence = tail.isEmpty() ? opened.getNextSequence() : tail.get(0).getSequence();
+            // Above any message that arrived before the history was opened
+            scrollback.prepend(toLogEntries(tail));
+            search = new HistorySearch(opened, executionModel);
+            history = opened;
+        } catch (IOException e) {
+            System.out.println("Could not open message history: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Show a page of stored messages older than the ones in the chat window, at the top. Called on the GUI thread.
+     *
+     * @return number of messages shown
+     */
+    private int restoreFromHistory() {
+        try {
+            List<HistoryEntry> page = history.readBefore(oldestShownSequence, SCROLLBACK_PAGE);
+            if (!page.isEmpty()) {
+                oldestShownSequence = page.get(0).getSequence();
+            }
+            return scrollback.prepend(toLogEntries(page));
+        } catch (IOException e) {
+            System.out.println("Could not read message history: " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * @return true when the history has messages older than the ones the chat window can scroll back to
+     */
+    private boolean hasOlderInHistory() {
+        // Once the scrollback has dropped messages, the stored ones would not follow on from the oldest kept one
+        return history != null && scrollback.getDroppedCount() == 0
+                && oldestShownSequence > history.getFirstSequence();
+    }
+
+    private static List<ChatLogEntry> toLogEntries(List<HistoryEntry> stored) {
+        List<ChatLogEntry> entries = new ArrayList<>(stored.size());
+        for (HistoryEntry entry : stored) {
+            entries.add(new ChatLogEntry(entry.getMessage(), entry.isLocal(), false, false));
+        }
+        return entries;
+    }
+
     /**
      * Initialize handling for all GUI events: clicking on buttons, and key presses
      */
     private void setKeyAndClickListeners() {
         connectBtn.setOnMouseClicked(event -> {
-            // Mouse clicked on "Connect" button
-            if (tcpClient.isConnectionActive()) {
+            // Mouse clicked on "Connect" button. While reconnecting it stops trying
+            if (tcpClient.getConnectionState() != ConnectionState.DISCONNECTED) {
+                stopUserPolling();
                 tcpClient.disconnect();
                 updateButtons(false);
             } else {
@@ -115,8 +272,52 @@ public class GUIController implements ChatListener {
             inputSubmit();
             textInput.requestFocus();
         });
-        // Mouse clicked on "Help" button
-        helpBtn.setOnMouseClicked(event -> tcpClient.askSupportedCommands());
+    }
+
+    /**
+     * Search the stored messages on a background thread and show the results in the chat window.
+     *
+     * @param input The query as typed: words, from:name, is:private or is:public
+     */
+    private void runSearch(String input) {
+        SearchQuery query = SearchQuery.parse(input);
+        if (search == null || query.isEmpty()) {
+            showChatLog();
+            return;
+        }
+        executionModel.start("chat-search", () -> {
+            try {
+                List<ChatLogEntry> results = toLogEntries(search.search(query, SEARCH_LIMIT));
+                guiUpdates.runLater(() -> showSearchResults(results));
+            } catch (IOException e) {
+                System.out.println("Search failed: " + e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Show search results in the chat window instead of the chat log. New messages are still added to the log.
+     * Called on the GUI thread.
+     *
+     * @param results the matching messages, oldest first
+     */
+    private void showSearchResults(List<ChatLogEntry> results) {
+        showingResults = true;
+        textOutput.setPlaceholder(new Label("No stored messages match the search"));
+        textOutput.setItems(FXCollections.observableArrayList(results));
+        textOutput.scrollTo(Math.max(0, results.size() - 1));
+    }
+
+    /**
+     * Show the chat log again after a search. Called on the GUI thread.
+     */
+    private void showChatLog() {
+        if (showingResults) {
+            showingResults = false;
+            textOutput.setPlaceholder(null);
+            textOutput.setItems(scrollback.getEntries());
+            textOutput.scrollTo(scrollback.getEntries().size() - 1);
+        }
     }
 
     /**
@@ -142,6 +343,7 @@ public class GUIController implements ChatListener {
                 msg = new TextMessage("", false, msgToSend);
             } else {
                 msg = new TextMessage("you", false, msgToSend);
+                serverStatus.setText("Please login to send messages to server");
             }
             addMsgToGui(true, msg, false);
             textInput.setText("");
@@ -149,7 +351,7 @@ public class GUIController implements ChatListener {
     }
 
     /**
-     * Add a message to the GUI chat window
+     * Add a message to the GUI chat window. The message is shown on the next frame. Can be called from any thread.
      *
      * @param local   When true, this message was sent by us. When false -
      *                received from another user
@@ -157,58 +359,114 @@ public class GUIController implements ChatListener {
      * @param warning When true, this message is a warning that must be displayed to the user
      */
     private void addMsgToGui(boolean local, TextMessage msg, boolean warning) {
-        // Create GUI elements, set their text and style according to what
-        // type of message this is
-
-        HBox message = new HBox();
-        VBox messageContent = new VBox();
-        String senderText;
-        Label messageSender = new Label();
-        messageSender.getStyleClass().add("sender");
-        if (msg.isPrivate()) {
-            senderText = "Private from " + msg.getSender() + ":";
-            messageSender.getStyleClass().add("private");
-        } else {
-            senderText = msg.getSender() + ":";
+        boolean failed = local && !warning && !tcpClient.isConnectionActive();
+        if (history != null && !warning && !failed) {
+            // Only queued here: the history writes on its own thread
+            history.append(msg, local);
         }
-        messageSender.setText(senderText);
-        Label messageText = new Label(msg.getText());
-        ObservableList<String> textStyle = messageText.getStyleClass();
-        textStyle.add("message");
-        messageText.setWrapText(true);
-        Pane spacer = new Pane();
-        HBox.setHgrow(spacer, Priority.ALWAYS);
-        spacer.setMinSize(10, 1);
-        if (warning) {
-            // This message is a warning/info, add specific style to it
-            messageContent.getChildren().addAll(messageText);
-            message.getChildren().addAll(messageContent);
-            if (msg.getSender().equals("err")) {
-                textStyle.add("warning");
-            } else {
-                textStyle.add("info");
+        guiUpdates.post(new ChatLogEntry(msg, local, warning, failed));
+    }
+
+    /**
+     * Append a batch of messages to the chat window. When the user was looking at the newest
+     * messages, the window scrolls to the bottom once and the oldest messages above the
+     * scrollback cap are archived. When the user has scrolled back and messages are archived
+     * anyway, the same message is kept at the top of the window. Called on the GUI thread.
+     *
+     * @param entries the messages to append
+     */
+    private void appendToLog(List<ChatLogEntry> entries) {
+        for (ChatLogEntry entry : entries) {
+            String sender = entry.getMessage().getSender();
+            if (!entry.isLocal() && !sender.isEmpty() && !users.contains(sender)) {
+                // A message from someone not in the user list: users are probably joining, refresh the list soon
+                presence.activityDetected();
+                break;
             }
-        } else {
-            // Regular message
-            if (local) {
-                if (tcpClient.isConnectionActive()) {
-                    textStyle.add("sentMessage");
-                } else {
-                    // Trying to send a message without an active connection
-                    serverStatus.setText("Please login to send messages to server");
-                    textStyle.add("failedMessage");
+        }
+        boolean following = !showingResults && isFollowingLog();
+        int top = following ? -1 : firstVisibleIndex();
+        int archived = scrollback.append(entries, following);
+        if (following) {
+            textOutput.scrollTo(scrollback.getEntries().size() - 1);
+        } else if (archived > 0 && top >= 0 && !showingResults) {
+            textOutput.scrollTo(Math.max(0, top - archived));
+        }
+    }
+
+    /**
+     * @return index of the first message shown in the chat window, or -1 if it is not shown yet
+     */
+    private int firstVisibleIndex() {
+        IndexedCell<?> first = outputFlow != null ? outputFlow.getFirstVisibleCell() : null;
+        return first != null ? first.getIndex() : -1;
+    }
+
+    /**
+     * @return true when the last message in the chat window is visible, or the window is not
+     * shown yet
+     */
+    private boolean isFollowingLog() {
+        if (outputFlow == null) {
+            return true;
+        }
+        IndexedCell<?> last = outputFlow.getLastVisibleCell();
+        return last == null || last.getIndex() >= scrollback.getEntries().size() - 1;
+    }
+
+    /**
+     * Find the scrolling part of the chat window once the list view has its skin, and start
+     * watching for the user scrolling to the top or back to the bottom.
+     */
+    private void attachOutputFlow() {
+        if (textOutput.lookup(".virtual-flow") instanceof VirtualFlow<?> flow) {
+            outputFlow = flow;
+            flow.positionProperty().addListener((observable, oldValue, newValue) -> {
+                if (showingResults) {
+                    // Scrolling through search results, not the chat log
+                    return;
                 }
-                // Add empty space first (left), then the message (right)
-                messageContent.getChildren().addAll(messageText);
-                message.getChildren().addAll(spacer, messageContent);
-            } else {
-                textStyle.add("otherMessage");
-                // Add message first (left), then empty space (right)
-                messageContent.getChildren().addAll(messageSender, messageText);
-                message.getChildren().addAll(messageContent, spacer);
-            }
+                // Change the list on the next frame, not while the flow is scrolling
+                if (newValue.doubleValue() <= 0 && scrollback.hasOlder()) {
+                    // Scrolled to the top: show a page of archived messages, keeping the same message on top
+                    guiUpdates.runLater(() -> textOutput.scrollTo(scrollback.restoreOlder(SCROLLBACK_PAGE)));
+                } else if (newValue.doubleValue() <= 0 && hasOlderInHistory()) {
+                    // Nothing more archived: show a page of messages stored by earlier sessions
+                    guiUpdates.runLater(() -> textOutput.scrollTo(restoreFromHistory()));
+                } else if (newValue.doubleValue() >= 1) {
+                    // Back at the bottom: messages restored while scrolling back can be archived again
+                    guiUpdates.runLater(() -> {
+                        if (scrollback.trim() > 0) {
+                            textOutput.scrollTo(scrollback.getEntries().size() - 1);
+                        }
+                    });
+                }
+            });
         }
-        textOutput.getChildren().add(message);
+    }
+
+    /**
+     * Change how many messages the chat window keeps. Must be called on the GUI thread.
+     *
+     * @param shown    Largest number of messages kept in the chat window
+     * @param archived Largest number of older messages kept to scroll back to, 0 for none
+     */
+    public void setScrollback(int shown, int archived) {
+        scrollback.setCapacity(shown, archived);
+    }
+
+    /**
+     * @return number of older messages kept to scroll back to
+     */
+    public int getArchivedMessageCount() {
+        return scrollback.getArchivedCount();
+    }
+
+    /**
+     * @return number of messages that were dropped from the scrollback and can no longer be shown
+     */
+    public long getDroppedMessageCount() {
+        return scrollback.getDroppedCount();
     }
 
     /**
@@ -224,18 +482,60 @@ public class GUIController implements ChatListener {
         connectBtn.setDisable(true);
 
         // Run the connection in a new background thread to avoid GUI freeze
-        Thread connThread = new Thread(() -> {
+        executionModel.start("chat-connect", () -> {
             boolean connected = tcpClient.connect(host, Integer.parseInt(port));
             if (connected) {
-                // Connection established, start listening processes
-                tcpClient.addListener(this);
+                // Connection established, start listening processes. Every message must reach the
+                // chat view and the history, so a full queue holds back the socket reads instead
+                tcpClient.addListener(this, OverflowPolicy.BLOCK);
                 tcpClient.startListenThread();
                 startUserPolling();
             }
             updateButtons(connected);
         });
-        connThread.setDaemon(true);
-        connThread.start();
+    }
+
+    /**
+     * Pause user polling while the window is minimized or not shown. Called by the application once the window
+     * exists.
+     *
+     * @param stage the window showing this controller's layout
+     */
+    public void watchWindow(Stage stage) {
+        InvalidationListener update = observable -> presence.setPaused(stage.isIconified() || !stage.isShowing());
+        stage.iconifiedProperty().addListener(update);
+        stage.showingProperty().addListener(update);
+        update.invalidated(null);
+    }
+
+    /**
+     * @return number of messages waiting to be shown on the next frame
+     */
+    public int getPendingGuiUpdates() {
+        return guiUpdates.getQueueDepth();
+    }
+
+    /**
+     * @return how long the oldest message shown on the last frame had waited, in milliseconds
+     */
+    public long getDisplayLagMillis() {
+        return guiUpdates.getDisplayLagNanos() / 1_000_000;
+    }
+
+    /**
+     * Close the connection and stop all background threads. Called when the application exits.
+     */
+    public void shutdown() {
+        guiUpdates.stop();
+        stopUserPolling();
+        tcpClient.disconnect();
+        if (search != null) {
+            search.close();
+        }
+        if (history != null) {
+            history.close();
+        }
+        executionModel.shutdown(Duration.ofSeconds(2));
     }
 
     /**
@@ -279,39 +579,19 @@ public class GUIController implements ChatListener {
     ///////////////////////////////////////////////////////////////////////
 
     /**
-     * Start a new thread that will poll the server for currently active users
+     * Start polling the server for currently active users. The interval adapts to how often users join and leave.
      */
     private void startUserPolling() {
-        // Make sure we have just one polling thread, not duplicates
-        if (userPollThread == null) {
-
-            userPollThread = new Thread(() -> {
-                ////////////////////////////////////////////////////////////////
-                // This block of code will run in the polling thread
-                ////////////////////////////////////////////////////////////////
-                long threadId = Thread.currentThread().getId();
-                System.out.println("Started user polling in Thread "
-                        + threadId);
-                while (tcpClient.isConnectionActive()) {
-                    // TcpClient will ask server to send the latest user list. The response from the server will
-                    // not be handled here! Here we only ask for update and go to sleep. Then repeat.
-                    tcpClient.refreshUserList();
-                    try {
-                        sleep(3000);
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-                System.out.println("User polling thread " + threadId + " exiting...");
-                // Make sure we start the thread again next time
-                userPollThread = null;
-                ////////////////////////////////////////////////////////////////
-                // EOF polling thread code
-                ////////////////////////////////////////////////////////////////
-            });
-            userPollThread.setDaemon(true);
-            userPollThread.start();
-        }
+        // TcpClient will ask server to send the latest user list. The response from the server will
+        // not be handled here! Here we only ask for update. The reply arrives in onUserList().
+        presence.start();
+    }
+
+    /**
+     * Stop polling for active users. Polling is started again on the next connection.
+     */
+    private void stopUserPolling() {
+        presence.stop();
     }
 
     /**
@@ -325,15 +605,12 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onLoginResult(boolean success, String errMsg) {
-        // Update the GUI. Do it on the GUI thread with Platform.runLater()
-        Platform.runLater(() -> {
-            if (success) {
-                serverStatus.setText("Server - login successful");
-            } else {
-                serverStatus.setText("Server - login failed");
-                addMsgToGui(true, new TextMessage("err", false, errMsg), true);
-            }
-        });
+        // Update the GUI. Do it on the GUI thread, on the next frame
+        guiUpdates.runLater(() -> serverStatus.setText(success
+                ? "Server - login successful" : "Server - login failed"));
+        if (!success) {
+            addMsgToGui(true, new TextMessage("err", false, errMsg), true);
+        }
     }
 
     /**
@@ -343,8 +620,8 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onMessageReceived(TextMessage message) {
-        // Show the message in the GUI. Do it on the GUI thread.
-        Platform.runLater(() -> addMsgToGui(false, message, false));
+        // Show the message in the GUI. It is appended on the GUI thread with the other messages of the same frame.
+        addMsgToGui(false, message, false);
     }
 
     /**
@@ -355,9 +632,8 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onMessageError(String errMsg) {
-        // Show error message in the GUI. Do it on the GUI thread.
-        Platform.runLater(() -> addMsgToGui(true, new TextMessage("err", false,
-                "Error: " + errMsg), true));
+        // Show error message in the GUI. It is appended on the GUI thread.
+        addMsgToGui(true, new TextMessage("err", false, "Error: " + errMsg), true);
     }
 
     /**
@@ -368,21 +644,17 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onUserList(String[] usernames) {
-        // Update the user list. Do it on the GUI thread.
-        Platform.runLater(() -> {
-            userList.getChildren().clear();
-            for (String user : usernames) {
-                Label text = new Label(user);
-                text.getStyleClass().add("user");
-                // Set an "on-click" listener for the item in the user list - allow to send a private message
-                text.setOnMouseClicked(event -> {
-                    textInput.setText("/privmsg " + user + " ");
-                    textInput.requestFocus();
-                    textInput.end();
-                });
-                userList.getChildren().add(text);
-            }
-        });
+        // Update the user list on the next frame. If several lists arrive before that, only the last is shown.
+        guiUpdates.postUserList(usernames);
+    }
+
+    /**
+     * Update the shown user list. Only users that joined or left are inserted or removed. Called on the GUI thread.
+     *
+     * @param usernames Array with usernames of currently connected users
+     */
+    private void showUserList(String[] usernames) {
+        presence.userListReceived(users.update(usernames) > 0);
     }
 
     /**
@@ -393,18 +665,16 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onSupportedCommands(String[] commands) {
-        // Show the commands in the GUI. Do it on the GUI thread.
-        Platform.runLater(() -> {
-            StringBuilder listOfCommands = new StringBuilder(
-                    "Commands available: ");
-            for (String c : commands) {
-                listOfCommands.append(c).append(" ");
-            }
-            listOfCommands.append(
-                    "\nNB! These are chat protocol commands and won't work by just typing them");
-            addMsgToGui(true, new TextMessage("info", false, "Info: "
-                    + listOfCommands.toString()), true);
-        });
+        // Show the commands in the GUI. They are appended on the GUI thread.
+        StringBuilder listOfCommands = new StringBuilder(
+                "Commands available: ");
+        for (String c : commands) {
+            listOfCommands.append(c).append(" ");
+        }
+        listOfCommands.append(
+                "\nNB! These are chat protocol commands and won't work by just typing them");
+        addMsgToGui(true, new TextMessage("info", false, "Info: "
+                + listOfCommands.toString()), true);
     }
 
     /**
@@ -414,11 +684,9 @@ public class GUIController implements ChatListener {
      */
     @Override
     public void onCommandError(String errMsg) {
-        // Shoe error message. Do it on the GUI thread.
-        Platform.runLater(() -> {
-            TextMessage msg = new TextMessage("err", false, "Error: " + errMsg);
-            addMsgToGui(true, msg, true);
-        });
+        // Show error message. It is appended on the GUI thread.
+        TextMessage msg = new TextMessage("err", false, "Error: " + errMsg);
+        addMsgToGui(true, msg, true);
     }
 
     /**
@@ -428,6 +696,29 @@ public class GUIController implements ChatListener {
     @Override
     public void onDisconnect() {
         System.out.println("Socket closed by the remote end");
+        stopUserPolling();
         updateButtons(false);
     }
+
+    /**
+     * This method is called when the connection is lost and the client starts reconnecting,
+     * and when it is connected again.
+     *
+     * @param state The new state of the connection
+     */
+    @Override
+    public void onConnectionStateChanged(ConnectionState state) {
+        if (state == ConnectionState.RECONNECTING) {
+            guiUpdates.runLater(() -> {
+                serverStatus.setText("Connection lost, reconnecting...");
+                loginBtn.setDisable(true);
+                submitBtn.setDisable(true);
+                helpBtn.setDisable(true);
+            });
+        } else if (state == ConnectionState.CONNECTED) {
+            updateButtons(true);
+            // Does nothing if polling went on while reconnecting
+            startUserPolling();
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.animation.AnimationTimer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Collects GUI updates posted from any thread and applies them once per JavaFX pulse, instead
+ * of posting one {@code Platform.runLater()} per event. All items queued since the last frame
+ * are handed over as one batch, and only the newest of several queued user lists is rendered.
+ *
+ * @param <T> type of the items appended to the view
+ */
+class GuiUpdateBatcher<T> {
+    // The display is reported as lagging when the oldest item waited longer than this
+    private static final long LAG_WARNING_NANOS = 1_000_000_000L;
+    private static final long LAG_WARNING_INTERVAL_NANOS = 5_000_000_000L;
+
+    /**
+     * A queued item and the time it was queued, to measure how far behind the display is.
+     */
+    private static final class Pending<T> {
+        final T item;
+        final long queuedAt;
+
+        Pending(T item, long queuedAt) {
+            this.item = item;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    private final Consumer<List<T>> itemSink;
+    private final Consumer<String[]> userListSink;
+    private final Queue<Pending<T>> items = new ConcurrentLinkedQueue<>();
+    private final Queue<Runnable> actions = new ConcurrentLinkedQueue<>();
+    private final AtomicReference<String[]> pendingUserList = new AtomicReference<>();
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicLong coalescedUserLists = new AtomicLong();
+    private final AnimationTimer timer;
+
+    // Only touched on the FX thread, read from others for reporting
+    private volatile long displayLagNanos = 0;
+    private volatile int lastBatchSize = 0;
+    private long lastLagWarning = 0;
+
+    /**
+     * @param itemSink     Appends one batch of items to the view, called on the FX thread
+     * @param userListSink Renders a user list, called on the FX thread
+     */
+    GuiUpdateBatcher(Consumer<List<T>> itemSink, Consumer<String[]> userListSink) {
+        this.itemSink = itemSink;
+        this.userListSink = userListSink;
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drain();
+            }
+        };
+    }
+
+    /**
+     * Start draining on every pulse. Must be called on the FX thread.
+     */
+    void start() {
+        timer.start();
+    }
+
+    /**
+     * Stop draining. Must be called on the FX thread.
+     */
+    void stop() {
+        timer.stop();
+    }
+
+    /**
+     * Queue an item to be appended on the next frame. Safe to call from any thread.
+     *
+     * @param item the item to append
+     */
+    void post(T item) {
+        items.add(new Pending<>(item, System.nanoTime()));
+        queueDepth.incrementAndGet();
+    }
+
+    /**
+     * Queue a user list to be rendered on the next frame. A list that has not been rendered yet
+     * is replaced. Safe to call from any thread.
+     *
+     * @param users the user names
+     */
+    void postUserList(String[] users) {
+        if (pendingUserList.getAndSet(users) != null) {
+            coalescedUserLists.incrementAndGet();
+        }
+    }
+
+    /**
+     * Queue any other GUI change to run on the next frame. Safe to call from any thread.
+     *
+     * @param action the change to run on the FX thread
+     */
+    void runLater(Runnable action) {
+        actions.add(action);
+    }
+
+    /**
+     * Apply everything queued since the last frame.
+     */
+    private void drain() {
+        Runnable action;
+        while ((action = actions.poll()) != null) {
+            action.run();
+        }
+
+        long now = System.nanoTime();
+        Pending<T> first = items.peek();
+        displayLagNanos = first != null ? now - first.queuedAt : 0;
+        if (displayLagNanos > LAG_WARNING_NANOS && now - lastLagWarning > LAG_WARNING_INTERVAL_NANOS) {
+            lastLagWarning = now;
+            System.out.println("GUI is " + displayLagNanos / 1_000_000 + " ms behind, "
+                    + queueDepth.get() + " updates queued");
+        }
+        if (first != null) {
+            List<T> batch = new ArrayList<>(queueDepth.get());
+            Pending<T> pending;
+            while ((pending = items.poll()) != null) {
+                batch.add(pending.item);
+            }
+            queueDepth.addAndGet(-batch.size());
+            lastBatchSize = batch.size();
+            itemSink.accept(batch);
+        }
+
+        String[] users = pendingUserList.getAndSet(null);
+        if (users != null) {
+            userListSink.accept(users);
+        }
+    }
+
+    /**
+     * @return number of items waiting for the next frame
+     */
+    int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return how long the oldest item of the last frame had waited, in nanoseconds
+     */
+    long getDisplayLagNanos() {
+        return displayLagNanos;
+    }
+
+    /**
+     * @return number of items appended in the last frame that had any
+     */
+    int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    /**
+     * @return number of user lists that were replaced by a newer one before being rendered
+     */
+    long getCoalescedUserListCount() {
+        return coalescedUserLists.get();
+    }
+}
@@ -0,0 +1,220 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * A fixed-size ring of raw received bytes, kept off the heap, between the socket and the thread
+ * that parses the lines. When the parser falls behind, the ring fills up and the socket is no
+ * longer read, so TCP flow control holds the server back instead of the heap taking the burst.
+ *
+ * <p>One thread puts bytes in, either blocking with {@link #write(byte[], int, int)} or
+ * straight from a non-blocking channel with {@link #readFrom(ReadableByteChannel)}, and one
+ * thread takes them out through {@link #inputStream()}. The bytes themselves are copied without
+ * the lock: the two threads never touch the same part of the buffer.
+ *
+ * <p>The ring notes when each run of bytes arrived, so that the time bytes wait before the
+ * parser takes them can be recorded.
+ */
+final class InboundRing {
+    private static final int MARKS = 64;
+
+    private final ByteBuffer buffer;
+    private final int capacity;
+    private final ClientMetrics metrics;
+
+    // Guarded by "this"
+    private int head = 0;
+    private int size = 0;
+    // Bytes ever put in and taken out
+    private long added = 0;
+    private long taken = 0;
+    // Runs of bytes still in the ring, oldest first, as a ring of marks: the value of "added"
+    // after each run and when the run arrived. When all marks are in use, new bytes join the
+    // newest run
+    private final long[] markEnd = new long[MARKS];
+    private final long[] markTime = new long[MARKS];
+    private int markHead = 0;
+    private int markCount = 0;
+    private boolean closed = false;
+    // Run once when the ring is half empty again after the producer found it full
+    private Runnable spaceHandler;
+
+    /**
+     * @param capacity Size of the ring in bytes
+     * @param metrics  Where the fill level is reported
+     */
+    InboundRing(int capacity, ClientMetrics metrics) {
+        this.buffer = ByteBuffer.allocateDirect(capacity);
+        this.capacity = capacity;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Put bytes into the ring, waiting while it is full. Bytes written after the ring is
+     * closed are thrown away.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    void write(byte[] data, int offset, int length) throws InterruptedIOException {
+        while (length > 0) {
+            int start;
+            int n;
+            synchronized (this) {
+                if (size == capacity && !closed) {
+                    metrics.inboundStalled();
+                }
+                while (size == capacity && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException("Interrupted while the inbound buffer was full");
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                start = (head + size) % capacity;
+                n = Math.min(length, Math.min(capacity - size, capacity - start));
+            }
+            buffer.put(start, data, offset, n);
+            added(n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Read what the channel has into the free part of the ring, without waiting.
+     *
+     * @return number of bytes read, 0 if the ring is full, -1 at the end of the stream
+     * @throws IOException on read error
+     */
+    int readFrom(ReadableByteChannel channel) throws IOException {
+        int start;
+        int n;
+        synchronized (this) {
+            if (size == capacity) {
+                return 0;
+            }
+            start = (head + size) % capacity;
+            n = Math.min(capacity - size, capacity - start);
+        }
+        int read = channel.read(buffer.slice(start, n));
+        if (read > 0) {
+            added(read);
+        }
+        return read;
+    }
+
+    private synchronized void added(int n) {
+        added += n;
+        if (markCount < MARKS) {
+            int mark = (markHead + markCount) % MARKS;
+            markTime[mark] = System.nanoTime();
+            markCount++;
+        }
+        markEnd[(markHead + markCount - 1) % MARKS] = added;
+        size += n;
+        metrics.inboundBuffered(size);
+        notifyAll();
+    }
+
+    /**
+     * Ask to be told when there is room again, if the ring is full.
+     *
+     * @param handler Run once, on the consumer thread, when the ring is half empty
+     * @return true if the ring is full and the handler was kept, false if there is room
+     */
+    synchronized boolean pauseIfFull(Runnable handler) {
+        if (size < capacity) {
+            return false;
+        }
+        spaceHandler = handler;
+        metrics.inboundStalled();
+        return true;
+    }
+
+    /**
+     * Take bytes out of the ring, waiting until there are some. Records how long the oldest of
+     * the bytes taken waited.
+     *
+     * @return number of bytes read, or -1 once the ring is closed and empty
+     * @throws InterruptedIOException if interrupted while waiting
+     */
+    int read(byte[] data, int offset, int length) throws InterruptedIOException {
+        int start;
+        int n;
+        long arrivedAt;
+        synchronized (this) {
+            while (size == 0 && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException("Interrupted while waiting for inbound bytes");
+                }
+            }
+            if (size == 0) {
+                return -1;
+            }
+            start = head;
+            n = Math.min(length, Math.min(size, capacity - head));
+            arrivedAt = markTime[markHead];
+        }
+        buffer.get(start, data, offset, n);
+        Runnable resume = null;
+        synchronized (this) {
+            head = (head + n) % capacity;
+            size -= n;
+            taken += n;
+            while (markCount > 0 && markEnd[markHead] <= taken) {
+                markHead = (markHead + 1) % MARKS;
+                markCount--;
+            }
+            metrics.inboundBuffered(size);
+            notifyAll();
+            if (spaceHandler != null && size <= capacity / 2) {
+                resume = spaceHandler;
+                spaceHandler = null;
+            }
+        }
+        metrics.inboundWaited(System.nanoTime() - arrivedAt);
+        if (resume != null) {
+            resume.run();
+        }
+        return n;
+    }
+
+    /**
+     * Mark the end of the stream: the consumer gets the bytes still in the ring, then the end.
+     * A waiting producer is released.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the consumer end of the ring as a stream
+     */
+    InputStream inputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return InboundRing.this.read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                return InboundRing.this.read(b, off, len);
+            }
+        };
+    }
+}
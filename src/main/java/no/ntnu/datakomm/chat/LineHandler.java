@@ -0,0 +1,17 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * Receives lines from the server as raw bytes, without the line terminator.
+ */
+public interface LineHandler {
+
+    /**
+     * Called for every complete line. The buffer is reused for the next line, so it must not be
+     * kept after this method returns.
+     *
+     * @param buffer Buffer holding the line
+     * @param offset Start of the line in the buffer
+     * @param length Length of the line in bytes
+     */
+    void onLine(byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,110 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Reads newline-terminated lines from a blocking stream into a reusable byte buffer, without
+ * decoding them into strings. Replaces {@code BufferedReader.readLine()} on the listener thread.
+ */
+class LineReader {
+    private final InputStream in;
+    private final byte[] readBuffer = new byte[8192];
+    private int readPos = 0;
+    private int readLimit = 0;
+    private byte[] line = new byte[256];
+    // Set once the server has switched to the compact framing
+    private CompactFraming.Decoder decoder;
+
+    /**
+     * @param in the stream to read from
+     */
+    LineReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Block until one complete line is read, then hand it to the handler. A trailing "\r" is
+     * removed.
+     *
+     * @param handler Receives the line
+     * @return false when the end of the stream was reached before a complete line
+     * @throws IOException on read error
+     */
+    boolean readLine(LineHandler handler) throws IOException {
+        if (decoder != null) {
+            return readCompact(handler);
+        }
+        int length = 0;
+        while (true) {
+            if (readPos == readLimit) {
+                readLimit = in.read(readBuffer);
+                readPos = 0;
+                if (readLimit < 0) {
+                    readLimit = 0;
+                    return false;
+                }
+            }
+            // Look for the end of the line in what is already buffered
+            int start = readPos;
+            while (readPos < readLimit && readBuffer[readPos] != '\n') {
+                readPos++;
+            }
+            int chunk = readPos - start;
+            if (length == 0 && readPos < readLimit) {
+                // The whole line is in the read buffer: hand it over without copying
+                readPos++;
+                if (chunk > 0 && readBuffer[start + chunk - 1] == '\r') {
+                    chunk--;
+                }
+                handler.onLine(readBuffer, start, chunk);
+                return true;
+            }
+            if (length + chunk > line.length) {
+                line = Arrays.copyOf(line, Math.max(line.length * 2, length + chunk));
+            }
+            System.arraycopy(readBuffer, start, line, length, chunk);
+            length += chunk;
+            if (readPos < readLimit) {
+                // Skip the "\n"
+                readPos++;
+                if (length > 0 && line[length - 1] == '\r') {
+                    length--;
+                }
+                handler.onLine(line, 0, length);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Decode the rest of the stream with the compact framing. Called by the line handler while
+     * it handles the last text line; bytes already buffered after that line are decoded too.
+     *
+     * @param decoder Decoder for the compact stream
+     */
+    void startDecoding(CompactFraming.Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Block until bytes are available, and hand the lines decoded from them to the handler.
+     * They may hold no complete line, or several.
+     */
+    private boolean readCompact(LineHandler handler) throws IOException {
+        if (readPos == readLimit) {
+            readLimit = in.read(readBuffer);
+            readPos = 0;
+            if (readLimit < 0) {
+                readLimit = 0;
+                return false;
+            }
+        }
+        int start = readPos;
+        readPos = readLimit;
+        decoder.decode(ByteBuffer.wrap(readBuffer, start, readLimit - start), handler);
+        return true;
+    }
+}
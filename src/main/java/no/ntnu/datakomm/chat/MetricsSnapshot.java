@@ -0,0 +1,177 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * The values of a {@link ClientMetrics} at one moment. Does not change when the client goes on
+ * recording.
+ */
+public class MetricsSnapshot {
+
+    /**
+     * The main figures of one latency histogram, in microseconds.
+     */
+    public static class Latency {
+        private final long count;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        private final long max;
+
+        private Latency(long count, double mean, long p50, long p90, long p99, long p999, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        static Latency of(LatencyHistogram histogram) {
+            return new Latency(histogram.getCount(), histogram.getMeanMicros(),
+                    histogram.getPercentileMicros(50), histogram.getPercentileMicros(90),
+                    histogram.getPercentileMicros(99), histogram.getPercentileMicros(99.9),
+                    histogram.getMaxMicros());
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMeanMicros() {
+            return mean;
+        }
+
+        public long getP50Micros() {
+            return p50;
+        }
+
+        public long getP90Micros() {
+            return p90;
+        }
+
+        public long getP99Micros() {
+            return p99;
+        }
+
+        public long getP999Micros() {
+            return p999;
+        }
+
+        public long getMaxMicros() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d mean=%.3f p50=%.3f p90=%.3f p99=%.3f p99.9=%.3f max=%.3f ms",
+                    count, mean / 1000, p50 / 1000.0, p90 / 1000.0, p99 / 1000.0, p999 / 1000.0, max / 1000.0);
+        }
+    }
+
+    private final long takenAt = System.currentTimeMillis();
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long[] linesIn;
+    private final long[] linesOut;
+    private final Latency messageReply;
+    private final Latency loginReply;
+    private final Latency inboundWait;
+    private final Latency dispatch;
+
+    MetricsSnapshot(long bytesIn, long bytesOut, long[] linesIn, long[] linesOut,
+                    Latency messageReply, Latency loginReply, Latency inboundWait, Latency dispatch) {
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.linesIn = linesIn;
+        this.linesOut = linesOut;
+        this.messageReply = messageReply;
+        this.loginReply = loginReply;
+        this.inboundWait = inboundWait;
+        this.dispatch = dispatch;
+    }
+
+    /**
+     * @return when the snapshot was taken, in milliseconds since the epoch
+     */
+    public long getTakenAt() {
+        return takenAt;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @param command A command word the server sends
+     * @return number of lines of that kind received
+     */
+    public long getLinesIn(ServerCommand command) {
+        return linesIn[command.ordinal()];
+    }
+
+    /**
+     * @param kind A kind of command the client sends
+     * @return number of commands of that kind sent
+     */
+    public long getLinesOut(ClientMetrics.Outbound kind) {
+        return linesOut[kind.ordinal()];
+    }
+
+    /**
+     * @return time from sending msg/privmsg to receiving msgok/msgerr
+     */
+    public Latency getMessageReply() {
+        return messageReply;
+    }
+
+    /**
+     * @return time from sending login to receiving loginok/loginerr
+     */
+    public Latency getLoginReply() {
+        return loginReply;
+    }
+
+    /**
+     * @return time from received bytes arriving in the inbound buffer to the parser taking them
+     */
+    public Latency getInboundWait() {
+        return inboundWait;
+    }
+
+    /**
+     * @return time from parsing a received line to a listener getting the event
+     */
+    public Latency getDispatch() {
+        return dispatch;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("bytes in ").append(bytesIn).append(", out ").append(bytesOut).append('\n');
+        sb.append("lines in:");
+        for (ServerCommand command : ServerCommand.values()) {
+            if (linesIn[command.ordinal()] > 0) {
+                String word = command == ServerCommand.UNKNOWN ? "unknown" : command.getWord();
+                sb.append(' ').append(word).append('=').append(linesIn[command.ordinal()]);
+            }
+        }
+        sb.append("\nlines out:");
+        for (ClientMetrics.Outbound kind : ClientMetrics.Outbound.values()) {
+            if (linesOut[kind.ordinal()] > 0) {
+                sb.append(' ').append(kind.name().toLowerCase()).append('=').append(linesOut[kind.ordinal()]);
+            }
+        }
+        sb.append("\nmessage reply ").append(messageReply);
+        sb.append("\nlogin reply   ").append(loginReply);
+        sb.append("\ninbound wait  ").append(inboundWait);
+        sb.append("\ndispatch      ").append(dispatch);
+        return sb.toString();
+    }
+}
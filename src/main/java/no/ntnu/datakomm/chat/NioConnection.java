@@ -0,0 +1,282 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * One non-blocking connection to the chat server, served by a {@link NioEventLoop}. Incoming
+ * bytes are split into lines and handed to a line handler on the selector thread. Outgoing
+ * bytes can be queued from any thread, up to a limit, and are written from a reusable direct
+ * buffer.
+ */
+final class NioConnection {
+    private static final int WRITE_BUFFER_SIZE = 16 * 1024;
+    // Most bytes queued for a server that does not read them. Beyond it writes fail and the connection is closed
+    static final int MAX_PENDING_BYTES = 1024 * 1024;
+
+    private final NioEventLoop loop;
+    private final SocketChannel channel;
+    private final LineHandler lineHandler;
+    // When set, received bytes go into the ring unparsed, instead of to the line handler
+    private final InboundRing inbound;
+    private final Runnable closeHandler;
+
+    // Only touched by the selector thread
+    private SelectionKey key;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private byte[] lineBuffer = new byte[256];
+    private int lineLength = 0;
+    // Set once the server has switched to the compact framing
+    private CompactFraming.Decoder decoder;
+
+    // Chunks queued by other threads, each partly written at most, guarded by "this"
+    private final ArrayDeque<ByteBuffer> pending = new ArrayDeque<>();
+    private int pendingBytes = 0;
+    private boolean writeScheduled = false;
+
+    private volatile boolean closed = false;
+
+    /**
+     * @param loop         The event loop serving this connection
+     * @param channel      A connected socket channel
+     * @param lineHandler  Called on the selector thread for every received line (without "\n")
+     * @param closeHandler Called once when the channel is closed by the remote end or an error
+     * @throws IOException when the channel can not be switched to non-blocking mode
+     */
+    NioConnection(NioEventLoop loop, SocketChannel channel, LineHandler lineHandler,
+                  Runnable closeHandler) throws IOException {
+        this(loop, channel, lineHandler, null, closeHandler);
+    }
+
+    /**
+     * @param loop         The event loop serving this connection
+     * @param channel      A connected socket channel
+     * @param inbound      Receives the raw bytes. Reading pauses while it is full
+     * @param closeHandler Called once when the channel is closed by the remote end or an error
+     * @throws IOException when the channel can not be switched to non-blocking mode
+     */
+    NioConnection(NioEventLoop loop, SocketChannel channel, InboundRing inbound,
+                  Runnable closeHandler) throws IOException {
+        this(loop, channel, null, inbound, closeHandler);
+    }
+
+    private NioConnection(NioEventLoop loop, SocketChannel channel, LineHandler lineHandler,
+                          InboundRing inbound, Runnable closeHandler) throws IOException {
+        this.loop = loop;
+        this.channel = channel;
+        this.lineHandler = lineHandler;
+        this.inbound = inbound;
+        this.closeHandler = closeHandler;
+        channel.configureBlocking(false);
+    }
+
+    /**
+     * Register the channel with the selector and start receiving lines.
+     */
+    void startReading() {
+        loop.execute(() -> {
+            try {
+                int ops = SelectionKey.OP_READ;
+                synchronized (this) {
+                    if (!pending.isEmpty()) {
+                        ops |= SelectionKey.OP_WRITE;
+                    }
+                }
+                if (key == null) {
+                    key = channel.register(loop.selector(), ops, this);
+                } else {
+                    key.interestOps(key.interestOps() | ops);
+                }
+            } catch (ClosedChannelException e) {
+                close();
+            }
+        });
+    }
+
+    /**
+     * Queue raw bytes for sending. Safe to call from any thread.
+     *
+     * @param data   the bytes to send
+     * @param offset start offset in data
+     * @param length number of bytes to send
+     * @throws IOException if the connection is closed, or if more than {@link #MAX_PENDING_BYTES}
+     *                     would be waiting. Then the bytes are not sent and the connection closes,
+     *                     as the commands after them can not be sent without them.
+     */
+    void write(byte[] data, int offset, int length) throws IOException {
+        boolean schedule;
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Connection closed");
+            }
+            // One large chunk is always taken, so that a big batch can be sent to a server that reads
+            if (pendingBytes > 0 && pendingBytes + length > MAX_PENDING_BYTES) {
+                loop.execute(this::close);
+                throw new IOException("Server is not reading, " + pendingBytes + " bytes waiting to be sent");
+            }
+            pending.addLast(ByteBuffer.wrap(Arrays.copyOfRange(data, offset, offset + length)));
+            pendingBytes += length;
+            schedule = !writeScheduled;
+            writeScheduled = true;
+        }
+        if (schedule) {
+            loop.execute(this::enableWrite);
+        }
+    }
+
+    private void enableWrite() {
+        if (key == null) {
+            // Not registered yet: startReading() will pick the pending bytes up
+            return;
+        }
+        if (key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Read what is available from the channel and deliver complete lines.
+     *
+     * @param readBuffer The event loop's shared direct read buffer
+     * @throws IOException on read error
+     */
+    void onReadable(ByteBuffer readBuffer) throws IOException {
+        if (inbound != null) {
+            readIntoRing();
+            return;
+        }
+        readBuffer.clear();
+        int read = channel.read(readBuffer);
+        if (read < 0) {
+            close();
+            return;
+        }
+        readBuffer.flip();
+        if (decoder != null) {
+            decoder.decode(readBuffer, lineHandler);
+            return;
+        }
+        int limit = readBuffer.limit();
+        for (int i = 0; i < limit && !closed; i++) {
+            byte b = readBuffer.get(i);
+            if (b == '\n') {
+                int end = lineLength;
+                if (end > 0 && lineBuffer[end - 1] == '\r') {
+                    end--;
+                }
+                lineHandler.onLine(lineBuffer, 0, end);
+                lineLength = 0;
+                if (decoder != null) {
+                    // The handler switched to the compact framing: the rest of the bytes are compact
+                    readBuffer.position(i + 1);
+                    decoder.decode(readBuffer, lineHandler);
+                    return;
+                }
+            } else {
+                if (lineLength == lineBuffer.length) {
+                    lineBuffer = Arrays.copyOf(lineBuffer, lineBuffer.length * 2);
+                }
+                lineBuffer[lineLength++] = b;
+            }
+        }
+    }
+
+    /**
+     * Read straight into the inbound ring. When it is full, stop reading until the parser has
+     * emptied half of it, so that the socket's receive window closes and the server waits.
+     */
+    private void readIntoRing() throws IOException {
+        if (inbound.readFrom(channel) < 0) {
+            close();
+            return;
+        }
+        if (inbound.pauseIfFull(() -> loop.execute(this::resumeReading))) {
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        }
+    }
+
+    private void resumeReading() {
+        if (key != null && key.isValid()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Decode the rest of the stream with the compact framing. Called by the line handler, on the
+     * selector thread, while it handles the last text line.
+     *
+     * @param decoder Decoder for the compact stream
+     */
+    void startDecoding(CompactFraming.Decoder decoder) {
+        this.decoder = decoder;
+    }
+
+    /**
+     * Move queued bytes into the direct write buffer and write as much as the socket accepts.
+     *
+     * @throws IOException on write error
+     */
+    void onWritable() throws IOException {
+        synchronized (this) {
+            while (writeBuffer.hasRemaining() && !pending.isEmpty()) {
+                ByteBuffer chunk = pending.peekFirst();
+                int n = Math.min(chunk.remaining(), writeBuffer.remaining());
+                if (n == chunk.remaining()) {
+                    writeBuffer.put(chunk);
+                    pending.pollFirst();
+                } else {
+                    // Take the part that fits, the rest stays in place for the next write
+                    int limit = chunk.limit();
+                    chunk.limit(chunk.position() + n);
+                    writeBuffer.put(chunk);
+                    chunk.limit(limit);
+                }
+                pendingBytes -= n;
+            }
+        }
+        writeBuffer.flip();
+        channel.write(writeBuffer);
+        writeBuffer.compact();
+        synchronized (this) {
+            if (writeBuffer.position() == 0 && pending.isEmpty()) {
+                writeScheduled = false;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        }
+    }
+
+    /**
+     * @return true when the connection has been closed
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Close the channel. The close handler is called the first time only.
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.clear();
+            pendingBytes = 0;
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        closeHandler.run();
+    }
+}
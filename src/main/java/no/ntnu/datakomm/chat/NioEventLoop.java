@@ -0,0 +1,176 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single-threaded selector loop that serves reads and writes for many non-blocking chat
+ * connections. Pass one instance to several {@link TCPClient}s to let them share the same
+ * thread instead of each one blocking its own listener thread in {@code readLine()}.
+ */
+public class NioEventLoop {
+    // Size of the shared read buffer. All connections read into it, one at a time.
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final Selector selector;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    private Thread loopThread;
+    private volatile boolean running = false;
+
+    /**
+     * Create an event loop. Call {@link #start()} before connecting any client through it.
+     *
+     * @throws IOException when the selector could not be opened
+     */
+    public NioEventLoop() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Start the selector thread. Calling this more than once has no effect.
+     */
+    public synchronized void start() {
+        if (loopThread == null) {
+            running = true;
+            loopThread = new Thread(this::runLoop, "nio-event-loop");
+            loopThread.setDaemon(true);
+            loopThread.start();
+        }
+    }
+
+    /**
+     * Stop the selector thread and close all connections registered on it.
+     */
+    public synchronized void close() {
+        running = false;
+        selector.wakeup();
+        if (loopThread != null) {
+            try {
+                loopThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            loopThread = null;
+        }
+    }
+
+    /**
+     * @return true if the selector thread is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * @return the selector that connections register their channels with
+     */
+    Selector selector() {
+        return selector;
+    }
+
+    /**
+     * @return true when called from the selector thread itself
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == loopThread;
+    }
+
+    /**
+     * Run a task on the selector thread. All changes to selection keys go through here, so that
+     * the selector is only ever touched by one thread.
+     *
+     * @param task the task to run
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * The selector loop: wait for ready channels, run queued tasks, then serve every ready key.
+     */
+    private void runLoop() {
+        while (running) {
+            try {
+                selector.select();
+                runTasks();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    serve(key);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            close((NioConnection) key.attachment());
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the queued tasks. A task that throws is reported and the others still run: the loop
+     * thread serves every connection and must not die.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                System.out.println("Event loop task failed: " + e);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Serve one ready connection. An error on one connection, also one thrown by the code that
+     * handles its lines, closes that connection only.
+     *
+     * @param key the ready selection key
+     */
+    private void serve(SelectionKey key) {
+        NioConnection connection = (NioConnection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                connection.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                connection.onWritable();
+            }
+        } catch (IOException | CancelledKeyException e) {
+            close(connection);
+        } catch (RuntimeException e) {
+            System.out.println("Closing connection after an error in its handler: " + e);
+            e.printStackTrace();
+            close(connection);
+        }
+    }
+
+    /**
+     * Close a connection. Its close handler may throw too, which is reported and otherwise ignored.
+     */
+    private static void close(NioConnection connection) {
+        try {
+            connection.close();
+        } catch (RuntimeException e) {
+            System.out.println("Error while closing a connection: " + e);
+            e.printStackTrace();
+        }
+    }
+}
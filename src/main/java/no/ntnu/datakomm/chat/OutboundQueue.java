@@ -0,0 +1,211 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects outgoing commands from any thread in one byte buffer and writes them to the
+ * connection according to a {@link FlushPolicy}.
+ */
+class OutboundQueue {
+
+    /**
+     * Where flushed bytes go: the socket stream or a non-blocking connection.
+     */
+    interface Sink {
+        void write(byte[] data, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Told about every command as it is queued, in the order the commands reach the socket.
+     */
+    interface QueueHook {
+        /**
+         * Called with the queue locked, so it must be quick and must not send.
+         *
+         * @param command The command
+         * @param reply   The future passed to {@link #enqueue(String, boolean, CompletableFuture)},
+         *                or null
+         */
+        void queued(String command, CompletableFuture<?> reply);
+    }
+
+    // One timer thread for the deadlines of all queues
+    private static ScheduledExecutorService deadlineTimer;
+
+    private final Sink sink;
+    private final QueueHook hook;
+    private volatile FlushPolicy policy;
+
+    // Guarded by "this"
+    private byte[] buffer = new byte[4096];
+    private int length = 0;
+    private long flushCount = 0;
+    private boolean deadlineArmed = false;
+    private IOException lastFailure = null;
+
+    /**
+     * @param sink   Receives the buffered bytes on every flush
+     * @param policy Initial flush policy
+     */
+    OutboundQueue(Sink sink, FlushPolicy policy) {
+        this(sink, policy, null);
+    }
+
+    /**
+     * @param sink   Receives the buffered bytes on every flush
+     * @param policy Initial flush policy
+     * @param hook   Told about every queued command, or null
+     */
+    OutboundQueue(Sink sink, FlushPolicy policy, QueueHook hook) {
+        this.sink = sink;
+        this.policy = policy;
+        this.hook = hook;
+    }
+
+    /**
+     * @param policy the flush policy to use from now on
+     */
+    void setPolicy(FlushPolicy policy) {
+        this.policy = policy;
+    }
+
+    /**
+     * Queue one command. A newline is appended.
+     *
+     * @param command    The command to send
+     * @param endOfBatch When true, this is the last command of a batch
+     * @return false if the command could not be written because the connection failed
+     */
+    synchronized boolean enqueue(String command, boolean endOfBatch) {
+        return enqueue(command, endOfBatch, null);
+    }
+
+    /**
+     * Queue one command that a caller waits for the reply of. A newline is appended. Once a
+     * write has failed, nothing more is queued: the command is dropped and the reply failed.
+     *
+     * @param command    The command to send
+     * @param endOfBatch When true, this is the last command of a batch
+     * @param reply      Handed to the queue hook together with the command, or null
+     * @return false if the command could not be written because the connection failed
+     */
+    synchronized boolean enqueue(String command, boolean endOfBatch, CompletableFuture<?> reply) {
+        if (lastFailure != null) {
+            if (reply != null) {
+                reply.completeExceptionally(lastFailure);
+            }
+            return false;
+        }
+        if (hook != null) {
+            hook.queued(command, reply);
+        }
+        append(command);
+        FlushPolicy p = policy;
+        if ((p.getByteThreshold() > 0 && length >= p.getByteThreshold())
+                || (endOfBatch && p.isFlushAtEndOfBatch())) {
+            return flushLocked();
+        }
+        if (p.getDeadlineMicros() > 0 && !deadlineArmed) {
+            deadlineArmed = true;
+            long flushToWaitFor = flushCount;
+            timer().schedule(() -> flushIfNotFlushedSince(flushToWaitFor),
+                    p.getDeadlineMicros(), TimeUnit.MICROSECONDS);
+        }
+        return lastFailure == null;
+    }
+
+    /**
+     * Mark the end of a batch: flush if the policy says so.
+     *
+     * @return false if the connection failed
+     */
+    synchronized boolean endBatch() {
+        if (policy.isFlushAtEndOfBatch()) {
+            return flushLocked();
+        }
+        return lastFailure == null;
+    }
+
+    /**
+     * Write everything that is buffered now.
+     *
+     * @return false if the connection failed
+     */
+    synchronized boolean flush() {
+        return flushLocked();
+    }
+
+    /**
+     * @return number of bytes waiting for a flush
+     */
+    synchronized int bufferedBytes() {
+        return length;
+    }
+
+    private synchronized void flushIfNotFlushedSince(long flushNumber) {
+        if (flushCount == flushNumber) {
+            flushLocked();
+        }
+    }
+
+    private boolean flushLocked() {
+        deadlineArmed = false;
+        if (length > 0 && lastFailure == null) {
+            try {
+                sink.write(buffer, 0, length);
+            } catch (IOException e) {
+                lastFailure = e;
+                System.err.println("Could not write to server: " + e.getMessage());
+            }
+            length = 0;
+            flushCount++;
+        }
+        return lastFailure == null;
+    }
+
+    /**
+     * Encode the command into the buffer. ASCII, which is nearly all protocol traffic, is copied
+     * character by character without creating a temporary byte array.
+     */
+    private void append(String command) {
+        int n = command.length();
+        ensureCapacity(n + 1);
+        int pos = length;
+        for (int i = 0; i < n; i++) {
+            char c = command.charAt(i);
+            if (c >= 0x80) {
+                byte[] encoded = command.getBytes(StandardCharsets.UTF_8);
+                ensureCapacity(encoded.length + 1);
+                System.arraycopy(encoded, 0, buffer, length, encoded.length);
+                pos = length + encoded.length;
+                break;
+            }
+            buffer[pos++] = (byte) c;
+        }
+        buffer[pos++] = '\n';
+        length = pos;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static synchronized ScheduledExecutorService timer() {
+        if (deadlineTimer == null) {
+            deadlineTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "outbound-flush-timer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return deadlineTimer;
+    }
+}
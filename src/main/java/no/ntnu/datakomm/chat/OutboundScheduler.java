@@ -0,0 +1,266 @@
+package no.ntnu.datakomm.chat;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds commands back to the rate limits of their kind before they go into the
+ * {@link OutboundQueue}. Commands wait in two lanes: control commands (login, users, help and
+ * the rest) always go before chat messages (msg, privmsg), and each lane keeps its own order.
+ * The lanes together hold a bounded number of commands; a command that does not fit is
+ * rejected, not dropped.
+ *
+ * <p>With no limits set, every command goes straight through on the caller's thread. Waiting
+ * commands are sent by one thread of the execution model, started when the first command of a
+ * connection has to wait, which sleeps until the next token is due.
+ */
+class OutboundScheduler {
+
+    /**
+     * A token bucket for one kind of command.
+     */
+    private static final class Bucket {
+        private final double perNano;
+        private final double burst;
+        private double tokens;
+        private long updatedAt;
+
+        Bucket(RateLimit limit) {
+            this.perNano = limit.getPerSecond() / 1e9;
+            this.burst = limit.getBurst();
+            this.tokens = burst;
+            this.updatedAt = System.nanoTime();
+        }
+
+        /**
+         * @return 0 if a token is available now, otherwise nanoseconds until there is one
+         */
+        long nanosUntilToken(long now) {
+            if (Double.isInfinite(perNano)) {
+                return 0;
+            }
+            tokens = Math.min(burst, tokens + (now - updatedAt) * perNano);
+            updatedAt = now;
+            return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / perNano);
+        }
+
+        void take() {
+            tokens -= 1;
+        }
+    }
+
+    private static final class Waiting {
+        final String command;
+        final ClientMetrics.Outbound kind;
+        final CompletableFuture<?> reply;
+
+        Waiting(String command, ClientMetrics.Outbound kind, CompletableFuture<?> reply) {
+            this.command = command;
+            this.kind = kind;
+            this.reply = reply;
+        }
+    }
+
+    private final ClientMetrics metrics;
+
+    // Guarded by "this"
+    private final Bucket[] buckets = new Bucket[ClientMetrics.Outbound.values().length];
+    private final ArrayDeque<Waiting> controlLane = new ArrayDeque<>();
+    private final ArrayDeque<Waiting> chatLane = new ArrayDeque<>();
+    // Both lanes, in the order they are served
+    private final ArrayDeque<Waiting>[] lanes;
+    private int capacity = 1024;
+    private OutboundQueue queue;
+    private ExecutionModel executionModel;
+    // Sends the waiting commands of the current connection, null until one has to wait
+    private Thread drainer;
+    // When the drainer should try again, if commands are waiting
+    private long nextDrainAt;
+
+    /**
+     * @param metrics Where the backlog depth and rejected commands are counted
+     */
+    @SuppressWarnings("unchecked")
+    OutboundScheduler(ClientMetrics metrics) {
+        this.metrics = metrics;
+        this.lanes = new ArrayDeque[]{controlLane, chatLane};
+        for (ClientMetrics.Outbound kind : ClientMetrics.Outbound.values()) {
+            buckets[kind.ordinal()] = new Bucket(RateLimit.unlimited());
+        }
+    }
+
+    /**
+     * Set the limit of one kind of command. The bucket starts full.
+     */
+    synchronized void setLimit(ClientMetrics.Outbound kind, RateLimit limit) {
+        buckets[kind.ordinal()] = new Bucket(limit);
+    }
+
+    /**
+     * @param capacity Largest number of commands waiting in both lanes together
+     */
+    synchronized void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Start sending to the queue of a new connection.
+     *
+     * @param queue          The queue of the connection
+     * @param executionModel Runs the task that sends waiting commands
+     */
+    synchronized void attach(OutboundQueue queue, ExecutionModel executionModel) {
+        this.queue = queue;
+        this.executionModel = executionModel;
+        // The drainer of the previous connection ends when it sees the new queue
+        this.drainer = null;
+        notifyAll();
+    }
+
+    /**
+     * Stop sending, and fail the replies of the commands that were still waiting.
+     *
+     * @param cause Why the commands were not sent
+     */
+    synchronized void detach(IOException cause) {
+        this.queue = null;
+        this.drainer = null;
+        notifyAll();
+        for (ArrayDeque<Waiting> lane : lanes) {
+            for (Waiting waiting : lane) {
+                if (waiting.reply != null) {
+                    waiting.reply.completeExceptionally(cause);
+                }
+            }
+            lane.clear();
+        }
+        metrics.outboundBacklog(0);
+    }
+
+    /**
+     * Send a command now if its limit allows and nothing of its lane is waiting, otherwise add it
+     * to the backlog.
+     *
+     * @param command    The command
+     * @param endOfBatch When true, this is the last command of a batch
+     * @param reply      Completed with the reply, or null
+     * @return false if the connection failed
+     * @throws RejectedExecutionException if the backlog is full. The reply is failed with it
+     */
+    synchronized boolean submit(String command, boolean endOfBatch, CompletableFuture<?> reply) {
+        if (queue == null) {
+            return false;
+        }
+        if (controlLane.size() + chatLane.size() >= capacity) {
+            metrics.commandRejected();
+            RejectedExecutionException rejected = new RejectedExecutionException("Outbound backlog is full");
+            if (reply != null) {
+                reply.completeExceptionally(rejected);
+            }
+            throw rejected;
+        }
+        ClientMetrics.Outbound kind = ClientMetrics.Outbound.of(command);
+        boolean chat = kind == ClientMetrics.Outbound.MSG || kind == ClientMetrics.Outbound.PRIVMSG;
+        (chat ? chatLane : controlLane).addLast(new Waiting(command, kind, reply));
+        return drain(endOfBatch);
+    }
+
+    /**
+     * Mark the end of a batch of commands.
+     *
+     * @return false if the connection failed
+     */
+    synchronized boolean endBatch() {
+        return queue == null || queue.endBatch();
+    }
+
+    /**
+     * @return number of commands waiting for their rate limit
+     */
+    synchronized int backlog() {
+        return controlLane.size() + chatLane.size();
+    }
+
+    /**
+     * Send every waiting command whose limit allows it, control commands first, and wake the
+     * drainer for when the next token is due.
+     */
+    private boolean drain(boolean endOfBatch) {
+        boolean ok = true;
+        boolean sent = false;
+        long now = System.nanoTime();
+        long wait = Long.MAX_VALUE;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (ArrayDeque<Waiting> lane : lanes) {
+                Waiting head = lane.peekFirst();
+                if (head == null) {
+                    continue;
+                }
+                Bucket bucket = buckets[head.kind.ordinal()];
+                long untilToken = bucket.nanosUntilToken(now);
+                if (untilToken > 0) {
+                    // Held back: the other lane may still go
+                    wait = Math.min(wait, untilToken);
+                    continue;
+                }
+                bucket.take();
+                lane.pollFirst();
+                ok &= queue.enqueue(head.command, false, head.reply);
+                sent = true;
+                progress = true;
+                // Start again from the control lane
+                break;
+            }
+        }
+        if (sent && endOfBatch) {
+            ok &= queue.endBatch();
+        }
+        int backlog = controlLane.size() + chatLane.size();
+        metrics.outboundBacklog(backlog);
+        if (backlog > 0) {
+            nextDrainAt = now + wait;
+            if (drainer == null) {
+                OutboundQueue attached = queue;
+                try {
+                    drainer = executionModel.start("chat-outbound", () -> drainUntilDetached(attached));
+                } catch (RejectedExecutionException e) {
+                    // Shutting down: the commands stay waiting until the connection closes
+                }
+            } else {
+                notifyAll();
+            }
+        }
+        return ok;
+    }
+
+    /**
+     * Body of the drainer: send waiting commands as their tokens come due, and sleep while
+     * nothing can be sent, until the queue is detached or the thread is interrupted. An
+     * interrupted drainer gives up its place, so that the next command starts a new one.
+     */
+    private synchronized void drainUntilDetached(OutboundQueue attached) {
+        try {
+            while (queue == attached) {
+                long left = nextDrainAt - System.nanoTime();
+                if (backlog() == 0) {
+                    wait();
+                } else if (left > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, left);
+                } else {
+                    drain(true);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The execution model is shutting down
+        } finally {
+            if (drainer == Thread.currentThread()) {
+                drainer = null;
+            }
+        }
+    }
+}
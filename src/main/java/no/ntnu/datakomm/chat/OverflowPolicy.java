@@ -0,0 +1,27 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * What a listener's event queue does when it is full because the listener is slower than the
+ * server. Control events, such as login results and connection state changes, are never thrown
+ * away: with the policies that do not block, their queue grows instead, up to a limit.
+ *
+ * <p>Only {@link #BLOCK} delivers every message. The other policies lose messages when the
+ * listener falls behind, and must be asked for with
+ * {@link TCPClient#addListener(ChatListener, OverflowPolicy)}.
+ */
+public enum OverflowPolicy {
+    /**
+     * Wait until the listener has taken an event. Nothing is lost, but the socket is not read
+     * while waiting, so the server is held back by TCP flow control. The default.
+     */
+    BLOCK,
+    /**
+     * Throw away the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Replace a queued user list with a newer one instead of queueing both, and throw away the
+     * oldest message when the queue is still full.
+     */
+    COALESCE
+}
@@ -0,0 +1,220 @@
+package no.ntnu.datakomm.chat;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Commands sent to the server that still wait for their reply, in the order they were written.
+ * The server answers every command with one line, in the order the commands arrive, so every
+ * reply belongs to the oldest waiting command, whatever its kind. A reply that does not fit that
+ * command, for example cmderr from a server that does not support "users", fails its future
+ * instead of being matched to a later command.
+ *
+ * <p>Every command is queued, also the ones sent without a future, so that the queue stays in
+ * step with the replies. The send time kept with each command times its reply.
+ */
+class PendingRequests {
+
+    /**
+     * The kinds of replies a command expects.
+     */
+    enum ReplyKind {
+        // msgok or msgerr
+        MESSAGE,
+        // loginok or loginerr
+        LOGIN,
+        // users
+        USERS,
+        // supported
+        HELP,
+        // The inbox header, or msgerr
+        INBOX,
+        // compactok, or cmderr for any other command
+        OTHER;
+
+        /**
+         * @param kind A kind of command
+         * @return the kind of its reply
+         */
+        static ReplyKind of(ClientMetrics.Outbound kind) {
+            switch (kind) {
+                case MSG:
+                case PRIVMSG:
+                    return MESSAGE;
+                case LOGIN:
+                    return LOGIN;
+                case USERS:
+                    return USERS;
+                case HELP:
+                    return HELP;
+                case INBOX:
+                    return INBOX;
+                default:
+                    return OTHER;
+            }
+        }
+
+        /**
+         * @param reply A reply of the server
+         * @return true if the reply can answer a command expecting this kind of reply
+         */
+        boolean fits(ServerCommand reply) {
+            switch (reply) {
+                case MSGOK:
+                    return this == MESSAGE;
+                case MSGERR:
+                    return this == MESSAGE || this == INBOX;
+                case LOGINOK:
+                case LOGINERR:
+                    return this == LOGIN;
+                case USERS:
+                    return this == USERS;
+                case SUPPORTED:
+                    return this == HELP;
+                case INBOX:
+                    return this == INBOX;
+                case COMPACTOK:
+                    return this == OTHER;
+                default:
+                    // cmderr and unknown replies say that any command was not understood
+                    return true;
+            }
+        }
+    }
+
+    /**
+     * One command waiting for its reply.
+     */
+    private static final class Waiting {
+        final ClientMetrics.Outbound command;
+        final ReplyKind kind;
+        // Null if nobody waits for the reply
+        final CompletableFuture<Object> future;
+        final long sentAt;
+
+        Waiting(ClientMetrics.Outbound command, CompletableFuture<Object> future, long sentAt) {
+            this.command = command;
+            this.kind = ReplyKind.of(command);
+            this.future = future;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private final ClientMetrics metrics;
+    private final ArrayDeque<Waiting> queue = new ArrayDeque<>();
+
+    /**
+     * @param metrics Where reply times and the number of waiting commands are recorded
+     */
+    PendingRequests(ClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Queue a command. Must be called in the order the commands are written to the socket.
+     *
+     * @param kind   The kind of the command
+     * @param future Completed with the reply, or null if nobody waits for it
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void add(ClientMetrics.Outbound kind, CompletableFuture<?> future) {
+        queue.addLast(new Waiting(kind, (CompletableFuture<Object>) future, System.nanoTime()));
+        metrics.unansweredCommands(queue.size());
+    }
+
+    /**
+     * Complete the oldest waiting command with a successful reply. If the reply does not fit
+     * the command, the command fails instead.
+     *
+     * @param reply The reply received
+     * @param value The value to complete its future with
+     */
+    void complete(ServerCommand reply, Object value) {
+        Waiting waiting = poll(reply);
+        if (waiting == null || waiting.future == null) {
+            return;
+        }
+        if (waiting.kind.fits(reply)) {
+            waiting.future.complete(value);
+        } else {
+            waiting.future.completeExceptionally(mismatch(waiting, reply));
+        }
+    }
+
+    /**
+     * Fail the oldest waiting command with an error reply.
+     *
+     * @param reply The reply received
+     * @param error The error to complete its future with, used if the reply fits the command
+     */
+    void fail(ServerCommand reply, Throwable error) {
+        Waiting waiting = poll(reply);
+        if (waiting == null || waiting.future == null) {
+            return;
+        }
+        waiting.future.completeExceptionally(waiting.kind.fits(reply) ? error : mismatch(waiting, reply));
+    }
+
+    private static ChatCommandException mismatch(Waiting waiting, ServerCommand reply) {
+        return new ChatCommandException(reply, "is not a reply to a command expecting " + waiting.kind);
+    }
+
+    /**
+     * @param future A future given to {@link #add(ClientMetrics.Outbound, CompletableFuture)}
+     * @return true if the next reply completes the future
+     */
+    synchronized boolean isNext(CompletableFuture<?> future) {
+        Waiting next = queue.peekFirst();
+        return future != null && next != null && next.future == future;
+    }
+
+    /**
+     * @return the kind of reply the oldest waiting command expects, or null if none waits
+     */
+    synchronized ReplyKind peekKind() {
+        Waiting next = queue.peekFirst();
+        return next == null ? null : next.kind;
+    }
+
+    /**
+     * Take the oldest waiting command, and time its reply if the reply fits it.
+     */
+    private Waiting poll(ServerCommand reply) {
+        Waiting waiting;
+        synchronized (this) {
+            waiting = queue.pollFirst();
+            metrics.unansweredCommands(queue.size());
+        }
+        if (waiting != null && waiting.kind.fits(reply)) {
+            metrics.replyReceived(waiting.command, waiting.sentAt);
+        }
+        return waiting;
+    }
+
+    /**
+     * Fail every waiting command and empty the queue, for example when the connection closes.
+     *
+     * @param error The error to complete the futures with
+     */
+    void failAll(Throwable error) {
+        Waiting[] waiting;
+        synchronized (this) {
+            waiting = queue.toArray(new Waiting[0]);
+            queue.clear();
+            metrics.unansweredCommands(0);
+        }
+        // Complete outside the lock: callbacks may send new commands
+        for (Waiting w : waiting) {
+            if (w.future != null) {
+                w.future.completeExceptionally(error);
+            }
+        }
+    }
+
+    /**
+     * @return number of commands waiting for their reply
+     */
+    synchronized int size() {
+        return queue.size();
+    }
+}
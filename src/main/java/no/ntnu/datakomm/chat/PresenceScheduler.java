@@ -0,0 +1,207 @@
+package no.ntnu.datakomm.chat;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks the server for the user list at an interval that follows the activity: soon after users
+ * joined or left, and less and less often while the list stays the same. Polling can be paused,
+ * for example while the window is hidden.
+ *
+ * <p>Only the request is sent here. The reply is read by the client's listener thread like any
+ * other line and delivered as {@link ChatListener#onUserList(String[])}; the listener reports
+ * back with {@link #userListReceived(boolean)}.
+ */
+public class PresenceScheduler {
+    static final long DEFAULT_MIN_INTERVAL_MILLIS = 1000;
+    static final long DEFAULT_MAX_INTERVAL_MILLIS = 30_000;
+
+    private final TCPClient client;
+    private final ExecutionModel executionModel;
+    private final long minIntervalMillis;
+    private final long maxIntervalMillis;
+
+    private long intervalMillis;
+    private boolean running = false;
+    private boolean paused = false;
+    private Future<?> nextPoll;
+    // Changed whenever the scheduled poll is cancelled, so a poll that already started stops there
+    private long generation = 0;
+    private long pollCount = 0;
+    private long skippedCount = 0;
+
+    /**
+     * Create a scheduler that polls between once a second and once every 30 seconds.
+     *
+     * @param client         The client to send the requests with
+     * @param executionModel The model to run the polls on
+     */
+    public PresenceScheduler(TCPClient client, ExecutionModel executionModel) {
+        this(client, executionModel, DEFAULT_MIN_INTERVAL_MILLIS, DEFAULT_MAX_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param client            The client to send the requests with
+     * @param executionModel    The model to run the polls on
+     * @param minIntervalMillis Interval after the user list changed
+     * @param maxIntervalMillis Longest interval while the user list stays the same
+     */
+    public PresenceScheduler(TCPClient client, ExecutionModel executionModel,
+                             long minIntervalMillis, long maxIntervalMillis) {
+        if (minIntervalMillis < 1 || maxIntervalMillis < minIntervalMillis) {
+            throw new IllegalArgumentException("Intervals must be positive, and max at least min");
+        }
+        this.client = client;
+        this.executionModel = executionModel;
+        this.minIntervalMillis = minIntervalMillis;
+        this.maxIntervalMillis = maxIntervalMillis;
+        this.intervalMillis = minIntervalMillis;
+    }
+
+    /**
+     * Start polling, with a first request right away. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (!running) {
+            running = true;
+            intervalMillis = minIntervalMillis;
+            if (!paused) {
+                scheduleNext(0);
+            }
+        }
+    }
+
+    /**
+     * Stop polling. Polling is started again with {@link #start()}, on the next connection.
+     */
+    public synchronized void stop() {
+        if (running) {
+            running = false;
+            cancelNext();
+        }
+    }
+
+    /**
+     * Pause or resume polling. A resumed scheduler asks for the user list right away, since it
+     * may have changed a lot while paused.
+     *
+     * @param paused When true, no requests are sent until resumed
+     */
+    public synchronized void setPaused(boolean paused) {
+        if (this.paused == paused) {
+            return;
+        }
+        this.paused = paused;
+        if (paused) {
+            cancelNext();
+        } else if (running) {
+            intervalMillis = minIntervalMillis;
+            scheduleNext(0);
+        }
+    }
+
+    /**
+     * Report that a user list was received, so the next interval can be chosen. After a change
+     * the scheduler polls at the shortest interval, otherwise the interval is doubled up to the
+     * longest one.
+     *
+     * @param changed When true, users joined or left since the previous list
+     */
+    public synchronized void userListReceived(boolean changed) {
+        if (changed) {
+            intervalMillis = minIntervalMillis;
+        } else {
+            intervalMillis = Math.min(intervalMillis * 2, maxIntervalMillis);
+        }
+    }
+
+    /**
+     * Report other signs that users are joining or leaving, for example messages from unknown
+     * senders. The next poll is brought forward to the shortest interval.
+     */
+    public synchronized void activityDetected() {
+        if (intervalMillis != minIntervalMillis) {
+            intervalMillis = minIntervalMillis;
+            if (running && !paused) {
+                cancelNext();
+                scheduleNext(minIntervalMillis);
+            }
+        }
+    }
+
+    /**
+     * Send one request, unless the connection is gone or a request is still unanswered, and
+     * schedule the next one. While the client is reconnecting nothing is sent, but the polls go
+     * on, so that polling resumes on the new connection.
+     *
+     * @param generation The chain of polls this run belongs to. A run of a chain that was
+     *                   cancelled while it was starting does nothing
+     */
+    private void poll(long generation) {
+        synchronized (this) {
+            if (generation != this.generation) {
+                return;
+            }
+        }
+        boolean sent;
+        if (client.isConnectionActive()) {
+            sent = client.refreshUserList();
+        } else if (client.getConnectionState() == ConnectionState.RECONNECTING) {
+            sent = false;
+        } else {
+            stop();
+            return;
+        }
+        synchronized (this) {
+            if (sent) {
+                pollCount++;
+            } else {
+                skippedCount++;
+            }
+            if (generation == this.generation) {
+                scheduleNext(intervalMillis);
+            }
+        }
+    }
+
+    private void scheduleNext(long delayMillis) {
+        long current = generation;
+        try {
+            nextPoll = executionModel.schedule("user-poll", () -> poll(current), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The execution model is shut down, nothing more to poll
+            running = false;
+        }
+    }
+
+    private void cancelNext() {
+        generation++;
+        if (nextPoll != null) {
+            nextPoll.cancel(false);
+            nextPoll = null;
+        }
+    }
+
+    /**
+     * @return the current interval between requests, in milliseconds
+     */
+    public synchronized long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * @return number of user list requests sent
+     */
+    public synchronized long getPollCount() {
+        return pollCount;
+    }
+
+    /**
+     * @return number of polls that sent nothing because the previous request was unanswered or
+     * the client was reconnecting
+     */
+    public synchronized long getSkippedCount() {
+        return skippedCount;
+    }
+}
@@ -0,0 +1,64 @@
+package no.ntnu.datakomm.chat;
+
+/**
+ * A token bucket limit on how fast a {@link TCPClient} sends one kind of command. Each command
+ * takes a token; tokens come back at a steady rate, and up to a burst of them can be saved up
+ * while nothing is sent. Commands without a token wait in the client's outbound backlog.
+ */
+public class RateLimit {
+    private final double perSecond;
+    private final int burst;
+
+    private RateLimit(double perSecond, int burst) {
+        this.perSecond = perSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * @return no limit: every command is sent at once
+     */
+    public static RateLimit unlimited() {
+        return new RateLimit(Double.POSITIVE_INFINITY, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param perSecond Commands per second in the long run
+     * @param burst     Commands that can be sent at once after a quiet period
+     * @return the limit
+     */
+    public static RateLimit perSecond(double perSecond, int burst) {
+        if (!(perSecond > 0) || Double.isInfinite(perSecond)) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        if (burst < 1) {
+            throw new IllegalArgumentException("Burst must be positive");
+        }
+        return new RateLimit(perSecond, burst);
+    }
+
+    /**
+     * @return true if this limit never holds a command back
+     */
+    public boolean isUnlimited() {
+        return Double.isInfinite(perSecond);
+    }
+
+    /**
+     * @return commands per second in the long run
+     */
+    public double getPerSecond() {
+        return perSecond;
+    }
+
+    /**
+     * @return commands that can be sent at once after a quiet period
+     */
+    public int getBurst() {
+        return burst;
+    }
+
+    @Override
+    public String toString() {
+        return isUnlimited() ? "RateLimit{unlimited}" : "RateLimit{perSecond=" + perSecond + ", burst=" + burst + "}";
+    }
+}
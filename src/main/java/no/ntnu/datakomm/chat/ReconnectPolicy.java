@@ -0,0 +1,94 @@
+package no.ntnu.datakomm.chat;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides whether and when a {@link TCPClient} connects again after it lost its connection.
+ * The delay before each attempt doubles up to a limit, and a random part of it is left out, so
+ * that many clients dropped at once do not all come back at the same moment.
+ */
+public class ReconnectPolicy {
+    private final long initialNanos;
+    private final long maxNanos;
+    private final int maxAttempts;
+
+    private ReconnectPolicy(long initialNanos, long maxNanos, int maxAttempts) {
+        this.initialNanos = initialNanos;
+        this.maxNanos = maxNanos;
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * Never reconnect: a lost connection stays closed. This is how the client behaved before
+     * reconnecting was added.
+     *
+     * @return the policy
+     */
+    public static ReconnectPolicy never() {
+        return new ReconnectPolicy(0, 0, 0);
+    }
+
+    /**
+     * Reconnect until it succeeds or the client is disconnected. The first attempt waits
+     * between half of the initial delay and all of it, and the delay doubles with every failed
+     * attempt until it reaches the limit.
+     *
+     * @param initial Delay before the first attempt
+     * @param max     Longest delay between attempts
+     * @return the policy
+     */
+    public static ReconnectPolicy exponential(Duration initial, Duration max) {
+        if (initial.isNegative() || initial.isZero() || max.compareTo(initial) < 0) {
+            throw new IllegalArgumentException("Delays must be positive, the limit at least the initial delay");
+        }
+        return new ReconnectPolicy(initial.toNanos(), max.toNanos(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Give up after a number of failed attempts.
+     *
+     * @param attempts Largest number of attempts after one lost connection
+     * @return a new policy with the limit
+     */
+    public ReconnectPolicy withMaxAttempts(int attempts) {
+        if (attempts < 1) {
+            throw new IllegalArgumentException("Attempts must be positive");
+        }
+        return new ReconnectPolicy(initialNanos, maxNanos, attempts);
+    }
+
+    /**
+     * @return true if a lost connection is connected again
+     */
+    public boolean isEnabled() {
+        return maxAttempts > 0;
+    }
+
+    /**
+     * @return largest number of attempts after one lost connection, 0 if the client never
+     * reconnects
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @param attempt Number of the attempt, 1 for the first
+     * @return how long to wait before the attempt, in nanoseconds
+     */
+    long delayNanos(int attempt) {
+        long delay = initialNanos;
+        for (int i = 1; i < attempt && delay < maxNanos; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxNanos);
+        return delay - ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    @Override
+    public String toString() {
+        return "ReconnectPolicy{initialMillis=" + initialNanos / 1_000_000 + ", maxMillis=" + maxNanos / 1_000_000
+                + ", maxAttempts=" + maxAttempts + "}";
+    }
+}
@@ -0,0 +1,79 @@
+package no.ntnu.datakomm.chat;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A bounded symbol table for sender names, so that the messages of one sender share one
+ * string instead of each holding its own copy. The table is direct-mapped: a name takes the
+ * slot of its hash, replacing whatever name was there. It never grows past 4096 names, needs no
+ * lock, and a name that was replaced is simply stored again the next time.
+ */
+final class SenderNames {
+    private static final int SIZE = 4096;
+
+    private static final Entry[] TABLE = new Entry[SIZE];
+
+    /**
+     * A name and its UTF-8 bytes. Immutable, so that it can be shared between threads without
+     * locking.
+     */
+    private static final class Entry {
+        final String name;
+        final byte[] bytes;
+
+        Entry(String name) {
+            this.name = name;
+            this.bytes = name.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private SenderNames() {
+    }
+
+    /**
+     * @param name A sender name
+     * @return the shared string equal to the name
+     */
+    static String intern(String name) {
+        int slot = slot(name.hashCode());
+        Entry entry = TABLE[slot];
+        if (entry != null && entry.name.equals(name)) {
+            return entry.name;
+        }
+        TABLE[slot] = new Entry(name);
+        return name;
+    }
+
+    /**
+     * Look up a name without creating a string when it is already in the table.
+     *
+     * @param buffer Buffer holding the name in UTF-8
+     * @param offset Start of the name
+     * @param length Length of the name in bytes
+     * @return the shared string equal to the name
+     */
+    static String intern(byte[] buffer, int offset, int length) {
+        if (length == 0) {
+            return "";
+        }
+        // For ASCII names this is the same hash as String.hashCode()
+        int hash = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = buffer[i];
+            if (b < 0) {
+                return intern(new String(buffer, offset, length, StandardCharsets.UTF_8));
+            }
+            hash = 31 * hash + b;
+        }
+        Entry entry = TABLE[slot(hash)];
+        if (entry != null && Arrays.equals(entry.bytes, 0, entry.bytes.length, buffer, offset, offset + length)) {
+            return entry.name;
+        }
+        return intern(new String(buffer, offset, length, StandardCharsets.US_ASCII));
+    }
+
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (SIZE - 1);
+    }
+}
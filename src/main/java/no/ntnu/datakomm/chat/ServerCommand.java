@@ -0,0 +1,76 @@
+package no.ntnu.datakomm.chat;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The command words the chat server can send to the client.
+ */
+public enum ServerCommand {
+    MSG("msg"),
+    PRIVMSG("privmsg"),
+    INBOX("inbox"),
+    MSGOK("msgok"),
+    MSGERR("msgerr"),
+    LOGINOK("loginok"),
+    LOGINERR("loginerr"),
+    SUPPORTED("supported"),
+    USERS("users"),
+    CMDERR("cmderr"),
+    // The server switches to the compact framing, see CompactFraming
+    COMPACTOK("compactok"),
+    // Any command word the client does not know. Handled like "cmderr".
+    UNKNOWN("");
+
+    private static final ServerCommand[] KNOWN = {
+            MSG, PRIVMSG, INBOX, MSGOK, MSGERR, LOGINOK, LOGINERR, SUPPORTED, USERS, CMDERR, COMPACTOK
+    };
+
+    private final String word;
+    private final byte[] wordBytes;
+
+    ServerCommand(String word) {
+        this.word = word;
+        this.wordBytes = word.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the command word as sent on the wire
+     */
+    public String getWord() {
+        return word;
+    }
+
+    /**
+     * @return true if the command carries a sender as its first argument
+     */
+    public boolean hasSender() {
+        return this == MSG || this == PRIVMSG;
+    }
+
+    /**
+     * Look up a command word without creating a string.
+     *
+     * @param buffer Buffer holding the command word
+     * @param offset Start of the command word
+     * @param length Length of the command word in bytes
+     * @return the matching command, or UNKNOWN
+     */
+    public static ServerCommand fromBytes(byte[] buffer, int offset, int length) {
+        for (ServerCommand command : KNOWN) {
+            byte[] w = command.wordBytes;
+            if (w.length == length && regionEquals(w, buffer, offset)) {
+                return command;
+            }
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean regionEquals(byte[] word, byte[] buffer, int offset) {
+        for (int i = 0; i < word.length; i++) {
+            if (word[i] != buffer[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
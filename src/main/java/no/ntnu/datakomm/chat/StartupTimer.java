@@ -0,0 +1,39 @@
+package no.ntnu.datakomm.chat;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how long each phase of starting the window takes, to be printed once the window is
+ * fully set up. Only used on the GUI thread.
+ */
+class StartupTimer {
+    private final long createdAt = System.nanoTime();
+    private final StringBuilder phases = new StringBuilder();
+    private long phaseStart = createdAt;
+
+    /**
+     * End the current phase and start the next one.
+     *
+     * @param phase Name of the phase that just ended
+     */
+    void mark(String phase) {
+        long now = System.nanoTime();
+        phases.append(", ").append(phase).append(' ').append(toMillis(now - phaseStart)).append(" ms");
+        phaseStart = now;
+    }
+
+    /**
+     * @return one line with the time spent in each phase, starting with the time from the start
+     * of the JVM until this timer was created
+     */
+    String report() {
+        // Read only now: loading the management classes would itself slow down the first frame
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        long launch = Math.max(0, uptime - toMillis(System.nanoTime() - createdAt));
+        return "Startup: launch " + launch + " ms" + phases + " (total " + uptime + " ms)";
+    }
+
+    private static long toMillis(long nanos) {
+        return nanos / 1_000_000;
+    }
+}
@@ -1,22 +1,126 @@
 package no.ntnu.datakomm.chat;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.Socket;
 import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
 
 public class TCPClient {
-    private PrintWriter toServer;
-    private BufferedReader fromServer;
+    private OutboundQueue toServer;
+    private LineReader fromServer;
     private Socket connection;
 
+    // Splits incoming lines. Only used by the thread that delivers incoming lines.
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+    // Sequence number of the next received message. Only used by the thread that delivers incoming lines.
+    private long receivedMessages = 0;
+
+    // When an event loop is given, the client uses a non-blocking channel served by that loop
+    // instead of a blocking socket with its own listener thread
+    private final NioEventLoop eventLoop;
+    private NioConnection channelConnection;
+
     // Hint: if you want to store a message for the last error, store it here
     private String lastError = null;
 
-    private final List<ChatListener> listeners = new LinkedList<>();
+    // Counts traffic and times replies and event delivery
+    private final ClientMetrics metrics = new ClientMetrics();
+
+    // Commands waiting for their reply, matched in order per kind of reply
+    private final PendingRequests pending = new PendingRequests(metrics);
+    private volatile Duration requestTimeout = Duration.ofSeconds(10);
+
+    // Queues events for the listeners, so that slow listeners never hold up socket reads
+    private final EventDispatcher dispatcher = new EventDispatcher(metrics);
+    private int listenerQueueCapacity = 1024;
+
+    // When true, the client asks for the compact framing on connect and uses it if the server supports it
+    private volatile boolean compactMode = false;
+    // The socket end of the outbound queue of the current connection
+    private CompactSink compactSink;
+    // The "help" request sent to find out whether the server supports the compact framing
+    private volatile CompletableFuture<String[]> compactProbe;
+
+    // Decides when queued commands are written to the socket
+    private FlushPolicy flushPolicy = FlushPolicy.immediate();
+
+    // Holds commands back to their rate limits, control commands first
+    private final OutboundScheduler outbound = new OutboundScheduler(metrics);
+
+    // Opens connections, racing the addresses of the server and remembering the one that worked
+    private final Connector connector = new Connector(metrics);
+
+    // Size of the off-heap buffer between the socket and the parser, 0 to parse on the reading thread
+    private int inboundBufferCapacity = 0;
+    // The inbound buffer of the current connection, or null
+    private InboundRing inbound;
+
+    // A user list request without a reply is sent again after this long
+    private static final long USERS_REQUEST_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    // When the unanswered user list request was sent (System.nanoTime()), or 0 if none is outstanding
+    private final AtomicLong usersRequestSentAt = new AtomicLong(0);
+
+    // Decides what kind of thread the listener runs on
+    private ExecutionModel executionModel = ExecutionModel.platform();
+
+    // Decides whether a lost connection is connected again
+    private volatile ReconnectPolicy reconnectPolicy = ReconnectPolicy.never();
+    private volatile ConnectionState state = ConnectionState.DISCONNECTED;
+    // The last state told to the listeners, guarded by stateEvents
+    private ConnectionState publishedState = ConnectionState.DISCONNECTED;
+    private final Object stateEvents = new Object();
+    // Where the last connect() went, to connect there again
+    private String host;
+    private int port;
+    // The thread trying to reconnect, or null. Guarded by "this"
+    private Thread reconnector;
+    // Username of the last login request, and of the last successful login, to log in again after a reconnect
+    private volatile String requestedUsername;
+    private volatile String sessionUsername;
+    // Set while the inbox requested after a reconnect has not arrived yet
+    private volatile boolean catchUpRequested = false;
+    // Number of inbox messages still to come after a reconnect. Only used by the thread that delivers incoming lines.
+    private int catchUpRemaining = 0;
+    // Messages received lately, to drop the ones the inbox delivers again. Only used by the thread that delivers incoming lines.
+    private final Set<TextMessage> recentMessages = Collections.newSetFromMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<TextMessage, Boolean> eldest) {
+            return size() > RECENT_MESSAGES;
+        }
+    });
+    private static final int RECENT_MESSAGES = 512;
+
+    /**
+     * Create a client that uses a blocking socket and its own listener thread.
+     */
+    public TCPClient() {
+        this(null);
+    }
+
+    /**
+     * Create a client that uses a non-blocking channel served by the given event loop. Many
+     * clients can share one loop.
+     *
+     * @param eventLoop the event loop to serve this client, or null for a blocking socket
+     */
+    public TCPClient(NioEventLoop eventLoop) {
+        this.eventLoop = eventLoop;
+    }
 
     /**
      * Connect to a chat server.
@@ -26,22 +130,152 @@ public class TCPClient {
      * @return True on success, false otherwise
      */
     public boolean connect(String host, int port) {
+        this.host = host;
+        this.port = port;
+        boolean connected = open();
+        if (connected) {
+            setState(ConnectionState.CONNECTED);
+            publishState();
+        }
+        return connected;
+    }
+
+    /**
+     * Open a connection to the server given to the last {@link #connect(String, int)}.
+     *
+     * @return True on success, false otherwise
+     */
+    private boolean open() {
         boolean connected = false;
 
         try {
-            this.connection = new Socket(host, port);
+            SocketChannel channel = this.connector.connect(host, port, this.executionModel);
+            // We coalesce commands ourselves, so a flushed batch should leave at once
+            channel.socket().setTcpNoDelay(true);
+            if (this.eventLoop != null) {
+                this.eventLoop.start();
+                NioConnection nio;
+                if (this.inboundBufferCapacity > 0) {
+                    // The listener thread parses what the loop puts in the buffer
+                    InboundRing ring = new InboundRing(this.inboundBufferCapacity, this.metrics);
+                    nio = new NioConnection(this.eventLoop, channel, ring, ring::close);
+                    this.inbound = ring;
+                    this.fromServer = new LineReader(ring.inputStream());
+                } else {
+                    nio = new NioConnection(this.eventLoop, channel, this::handleServerLine, this::connectionLost);
+                }
+                this.compactSink = new CompactSink(metered(nio::write));
+                this.toServer = new OutboundQueue(this.compactSink, this.flushPolicy, this::commandQueued);
+                this.channelConnection = nio;
+            } else {
+                this.connection = channel.socket();
+                OutputStream out = this.connection.getOutputStream();
+                this.compactSink = new CompactSink(metered(out::write));
+                this.toServer = new OutboundQueue(this.compactSink, this.flushPolicy, this::commandQueued);
+                if (this.inboundBufferCapacity > 0) {
+                    this.inbound = new InboundRing(this.inboundBufferCapacity, this.metrics);
+                    this.fromServer = new LineReader(this.inbound.inputStream());
+                } else {
+                    this.fromServer = new LineReader(this.connection.getInputStream());
+                }
+            }
+            this.outbound.attach(this.toServer, this.executionModel);
             connected = true;
-            this.toServer = new PrintWriter(this.connection.getOutputStream(), true);
-            this.fromServer = new BufferedReader(new InputStreamReader(this.connection.getInputStream()));
-            System.out.println("Connected");
+            System.out.println(String.format("Connected to %s (resolve %.1f ms, connect %.1f ms)",
+                    channel.getRemoteAddress(), this.metrics.getResolveMillis(), this.metrics.getConnectMillis()));
+            if (this.compactMode) {
+                probeCompact();
+            }
         } catch (IOException e) {
             this.lastError = "Could not connect to server";
-            System.err.println(this.lastError);
+            System.err.println(this.lastError + ": " + e.getMessage());
         }
 
         return connected;
     }
 
+    /**
+     * Set the longest time a connection attempt may take, from looking up the server's host
+     * name until a connection to one of its addresses is made. Applies to the next connection.
+     *
+     * @param timeout Longest time to wait, 10 seconds by default
+     */
+    public void setConnectTimeout(Duration timeout) {
+        this.connector.setTimeout(timeout);
+    }
+
+    /**
+     * Set how long a connection to one address of the server is given before the next address
+     * is tried as well. Applies to the next connection.
+     *
+     * @param delay Time to wait before the next address, 250 ms by default
+     */
+    public void setConnectAttemptDelay(Duration delay) {
+        this.connector.setAttemptDelay(delay);
+    }
+
+    /**
+     * Ask the server which commands it supports, and switch to the compact framing if it lists
+     * it. The reply is not shown to the listeners. Servers that do not list it keep the text
+     * framing.
+     */
+    private void probeCompact() {
+        CompactSink sink = this.compactSink;
+        CompletableFuture<String[]> probe = sendAsync("help");
+        this.compactProbe = probe;
+        // Runs on the listener thread when the reply arrives
+        probe.thenAccept(commands -> {
+            if (Arrays.asList(commands).contains(CompactFraming.FEATURE) && sink == this.compactSink) {
+                sink.arm();
+                sendCommand(CompactFraming.REQUEST);
+            }
+        });
+    }
+
+    /**
+     * Use the compact framing, a compressed binary mode for slow links, with servers that
+     * support it. Applies to the next connection.
+     *
+     * @param compactMode true to ask for the compact framing on connect, false by default
+     */
+    public void setCompactMode(boolean compactMode) {
+        this.compactMode = compactMode;
+    }
+
+    /**
+     * @return true when the current connection sends its commands in the compact framing
+     */
+    public boolean isCompact() {
+        CompactSink sink = this.compactSink;
+        return isConnectionActive() && sink != null && sink.isCompact();
+    }
+
+    /**
+     * Count the bytes written to a connection.
+     *
+     * @param sink Where the bytes go
+     * @return a sink that counts and forwards the bytes
+     */
+    private OutboundQueue.Sink metered(OutboundQueue.Sink sink) {
+        return (data, offset, length) -> {
+            sink.write(data, offset, length);
+            this.metrics.bytesWritten(length);
+        };
+    }
+
+    /**
+     * Count a command and keep it waiting for its reply. Called by the outbound queue in the
+     * order the commands are written.
+     *
+     * @param command The command
+     * @param reply   Completed with the reply, or null
+     */
+    private void commandQueued(String command, CompletableFuture<?> reply) {
+        ClientMetrics.Outbound kind = ClientMetrics.Outbound.of(command);
+        this.metrics.commandSent(kind);
+        this.pending.add(kind, reply);
+    }
+
     /**
      * Close the socket. This method must be synchronized, because several
      * threads may try to call it. For example: When "Disconnect" button is
@@ -51,14 +285,183 @@ public class TCPClient {
      * in the process of being closed. with "synchronized" keyword we make sure
      * that no two threads call this method in parallel.
      */
-    public synchronized void disconnect() {
-        if(isConnectionActive()) {
-            try {
+    public void disconnect() {
+        Thread stopped;
+        synchronized (this) {
+            stopped = this.reconnector;
+            this.reconnector = null;
+            this.sessionUsername = null;
+            if (isConnectionActive()) {
+                // Send what is still buffered before closing
+                this.toServer.flush();
+                close();
+            } else if (stopped == null) {
+                return;
+            }
+            setState(ConnectionState.DISCONNECTED);
+        }
+        publishState();
+        if (stopped != null) {
+            stopped.interrupt();
+        }
+    }
+
+    /**
+     * Close the socket after the server closed it or it failed, and start reconnecting if the
+     * reconnect policy says so. Called by the thread that reads the connection.
+     */
+    private void connectionLost() {
+        synchronized (this) {
+            if (!isConnectionActive()) {
+                // Closed by disconnect()
+                return;
+            }
+            close();
+            if (this.reconnectPolicy.isEnabled()) {
+                System.out.println("Connection lost, reconnecting");
+                setState(ConnectionState.RECONNECTING);
+                this.reconnector = this.executionModel.start("chat-reconnect", this::reconnect);
+            } else {
+                setState(ConnectionState.DISCONNECTED);
+            }
+        }
+        publishState();
+    }
+
+    /**
+     * Close the current connection and fail the commands waiting for a reply.
+     */
+    private synchronized void close() {
+        try {
+            if (this.channelConnection != null) {
+                NioConnection closing = this.channelConnection;
+                this.channelConnection = null;
+                closing.close();
+            } else {
                 this.connection.close();
                 this.connection = null;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (this.inbound != null) {
+            // Releases a socket reader waiting for room
+            this.inbound.close();
+            this.inbound = null;
+        }
+        this.usersRequestSentAt.set(0);
+        this.catchUpRequested = false;
+        IOException closed = new IOException("Connection closed");
+        this.outbound.detach(closed);
+        this.pending.failAll(closed);
+    }
+
+    /**
+     * Try to connect again, waiting longer after every failed attempt, until connected, given
+     * up, or stopped by {@link #disconnect()}. Runs on its own thread.
+     */
+    private void reconnect() {
+        Thread self = Thread.currentThread();
+        ReconnectPolicy policy = this.reconnectPolicy;
+        for (int attempt = 1; attempt <= policy.getMaxAttempts(); attempt++) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(policy.delayNanos(attempt));
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (this.reconnector != self) {
+                return;
+            }
+            // Connect without holding the lock, so that disconnect() does not wait for it
+            if (!open()) {
+                continue;
+            }
+            synchronized (this) {
+                if (this.reconnector != self) {
+                    // Disconnected while connecting
+                    close();
+                    return;
+                }
+                this.reconnector = null;
+                System.out.println("Reconnected after " + attempt + " attempts");
+                setState(ConnectionState.CONNECTED);
+            }
+            publishState();
+            resume();
+            return;
+        }
+        synchronized (this) {
+            if (this.reconnector == self) {
+                this.reconnector = null;
+                System.out.println("Giving up reconnecting");
+                setState(ConnectionState.DISCONNECTED);
+            }
+        }
+        publishState();
+    }
+
+    /**
+     * Carry on after a reconnect: listen again, log in with the last username, and fetch the
+     * private messages the server kept while we were away.
+     */
+    private void resume() {
+        startListenThread();
+        String username = this.sessionUsername;
+        if (username == null) {
+            return;
+        }
+        // Runs on the listener thread when the reply arrives. A failed login is reported to
+        // the listeners as usual
+        loginAsync(username).thenRun(() -> {
+            this.catchUpRequested = true;
+            if (!sendCommand("inbox")) {
+                this.catchUpRequested = false;
+            }
+        });
+    }
+
+    /**
+     * Set whether and when a lost connection is connected again. After a reconnect the client
+     * logs in with the last username and fetches the inbox, dropping messages it has already
+     * delivered.
+     *
+     * @param policy the policy, {@link ReconnectPolicy#never()} by default
+     */
+    public void setReconnectPolicy(ReconnectPolicy policy) {
+        this.reconnectPolicy = Objects.requireNonNull(policy);
+    }
+
+    /**
+     * @return the health of the connection
+     */
+    public ConnectionState getConnectionState() {
+        return this.state;
+    }
+
+    /**
+     * Change the state. The listeners are told by {@link #publishState()}, to be called once the
+     * client lock is released.
+     */
+    private void setState(ConnectionState newState) {
+        this.state = newState;
+    }
+
+    /**
+     * Tell the listeners about the current state if it changed since they were last told, and
+     * that the connection is gone if it changed to disconnected. Called without holding the
+     * client lock, as a full listener queue with {@link OverflowPolicy#BLOCK} waits for room.
+     * When two changes race, the listeners may only hear about the last one.
+     */
+    private void publishState() {
+        synchronized (this.stateEvents) {
+            ConnectionState current = this.state;
+            if (current == this.publishedState) {
+                return;
+            }
+            this.publishedState = current;
+            this.dispatcher.publish(ChatEvent.connectionState(current));
+            if (current == ConnectionState.DISCONNECTED) {
                 onDisconnect();
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
     }
@@ -67,7 +470,86 @@ public class TCPClient {
      * @return true if the connection is active (opened), false if not.
      */
     public boolean isConnectionActive() {
-        return connection != null;
+        return connection != null || channelConnection != null;
+    }
+
+    /**
+     * Set what kind of thread the listener runs on. Several clients can share one model, so
+     * that they can be shut down together.
+     *
+     * @param executionModel the model to start the listener thread with
+     */
+    public void setExecutionModel(ExecutionModel executionModel) {
+        this.executionModel = Objects.requireNonNull(executionModel);
+    }
+
+    /**
+     * @return the model the listener thread is started with
+     */
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    /**
+     * Put received bytes in an off-heap buffer of the given size, and parse them on the listener
+     * thread. When the listeners fall behind during a burst, the buffer fills up and the socket
+     * is no longer read, so the server is held back by TCP flow control instead of the heap
+     * growing. Applies to the next connection.
+     *
+     * @param bytes buffer size, or 0 to parse on the thread that reads the socket (the default)
+     */
+    public void setInboundBufferCapacity(int bytes) {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative");
+        }
+        this.inboundBufferCapacity = bytes;
+    }
+
+    /**
+     * Limit how fast one kind of command is sent. Commands over the limit wait in the outbound
+     * backlog, control commands ahead of chat messages, and are sent as tokens come back. Keeps
+     * a bot or a large paste under the server's limit instead of being throttled by it.
+     *
+     * @param kind  The kind of command
+     * @param limit The limit, {@link RateLimit#unlimited()} by default
+     */
+    public void setRateLimit(ClientMetrics.Outbound kind, RateLimit limit) {
+        this.outbound.setLimit(Objects.requireNonNull(kind), Objects.requireNonNull(limit));
+    }
+
+    /**
+     * Set how many commands may wait for their rate limit. Commands sent while it is full are
+     * rejected: the send method returns false, or the future fails with a
+     * {@link java.util.concurrent.RejectedExecutionException}.
+     *
+     * @param commands backlog capacity, 1024 by default
+     */
+    public void setOutboundBacklogCapacity(int commands) {
+        if (commands < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.outbound.setCapacity(commands);
+    }
+
+    /**
+     * @return number of commands waiting for their rate limit
+     */
+    public int getOutboundBacklog() {
+        return this.outbound.backlog();
+    }
+
+    /**
+     * Set when queued commands are written to the socket. Applies to the current connection
+     * and to later ones.
+     *
+     * @param policy the flush policy, {@link FlushPolicy#immediate()} by default
+     */
+    public void setFlushPolicy(FlushPolicy policy) {
+        this.flushPolicy = Objects.requireNonNull(policy);
+        OutboundQueue queue = this.toServer;
+        if (queue != null) {
+            queue.setPolicy(policy);
+        }
     }
 
     /**
@@ -77,11 +559,28 @@ public class TCPClient {
      * @return true on success, false otherwise
      */
     private boolean sendCommand(String cmd) {
+        return sendCommand(cmd, null);
+    }
+
+    /**
+     * Send a command to server and wait for its reply with a future.
+     *
+     * @param cmd   A command. It should include the command word and optional attributes, according to the protocol.
+     * @param reply Completed when the reply arrives, or null
+     * @return true on success, false otherwise
+     */
+    private boolean sendCommand(String cmd, CompletableFuture<?> reply) {
         boolean messageSent = false;
 
         if(isConnectionActive()) {
-            this.toServer.println(cmd);
-            messageSent = true;
+            try {
+                messageSent = this.outbound.submit(cmd, true, reply);
+                if (!messageSent) {
+                    this.lastError = "Connection to server failed, could not send message";
+                }
+            } catch (RejectedExecutionException e) {
+                this.lastError = "Too many commands waiting to be sent, could not send message";
+            }
         } else {
             this.lastError = "Server is not connected, could not send message";
         }
@@ -89,6 +588,46 @@ public class TCPClient {
         return messageSent;
     }
 
+    /**
+     * Send several commands as one batch. They are coalesced into as few socket writes as the
+     * flush policy allows, and the batch is flushed at its end if the policy says so.
+     *
+     * @param commands Commands, each with the command word and optional attributes
+     * @return true on success, false otherwise
+     */
+    public boolean sendCommands(List<String> commands) {
+        boolean sent = false;
+
+        if(isConnectionActive()) {
+            sent = true;
+            for (String cmd : commands) {
+                try {
+                    sent &= this.outbound.submit(cmd, false, null);
+                } catch (RejectedExecutionException e) {
+                    sent = false;
+                }
+            }
+            sent &= this.outbound.endBatch();
+            if (!sent) {
+                this.lastError = "Connection to server failed, could not send all commands";
+            }
+        } else {
+            this.lastError = "Server is not connected, could not send message";
+        }
+
+        return sent;
+    }
+
+    /**
+     * Write all buffered commands to the socket now, whatever the flush policy.
+     *
+     * @return true on success, false if the connection failed
+     */
+    public boolean flush() {
+        OutboundQueue queue = this.toServer;
+        return queue == null || queue.flush();
+    }
+
     /**
      * Send a public message to all the recipients.
      *
@@ -112,30 +651,45 @@ public class TCPClient {
      * @param username Username to use
      */
     public void tryLogin(String username) {
+        this.requestedUsername = username;
         sendCommand("login " + username);
     }
 
     /**
-     * Send a request for latest user list to the server. To get the new users,
-     * clear your current user list and use events in the listener.
+     * Send a request for latest user list to the server. The reply is delivered to the listeners
+     * as a user list event. At most one request is outstanding: while the previous request has
+     * not been answered, and is not older than 10 seconds, nothing is sent.
+     *
+     * @return true if a request was sent, false if one is still outstanding or sending failed
      */
-    public void refreshUserList() {
-        if(isConnectionActive()) {
-            this.toServer.println("users");
-            List<String> userlist;
-            try {
-                if (this.fromServer.ready()) {
-                    userlist = Arrays.asList(this.fromServer.readLine().split(" "));
-                    userlist.remove(0);
-
-                    for (ChatListener chatListener : this.listeners) {
-                        chatListener.onUserList(userlist.toArray(String[]::new));
-                    }
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+    public boolean refreshUserList() {
+        if(!isConnectionActive()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        long sentAt = this.usersRequestSentAt.get();
+        if (sentAt != 0 && now - sentAt < USERS_REQUEST_TIMEOUT_NANOS) {
+            return false;
+        }
+        // 0 means "none outstanding", so never store it as a send time
+        long stamp = now == 0 ? 1 : now;
+        if (!this.usersRequestSentAt.compareAndSet(sentAt, stamp)) {
+            // Another thread sent one just now
+            return false;
         }
+        // The reply is delivered to the listeners by the listener thread, like any other line
+        boolean sent = sendCommand("users");
+        if (!sent) {
+            this.usersRequestSentAt.compareAndSet(stamp, 0);
+        }
+        return sent;
+    }
+
+    /**
+     * @return true when a user list request has been sent and not answered yet
+     */
+    public boolean isUserListRequestPending() {
+        return this.usersRequestSentAt.get() != 0;
     }
 
     /**
@@ -149,8 +703,14 @@ public class TCPClient {
         return sendCommand("privmsg " + recipient + " " + message);
     }
 
-    public void sendRequest(String request) {
-        this.toServer.println(request);
+    /**
+     * Send any command to the server, as it is.
+     *
+     * @param request The command word and optional attributes
+     * @return true on success, false otherwise
+     */
+    public boolean sendRequest(String request) {
+        return sendCommand(request);
     }
 
     /**
@@ -158,30 +718,125 @@ public class TCPClient {
      */
     public void askSupportedCommands() {
         if(isConnectionActive()) {
-            this.toServer.println("help");
+            sendCommand("help");
         }
     }
 
+    /**
+     * Send a public message without waiting for the reply. Any number of commands can be
+     * outstanding; the server answers them in order.
+     *
+     * @param text The message text, without the "msg" command word
+     * @return a future that completes when the server accepts the message, or fails with a
+     * {@link ChatCommandException} on msgerr, an {@link IOException} if the connection fails,
+     * or a {@link java.util.concurrent.TimeoutException} if no reply comes in time
+     */
+    public CompletableFuture<Void> sendPublicMessageAsync(String text) {
+        return sendAsync("msg " + text);
+    }
+
+    /**
+     * Send a private message without waiting for the reply.
+     *
+     * @param recipient username of the chat user who should receive the message
+     * @param message   Message to send
+     * @return a future that completes when the server accepts the message, see
+     * {@link #sendPublicMessageAsync(String)}
+     */
+    public CompletableFuture<Void> sendPrivateMessageAsync(String recipient, String message) {
+        return sendAsync("privmsg " + recipient + " " + message);
+    }
+
+    /**
+     * Send a login request without waiting for the reply.
+     *
+     * @param username Username to use
+     * @return a future that completes on loginok, or fails with a {@link ChatCommandException}
+     * on loginerr
+     */
+    public CompletableFuture<Void> loginAsync(String username) {
+        this.requestedUsername = username;
+        return sendAsync("login " + username);
+    }
+
+    /**
+     * Request the user list without waiting for the reply. Unlike {@link #refreshUserList()},
+     * every call sends a request.
+     *
+     * @return a future that completes with the names of the users
+     */
+    public CompletableFuture<String[]> requestUserListAsync() {
+        return sendAsync("users");
+    }
+
+    /**
+     * Request the commands the server supports without waiting for the reply.
+     *
+     * @return a future that completes with the supported command words
+     */
+    public CompletableFuture<String[]> requestSupportedCommandsAsync() {
+        return sendAsync("help");
+    }
 
     /**
-     * Wait for chat server's response
+     * Send a command whose reply completes a future.
+     * The listeners still get the reply as an event.
      *
-     * @return one line of text (one command) received from the server
+     * @param cmd The command
+     * @return a future completed by the reply, failed if the command could not be sent
      */
-    private String waitServerResponse() {
-        String serverResponse = null;
+    private <T> CompletableFuture<T> sendAsync(String cmd) {
+        CompletableFuture<T> reply = new CompletableFuture<>();
+        if (!sendCommand(cmd, reply)) {
+            // When the write failed, the disconnect has already failed it
+            reply.completeExceptionally(new IOException(getLastError()));
+            return reply;
+        }
+        // A timed out command keeps its place, so the replies after it still match
+        return reply.orTimeout(this.requestTimeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Set how long an async request waits for its reply before its future fails with a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * @param timeout The timeout, 10 seconds by default
+     */
+    public void setRequestTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Request timeout must be positive");
+        }
+        this.requestTimeout = timeout;
+    }
+
+    /**
+     * @return number of sent commands that still wait for their reply, async or not
+     */
+    public int getOutstandingRequestCount() {
+        return this.pending.size();
+    }
+
 
-        if (isConnectionActive() && !connection.isClosed()) {
+    /**
+     * Wait for chat server's response and handle it
+     *
+     * @return false if no more lines can be read: the stream has ended or the connection is closed
+     */
+    private boolean waitServerResponse(LineReader reader) {
+        boolean received = false;
+
+        if (isConnectionActive()) {
             try {
-                serverResponse = this.fromServer.readLine();
-            } catch (SocketException e) {
-                disconnect();
+                received = reader.readLine(this::handleServerLine);
+            } catch (SocketException | ClosedChannelException e) {
+                // The socket is read through its channel, which reports being closed with its own exception
+                connectionLost();
             } catch (IOException e) {
                 e.printStackTrace();
             }
         }
 
-        return serverResponse;
+        return received;
     }
 
     /**
@@ -194,12 +849,43 @@ public class TCPClient {
     }
 
     /**
-     * Start listening for incoming commands from the server in a new CPU thread.
+     * Start listening for incoming commands from the server in a new thread of the execution
+     * model. With an event loop no thread is started: the loop starts delivering lines for this
+     * connection instead.
      */
     public void startListenThread() {
+        NioConnection channel = this.channelConnection;
+        InboundRing ring = this.inbound;
+        if (channel != null) {
+            channel.startReading();
+            if (ring == null) {
+                return;
+            }
+        } else if (ring != null) {
+            Socket socket = this.connection;
+            this.executionModel.start("chat-socket-reader", () -> copyToInbound(socket, ring));
+        }
         // Call parseIncomingCommands() in the new thread.
-        Thread t = new Thread(this::parseIncomingCommands);
-        t.start();
+        this.executionModel.start("chat-listener", this::parseIncomingCommands);
+    }
+
+    /**
+     * Move received bytes from the socket into the inbound buffer until the stream ends. Waits,
+     * without reading, while the buffer is full.
+     */
+    private static void copyToInbound(Socket socket, InboundRing ring) {
+        byte[] chunk = new byte[8192];
+        try {
+            InputStream in = socket.getInputStream();
+            int read;
+            while ((read = in.read(chunk)) >= 0) {
+                ring.write(chunk, 0, read);
+            }
+        } catch (IOException e) {
+            // Closed or failed: the listener thread finds the end of the stream
+        } finally {
+            ring.close();
+        }
     }
 
     /**
@@ -207,90 +893,221 @@ public class TCPClient {
      * the connection is closed.
      */
     private void parseIncomingCommands() {
-        while (isConnectionActive()) {
-            String serverResponse = waitServerResponse();
-            if(serverResponse != null) {
-                String[] commands = serverResponse.split(" ");
-                switch (commands[0]) {
-                    case "msg":
-                        onMsgReceived(false, commands[1], parseCommand(commands));
-                        break;
-                    case "privmsg":
-                        onMsgReceived(true, commands[1], parseCommand(commands));
-                        break;
-
-                    case "inbox":
-                        onMsgReceived(false,"",parseCommand(commands));
-                        break;
-                    case "msgok" :
-                        //do nothing
-                        break;
-                    case "msgerr":
-                        onMsgError(parseCommand(commands));
-                        break;
-                    case "loginok":
-                        onLoginResult(true, "");
-                        break;
-                    case "loginerr":
-                        onLoginResult(false, parseCommand(commands));
-                        break;
-                    case "supported":
-                        onSupported(parseCommand(commands).split(" "));
-                        break;
-                    case "users":
-                        onUsersList(parseCommand(commands).split(" "));
-                        break;
-                    case "cmderr":
-                    default:
-                        onCmdError(parseCommand(commands));
-                }
+        // After a reconnect another thread reads the new connection, so stop with our own
+        LineReader reader = this.fromServer;
+        while (isConnectionActive() && reader == this.fromServer) {
+            if (!waitServerResponse(reader)) {
+                // End of stream: the server has closed the connection
+                connectionLost();
             }
         }
     }
 
     /**
-     * Extracts the message text from an incoming command.
+     * Parse one line received from the server and generate events for the listeners.
      *
-     * @param array the incoming command request
-     * @return {@code String} command text
+     * @param buffer Buffer holding the line (one command) received from the server
+     * @param offset Start of the line in the buffer
+     * @param length Length of the line in bytes
      */
-    private String parseCommand(String[] array) {
-        List<String> strings = new LinkedList<>(Arrays.asList(array));
-        if (strings.get(0).equals("privmsg") || strings.get(0).equals("msg")) {
-            strings.remove(0);
-            strings.remove(0);
-        } else {
-            strings.remove(0);
+    private void handleServerLine(byte[] buffer, int offset, int length) {
+        ServerCommand command = tokenizer.tokenize(buffer, offset, length);
+        // The line terminator is not part of the line, count it as one byte
+        this.metrics.lineReceived(command, length + 1);
+        switch (command) {
+            case MSG:
+                onMsgReceived(false, tokenizer.internedSender(), tokenizer.payloadBytes());
+                break;
+            case PRIVMSG:
+                onMsgReceived(true, tokenizer.internedSender(), tokenizer.payloadBytes());
+                break;
+            case INBOX:
+                this.pending.complete(command, parseCount(tokenizer.payload()));
+                if (this.catchUpRequested) {
+                    // The count of the inbox fetched after a reconnect, not shown
+                    this.catchUpRequested = false;
+                    this.catchUpRemaining = parseCount(tokenizer.payload());
+                } else {
+                    onMsgReceived(false, "", tokenizer.payloadBytes());
+                }
+                break;
+            case MSGOK:
+                this.pending.complete(command, null);
+                onMsgOk();
+                break;
+            case MSGERR: {
+                String error = tokenizer.payload();
+                this.pending.fail(command, new ChatCommandException(command, error));
+                onMsgError(error);
+                break;
+            }
+            case LOGINOK:
+                this.sessionUsername = this.requestedUsername;
+                this.pending.complete(command, null);
+                onLoginResult(true, "");
+                break;
+            case LOGINERR: {
+                String error = tokenizer.payload();
+                this.pending.fail(command, new ChatCommandException(command, error));
+                onLoginResult(false, error);
+                break;
+            }
+            case SUPPORTED: {
+                String[] commands = tokenizer.payloadWords();
+                boolean probe = this.pending.isNext(this.compactProbe);
+                this.pending.complete(command, commands);
+                if (!probe) {
+                    onSupported(commands);
+                }
+                break;
+            }
+            case USERS: {
+                this.usersRequestSentAt.set(0);
+                String[] users = tokenizer.payloadWords();
+                this.pending.complete(command, users);
+                onUsersList(users);
+                break;
+            }
+            case COMPACTOK: {
+                this.pending.complete(command, null);
+                // The next byte the server sends is compact
+                CompactFraming.Decoder decoder = CompactFraming.clientDecoder();
+                NioConnection channel = this.channelConnection;
+                if (channel != null && this.inbound == null) {
+                    channel.startDecoding(decoder);
+                } else {
+                    this.fromServer.startDecoding(decoder);
+                }
+                break;
+            }
+            case CMDERR:
+            default: {
+                String error = tokenizer.payload();
+                if (this.pending.peekKind() == PendingRequests.ReplyKind.USERS) {
+                    // The server does not answer "users": a new request may be sent
+                    this.usersRequestSentAt.set(0);
+                }
+                this.pending.fail(command, new ChatCommandException(command, error));
+                onCmdError(error);
+            }
+        }
+    }
+
+    /**
+     * @param count Number sent by the server
+     * @return the number, or 0 if it is not one
+     */
+    private static int parseCount(String count) {
+        try {
+            return Math.max(0, Integer.parseInt(count));
+        } catch (NumberFormatException e) {
+            return 0;
         }
-        StringBuilder sb = new StringBuilder();
-        strings.forEach(s -> sb.append(s).append(" "));
-        return sb.toString().trim();
     }
 
     /**
-     * Register a new listener for events (login result, incoming message, etc)
+     * Register a new listener for events (login result, incoming message, etc). When its queue
+     * is full, the socket is not read until the listener catches up, so no event is lost.
      *
      * @param listener the listener to be registered.
      */
     public void addListener(ChatListener listener) {
-        if (!listeners.contains(listener)) {
-            listeners.add(listener);
-        }
+        addListener(listener, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * Register a new listener for events. The listener is called on its own thread, started by
+     * the execution model, and gets events in the order they arrived from the server.
+     *
+     * @param listener the listener to be registered.
+     * @param policy   what to do when the listener falls behind and its queue is full. Only
+     *                 {@link OverflowPolicy#BLOCK} never loses messages
+     */
+    public void addListener(ChatListener listener, OverflowPolicy policy) {
+        this.dispatcher.add(listener, this.listenerQueueCapacity, policy, this.executionModel);
     }
 
     /**
-     * Unregister an event listener
+     * Unregister an event listener. Events still queued for it are not delivered.
      *
      * @param listener the listener to be removed.
      */
     public void removeListener(ChatListener listener) {
-        listeners.remove(listener);
+        this.dispatcher.remove(listener);
+    }
+
+    /**
+     * Set how many events may be queued for each listener that is registered after this call.
+     *
+     * @param capacity queue capacity, 1024 by default
+     */
+    public void setListenerQueueCapacity(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.listenerQueueCapacity = capacity;
+    }
+
+    /**
+     * @return number of events waiting to be delivered to the listeners
+     */
+    public int getQueuedEventCount() {
+        return this.dispatcher.queuedEventCount();
+    }
+
+    /**
+     * @return number of events dropped or coalesced because a listener fell behind
+     */
+    public long getDroppedEventCount() {
+        return this.dispatcher.droppedEventCount();
+    }
+
+    /**
+     * @return the traffic counters and latency histograms of this client
+     */
+    public ClientMetrics getMetrics() {
+        return this.metrics;
+    }
+
+    /**
+     * Publish the metrics of this client through JMX, under
+     * {@code no.ntnu.datakomm.chat:type=TCPClient,name=<name>}.
+     *
+     * @param name Name that tells this client apart from others in the same JVM
+     * @return true if registered, false if the name is taken or not valid
+     */
+    public boolean registerMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this.metrics, mBeanName(name));
+            return true;
+        } catch (JMException e) {
+            this.lastError = "Could not register metrics: " + e.getMessage();
+            return false;
+        }
+    }
+
+    /**
+     * Remove the metrics of this client from JMX.
+     *
+     * @param name The name given to {@link #registerMBean(String)}
+     */
+    public void unregisterMBean(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(mBeanName(name));
+        } catch (JMException e) {
+            // Not registered
+        }
+    }
+
+    private static ObjectName mBeanName(String name) throws MalformedObjectNameException {
+        return new ObjectName("no.ntnu.datakomm.chat:type=TCPClient,name=" + ObjectName.quote(name));
     }
 
 
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////
     // The following methods are all event-notificators - notify all the listeners about a specific event.
-    // By "event" here we mean "information received from the chat server".
+    // By "event" here we mean "information received from the chat server". The events are queued: each
+    // listener gets them later on its own thread.
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////
 
     /**
@@ -301,9 +1118,7 @@ public class TCPClient {
      * @param errMsg  Error message if any
      */
     private void onLoginResult(boolean success, String errMsg) {
-        for (ChatListener l : listeners) {
-            l.onLoginResult(success, errMsg);
-        }
+        this.dispatcher.publish(ChatEvent.loginResult(success, errMsg));
     }
 
     /**
@@ -311,10 +1126,7 @@ public class TCPClient {
      * Internet error)
      */
     private void onDisconnect() {
-        // Hint: all the onXXX() methods will be similar to onLoginResult()
-        for(ChatListener l : this.listeners) {
-            l.onDisconnect();
-        }
+        this.dispatcher.publish(ChatEvent.disconnect());
     }
 
     /**
@@ -323,9 +1135,7 @@ public class TCPClient {
      * @param users List with usernames
      */
     private void onUsersList(String[] users) {
-        for(ChatListener l : this.listeners) {
-            l.onUserList(users);
-        }
+        this.dispatcher.publish(ChatEvent.userList(users));
     }
 
     /**
@@ -333,12 +1143,27 @@ public class TCPClient {
      *
      * @param priv   When true, this is a private message
      * @param sender Username of the sender
-     * @param text   Message text
+     * @param text   Message text in UTF-8
      */
-    private void onMsgReceived(boolean priv, String sender, String text) {
-        for(ChatListener l : this.listeners) {
-            l.onMessageReceived(new TextMessage(sender, priv, text));
+    private void onMsgReceived(boolean priv, String sender, byte[] text) {
+        TextMessage message = new TextMessage(sender, priv, text, System.currentTimeMillis(), this.receivedMessages);
+        boolean seen = !this.recentMessages.add(message);
+        if (this.catchUpRemaining > 0) {
+            this.catchUpRemaining--;
+            if (seen) {
+                // Delivered before the connection was lost
+                return;
+            }
         }
+        this.receivedMessages++;
+        this.dispatcher.publish(ChatEvent.message(message));
+    }
+
+    /**
+     * Notify listeners that our message was delivered
+     */
+    private void onMsgOk() {
+        this.dispatcher.publish(ChatEvent.messageAccepted());
     }
 
     /**
@@ -347,9 +1172,7 @@ public class TCPClient {
      * @param errMsg Error description returned by the server
      */
     private void onMsgError(String errMsg) {
-        for(ChatListener l : this.listeners) {
-            l.onMessageError(errMsg);
-        }
+        this.dispatcher.publish(ChatEvent.messageError(errMsg));
     }
 
     /**
@@ -358,9 +1181,7 @@ public class TCPClient {
      * @param errMsg Error message
      */
     private void onCmdError(String errMsg) {
-        for(ChatListener l : this.listeners) {
-            l.onCommandError(errMsg);
-        }
+        this.dispatcher.publish(ChatEvent.commandError(errMsg));
     }
 
     /**
@@ -370,8 +1191,6 @@ public class TCPClient {
      * @param commands Commands supported by the server
      */
     private void onSupported(String[] commands) {
-        for(ChatListener l : this.listeners) {
-            l.onSupportedCommands(commands);
-        }
+        this.dispatcher.publish(ChatEvent.supportedCommands(commands));
     }
 }
@@ -1,15 +1,29 @@
 package no.ntnu.datakomm.chat;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Represents a chat message
+ * Represents a chat message. The sender name is shared with other messages of the same sender,
+ * and the text is kept in UTF-8, as received, and only decoded when first asked for.
+ *
+ * <p>Two messages are equal when they have the same sender, privacy and text. When and in which
+ * order they were received is not part of the comparison, so a message received twice, for
+ * example replayed from the inbox, equals the first copy.
  */
 public class TextMessage {
 
     private final String sender;
     private final boolean priv;
-    private final String text;
+    private final byte[] text;
+    private final long receivedAt;
+    private final long sequence;
+    // Decoded on first use, null until then
+    private String decoded;
+    // Computed on first use, 0 until then
+    private int hash;
 
     /**
      * @param sender Username of the sender
@@ -17,9 +31,25 @@ public class TextMessage {
      * @param text Text of the message
      */
     public TextMessage(String sender, boolean priv, String text) {
-        this.sender = sender;
+        this(sender, priv, text != null ? text.getBytes(StandardCharsets.UTF_8) : null,
+                System.currentTimeMillis(), -1);
+        this.decoded = text;
+    }
+
+    /**
+     * @param sender     Username of the sender
+     * @param priv       When true, message is private
+     * @param text       Text of the message in UTF-8. The array is kept, not copied, and must
+     *                   not be changed afterwards
+     * @param receivedAt When the message was received, in milliseconds since the epoch
+     * @param sequence   Number of the message in the order it was received, -1 if it has none
+     */
+    public TextMessage(String sender, boolean priv, byte[] text, long receivedAt, long sequence) {
+        this.sender = sender != null ? SenderNames.intern(sender) : null;
         this.priv = priv;
         this.text = text;
+        this.receivedAt = receivedAt;
+        this.sequence = sequence;
     }
 
     public String getSender() {
@@ -30,27 +60,73 @@ public class TextMessage {
         return priv;
     }
 
+    /**
+     * @return the text of the message, decoded on the first call
+     */
     public String getText() {
-        return text;
+        String s = decoded;
+        if (s == null && text != null) {
+            // Strings are immutable, so a racing thread at worst decodes again
+            s = new String(text, StandardCharsets.UTF_8);
+            decoded = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return the text of the message in UTF-8, read-only, without copying it, or null if the
+     * message has no text
+     */
+    public ByteBuffer getTextBytes() {
+        return text != null ? ByteBuffer.wrap(text).asReadOnlyBuffer() : null;
+    }
+
+    /**
+     * @return when the message was received, in milliseconds since the epoch
+     */
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    /**
+     * @return number of the message in the order it was received on its connection, or -1 for
+     * messages that were not received, such as our own
+     */
+    public long getSequence() {
+        return sequence;
     }
 
     @Override
     public String toString() {
-        return (priv ? "PRIVATE " : "") + " from " + sender + ": " + text;
+        return (priv ? "PRIVATE " : "") + " from " + sender + ": " + getText();
     }
 
     @Override
     public boolean equals(Object o) {
-        return o != null && o.hashCode() == this.hashCode();
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TextMessage)) {
+            return false;
+        }
+        TextMessage other = (TextMessage) o;
+        return priv == other.priv
+                && hashCode() == other.hashCode()
+                && Objects.equals(sender, other.sender)
+                && Arrays.equals(text, other.text);
     }
 
     @Override
     public int hashCode() {
-        int hash = 3;
-        hash = 71 * hash + Objects.hashCode(this.sender);
-        hash = 71 * hash + (this.priv ? 1 : 0);
-        hash = 71 * hash + Objects.hashCode(this.text);
-        return hash;
+        int h = hash;
+        if (h == 0) {
+            h = 3;
+            h = 71 * h + Objects.hashCode(sender);
+            h = 71 * h + (this.priv ? 1 : 0);
+            h = 71 * h + Arrays.hashCode(text);
+            hash = h;
+        }
+        return h;
     }
 
 }
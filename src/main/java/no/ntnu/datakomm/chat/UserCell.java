@@ -0,0 +1,31 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.scene.control.ListCell;
+
+import java.util.function.Consumer;
+
+/**
+ * Shows one user name in the user list. Cells are reused while scrolling, and the click
+ * handler is set once per cell, not once per user.
+ */
+class UserCell extends ListCell<String> {
+
+    /**
+     * @param onClick Called with the user name when the cell is clicked
+     */
+    UserCell(Consumer<String> onClick) {
+        getStyleClass().add("user");
+        setOnMouseClicked(event -> {
+            String user = getItem();
+            if (!isEmpty() && user != null) {
+                onClick.accept(user);
+            }
+        });
+    }
+
+    @Override
+    protected void updateItem(String user, boolean empty) {
+        super.updateItem(user, empty);
+        setText(empty ? null : user);
+    }
+}
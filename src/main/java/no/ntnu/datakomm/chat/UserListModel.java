@@ -0,0 +1,129 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The sorted list of users shown in the GUI. A new user list from the server is compared with
+ * the shown one, and only the names that joined or left are inserted or removed, so an
+ * unchanged list does not touch the view at all.
+ *
+ * <p>Names that stay in the list keep the instance that is already shown, so a user that is
+ * listed every few seconds is stored once, not once per refresh.
+ *
+ * <p>Only used on the FX thread.
+ */
+class UserListModel {
+    private final ObservableList<String> users = FXCollections.observableArrayList();
+    private long insertedCount = 0;
+    private long removedCount = 0;
+
+    /**
+     * @return the sorted user names to show in the list view
+     */
+    ObservableList<String> getUsers() {
+        return users;
+    }
+
+    /**
+     * @param name A user name
+     * @return true if the name is in the list
+     */
+    boolean contains(String name) {
+        return Collections.binarySearch(users, name) >= 0;
+    }
+
+    /**
+     * Make the shown list equal to the given one, by inserting and removing as few names as
+     * possible. Runs of consecutive joined or left names are applied as one change each.
+     *
+     * @param usernames The user names received from the server, in any order, may contain
+     *                  duplicates
+     * @return number of names inserted and removed, 0 when nothing changed
+     */
+    int update(String[] usernames) {
+        String[] sorted = usernames.clone();
+        Arrays.sort(sorted);
+        int newSize = distinct(sorted);
+
+        int changes = 0;
+        int i = 0;
+        int j = 0;
+        while (j < newSize) {
+            if (i == users.size()) {
+                // Everything left is new
+                users.addAll(Arrays.asList(sorted).subList(j, newSize));
+                insertedCount += newSize - j;
+                changes += newSize - j;
+                return changes;
+            }
+            int cmp = users.get(i).compareTo(sorted[j]);
+            if (cmp == 0) {
+                i++;
+                j++;
+            } else if (cmp < 0) {
+                // Shown names that sort before the next received name have left
+                int end = i + 1;
+                while (end < users.size() && users.get(end).compareTo(sorted[j]) < 0) {
+                    end++;
+                }
+                users.remove(i, end);
+                removedCount += end - i;
+                changes += end - i;
+            } else {
+                // Received names that sort before the next shown name have joined
+                int end = j + 1;
+                while (end < newSize && sorted[end].compareTo(users.get(i)) < 0) {
+                    end++;
+                }
+                List<String> joined = Arrays.asList(sorted).subList(j, end);
+                users.addAll(i, joined);
+                insertedCount += end - j;
+                changes += end - j;
+                i += end - j;
+                j = end;
+            }
+        }
+        if (i < users.size()) {
+            // Everything after the last received name has left
+            changes += users.size() - i;
+            removedCount += users.size() - i;
+            users.remove(i, users.size());
+        }
+        return changes;
+    }
+
+    /**
+     * Move the distinct names of a sorted array to its front.
+     *
+     * @param sorted A sorted array
+     * @return number of distinct names
+     */
+    private static int distinct(String[] sorted) {
+        int size = 0;
+        for (String name : sorted) {
+            if (size == 0 || !sorted[size - 1].equals(name)) {
+                sorted[size++] = name;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return number of names inserted since the model was created
+     */
+    long getInsertedCount() {
+        return insertedCount;
+    }
+
+    /**
+     * @return number of names removed since the model was created
+     */
+    long getRemovedCount() {
+        return removedCount;
+    }
+}
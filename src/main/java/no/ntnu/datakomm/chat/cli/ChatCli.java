@@ -0,0 +1,196 @@
+package no.ntnu.datakomm.chat.cli;
+
+import no.ntnu.datakomm.chat.ChatListener;
+import no.ntnu.datakomm.chat.ConnectionState;
+import no.ntnu.datakomm.chat.ExecutionModel;
+import no.ntnu.datakomm.chat.OverflowPolicy;
+import no.ntnu.datakomm.chat.ReconnectPolicy;
+import no.ntnu.datakomm.chat.TCPClient;
+import no.ntnu.datakomm.chat.TextMessage;
+
+import java.io.BufferedReader;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Terminal chat client for hosts without a display. Uses no JavaFX class, so it starts fast
+ * and runs from the class path without JavaFX installed:
+ *
+ * <pre>
+ * java -cp target/classes no.ntnu.datakomm.chat.cli.ChatCli --host localhost --user alice
+ * </pre>
+ *
+ * Lines typed are sent as public messages. "/privmsg user text" sends a private message,
+ * "/login name", "/users" and "/help" send those commands, and "/quit" or end of input exits.
+ * See {@link CliConfig#usage()} for all options.
+ */
+public class ChatCli implements ChatListener {
+    private final CliConfig config;
+    private final ExecutionModel executionModel = ExecutionModel.virtual();
+    private final TCPClient tcpClient = new TCPClient();
+    private final ConsoleOutput console;
+    // True after the connection was lost, until it is back. Only used by the listener thread
+    private boolean reconnecting = false;
+
+    /**
+     * @param config The settings
+     * @param console Where events are printed
+     */
+    ChatCli(CliConfig config, ConsoleOutput console) {
+        this.config = config;
+        this.console = console;
+    }
+
+    public static void main(String[] args) {
+        CliConfig config;
+        try {
+            config = CliConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(CliConfig.usage());
+            System.exit(2);
+            return;
+        }
+        // Written without System.out's line flushing: the console batches its own writes
+        ConsoleOutput console = new ConsoleOutput(new FileOutputStream(FileDescriptor.out));
+        int status = new ChatCli(config, console).run();
+        System.exit(status);
+    }
+
+    /**
+     * Connect, then send what is typed until "/quit" or the end of input.
+     *
+     * @return the exit status: 0, or 1 if the connection failed
+     */
+    int run() {
+        console.start(executionModel, config.getFlushMillis());
+        tcpClient.setExecutionModel(executionModel);
+        tcpClient.setCompactMode(config.isCompact());
+        tcpClient.setConnectTimeout(Duration.ofMillis(config.getConnectTimeoutMillis()));
+        if (config.isReconnect()) {
+            tcpClient.setReconnectPolicy(ReconnectPolicy.exponential(Duration.ofMillis(500), Duration.ofSeconds(30)));
+        }
+        // A terminal that falls behind skips old user lists instead of holding up the socket
+        tcpClient.addListener(this, OverflowPolicy.COALESCE);
+        if (!tcpClient.connect(config.getHost(), config.getPort())) {
+            console.println("Could not connect to " + config.getHost() + ":" + config.getPort()
+                    + ": " + tcpClient.getLastError());
+            console.stop();
+            return 1;
+        }
+        console.println("Connected to " + config.getHost() + ":" + config.getPort());
+        tcpClient.startListenThread();
+        if (config.getUser() != null) {
+            tcpClient.tryLogin(config.getUser());
+        }
+        try {
+            readInput();
+        } catch (IOException e) {
+            console.println("Could not read input: " + e.getMessage());
+        }
+        tcpClient.disconnect();
+        console.stop();
+        executionModel.shutdown(Duration.ofSeconds(1));
+        return 0;
+    }
+
+    private void readInput() throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.isBlank()) {
+                continue;
+            }
+            if (line.equals("/quit")) {
+                return;
+            }
+            if (!send(line)) {
+                console.println("! " + tcpClient.getLastError());
+            }
+        }
+    }
+
+    /**
+     * Send one typed line.
+     *
+     * @return false if it could not be sent
+     */
+    private boolean send(String line) {
+        if (!line.startsWith("/")) {
+            return tcpClient.sendPublicMessage("msg " + line);
+        }
+        String[] parts = line.split(" ", 3);
+        switch (parts[0]) {
+            case "/privmsg":
+                if (parts.length < 3) {
+                    console.println("! Usage: /privmsg <user> <text>");
+                    return true;
+                }
+                return tcpClient.sendPrivateMessage(parts[1], parts[2]);
+            case "/login":
+                if (parts.length < 2) {
+                    console.println("! Usage: /login <name>");
+                    return true;
+                }
+                tcpClient.tryLogin(parts[1]);
+                return true;
+            case "/users":
+                return tcpClient.sendRequest("users");
+            case "/help":
+                return tcpClient.sendRequest("help");
+            default:
+                console.println("! Unknown command " + parts[0]);
+                return true;
+        }
+    }
+
+    @Override
+    public void onDisconnect() {
+        console.println("* Disconnected");
+    }
+
+    @Override
+    public void onLoginResult(boolean success, String errMsg) {
+        console.println(success ? "* Logged in" : "* Login failed: " + errMsg);
+    }
+
+    @Override
+    public void onMessageReceived(TextMessage message) {
+        console.println((message.isPrivate() ? "[private] " : "") + message.getSender() + ": " + message.getText());
+    }
+
+    @Override
+    public void onMessageError(String errMsg) {
+        console.println("! Message not sent: " + errMsg);
+    }
+
+    @Override
+    public void onUserList(String[] usernames) {
+        console.println("* Users: " + String.join(" ", usernames));
+    }
+
+    @Override
+    public void onSupportedCommands(String[] commands) {
+        console.println("* Supported commands: " + String.join(" ", commands));
+    }
+
+    @Override
+    public void onCommandError(String errMsg) {
+        console.println("! Command not understood: " + errMsg);
+    }
+
+    @Override
+    public void onConnectionStateChanged(ConnectionState state) {
+        if (state == ConnectionState.RECONNECTING) {
+            reconnecting = true;
+            console.println("* Connection lost, reconnecting...");
+        } else if (state == ConnectionState.CONNECTED && reconnecting) {
+            reconnecting = false;
+            console.println("* Reconnected");
+        }
+    }
+}
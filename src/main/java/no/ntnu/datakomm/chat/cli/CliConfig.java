@@ -0,0 +1,131 @@
+package no.ntnu.datakomm.chat.cli;
+
+/**
+ * Settings of the terminal client: where to connect and who to log in as.
+ */
+public class CliConfig {
+    private String host = "datakomm.work";
+    private int port = 1300;
+    private String user = null;
+    private boolean compact = true;
+    private boolean reconnect = true;
+    private long flushMillis = 50;
+    private long connectTimeoutMillis = 10000;
+
+    /**
+     * Read settings from command line arguments of the form {@code --name value}. Settings that
+     * are not given keep their defaults.
+     *
+     * @param args The command line arguments
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is unknown or has a bad value
+     */
+    public static CliConfig fromArgs(String[] args) {
+        CliConfig config = new CliConfig();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            try {
+                switch (name) {
+                    case "--host" -> config.setHost(value);
+                    case "--port" -> config.setPort(Integer.parseInt(value));
+                    case "--user" -> config.setUser(value);
+                    case "--compact" -> config.setCompact(Boolean.parseBoolean(value));
+                    case "--reconnect" -> config.setReconnect(Boolean.parseBoolean(value));
+                    case "--flush" -> config.setFlushMillis(Long.parseLong(value));
+                    case "--connect-timeout" -> config.setConnectTimeoutMillis(Long.parseLong(value));
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + name + ": " + value);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @return a description of the options understood by {@link #fromArgs(String[])}
+     */
+    public static String usage() {
+        return String.join("\n",
+                "Options:",
+                "  --host <name>        chat server host (datakomm.work)",
+                "  --port <n>           chat server port (1300)",
+                "  --user <name>        log in as this user after connecting (none)",
+                "  --compact <bool>     use the compact framing if the server supports it (true)",
+                "  --reconnect <bool>   reconnect when the connection is lost (true)",
+                "  --flush <ms>         longest time output is held back to be printed together (50)",
+                "  --connect-timeout <ms>  longest time to find and connect to the server (10000)");
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Port must be between 1 and 65535");
+        }
+        this.port = port;
+    }
+
+    /**
+     * @return the user to log in as, or null to log in later with /login
+     */
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public boolean isReconnect() {
+        return reconnect;
+    }
+
+    public void setReconnect(boolean reconnect) {
+        this.reconnect = reconnect;
+    }
+
+    public long getFlushMillis() {
+        return flushMillis;
+    }
+
+    public void setFlushMillis(long flushMillis) {
+        if (flushMillis < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.flushMillis = flushMillis;
+    }
+
+    public long getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    public void setConnectTimeoutMillis(long connectTimeoutMillis) {
+        if (connectTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Connect timeout must be positive");
+        }
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+}
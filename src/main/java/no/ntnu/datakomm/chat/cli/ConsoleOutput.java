@@ -0,0 +1,99 @@
+package no.ntnu.datakomm.chat.cli;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects lines from any thread and prints them together, at most once per flush interval,
+ * with one write to the terminal. A flood of messages then costs a few large writes instead of
+ * a flush per line, which matters over a slow SSH link.
+ */
+class ConsoleOutput {
+    // Beyond this, the oldest buffered text is cut so that a stalled terminal can not fill the heap
+    private static final int MAX_BUFFERED_CHARS = 256 * 1024;
+
+    private final OutputStream out;
+    // Guarded by "this"
+    private final StringBuilder pending = new StringBuilder();
+    private long skippedLines = 0;
+    private Future<?> flusher;
+
+    /**
+     * @param out Where the lines are written
+     */
+    ConsoleOutput(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Start printing the buffered lines periodically.
+     *
+     * @param executionModel Runs the periodic flush
+     * @param intervalMillis Longest time a line waits to be printed
+     */
+    synchronized void start(ExecutionModel executionModel, long intervalMillis) {
+        flusher = executionModel.scheduleWithFixedDelay("cli-output", this::flush,
+                intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Queue one line for printing.
+     *
+     * @param line The line, without the line terminator
+     */
+    synchronized void println(String line) {
+        if (pending.length() + line.length() > MAX_BUFFERED_CHARS) {
+            int cut = pending.indexOf("\n", Math.max(0, pending.length() + line.length() - MAX_BUFFERED_CHARS));
+            int end = cut < 0 ? pending.length() : cut + 1;
+            for (int i = 0; i < end; i++) {
+                if (pending.charAt(i) == '\n') {
+                    skippedLines++;
+                }
+            }
+            pending.delete(0, end);
+        }
+        pending.append(line).append('\n');
+    }
+
+    /**
+     * Print everything buffered now.
+     */
+    void flush() {
+        byte[] bytes;
+        synchronized (this) {
+            if (skippedLines > 0) {
+                pending.insert(0, "... " + skippedLines + " lines skipped\n");
+                skippedLines = 0;
+            }
+            if (pending.length() == 0) {
+                return;
+            }
+            bytes = pending.toString().getBytes(StandardCharsets.UTF_8);
+            pending.setLength(0);
+        }
+        try {
+            out.write(bytes);
+            out.flush();
+        } catch (IOException e) {
+            // The terminal is gone, nothing left to print to
+        }
+    }
+
+    /**
+     * Stop the periodic flush and print what is left.
+     */
+    void stop() {
+        synchronized (this) {
+            if (flusher != null) {
+                flusher.cancel(false);
+                flusher = null;
+            }
+        }
+        flush();
+    }
+}
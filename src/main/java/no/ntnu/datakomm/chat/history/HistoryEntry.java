@@ -0,0 +1,42 @@
+package no.ntnu.datakomm.chat.history;
+
+import no.ntnu.datakomm.chat.TextMessage;
+
+/**
+ * One message read back from a {@link MessageHistory}.
+ */
+public class HistoryEntry {
+    private final long sequence;
+    private final long timestamp;
+    private final TextMessage message;
+    private final boolean local;
+
+    /**
+     * @param sequence  Position of the message in the history, counted from the first message ever stored
+     * @param timestamp When the message was stored, in milliseconds since the epoch
+     * @param message   The message
+     * @param local     When true, this message was sent by us. When false - received from another user
+     */
+    public HistoryEntry(long sequence, long timestamp, TextMessage message, boolean local) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.message = message;
+        this.local = local;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public TextMessage getMessage() {
+        return message;
+    }
+
+    public boolean isLocal() {
+        return local;
+    }
+}
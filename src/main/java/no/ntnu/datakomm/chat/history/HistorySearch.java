@@ -0,0 +1,99 @@
+package no.ntnu.datakomm.chat.history;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Full-text search over a {@link MessageHistory}. An indexer thread of the execution model
+ * reads the stored messages once, oldest first, and then follows the history: every message
+ * the history writes is indexed right after, off the socket reader and GUI threads.
+ *
+ * <p>The index lives in memory and is rebuilt from the history on start. Until it has caught
+ * up, searches only find the messages indexed so far.
+ */
+public class HistorySearch implements AutoCloseable {
+    // Messages read from the history at a time
+    private static final int PAGE_SIZE = 4096;
+    // How long the indexer waits for new messages before it checks whether it is closed
+    private static final long WAIT_MILLIS = 500;
+
+    private final MessageHistory history;
+    private final SearchIndex index = new SearchIndex();
+    private final Thread indexer;
+    private volatile long nextSequence;
+    private volatile boolean closed = false;
+
+    /**
+     * Start indexing a history.
+     *
+     * @param history        The history to search
+     * @param executionModel Starts the indexer thread
+     */
+    public HistorySearch(MessageHistory history, ExecutionModel executionModel) {
+        this.history = history;
+        this.nextSequence = history.getFirstSequence();
+        this.indexer = executionModel.start("chat-history-indexer", this::indexLoop);
+    }
+
+    private void indexLoop() {
+        try {
+            while (!closed) {
+                long next = Math.max(nextSequence, history.getFirstSequence());
+                List<HistoryEntry> page = history.read(next, PAGE_SIZE);
+                for (HistoryEntry entry : page) {
+                    index.add(entry);
+                }
+                if (page.isEmpty()) {
+                    index.dropBefore(history.getFirstSequence());
+                    history.awaitSequence(next, WAIT_MILLIS);
+                } else {
+                    nextSequence = page.get(page.size() - 1).getSequence() + 1;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("History indexing stopped: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Find the newest messages that match a query.
+     *
+     * @param query The query
+     * @param limit Largest number of messages to return
+     * @return the matching messages, oldest first
+     * @throws IOException if the history could not be read
+     */
+    public List<HistoryEntry> search(SearchQuery query, int limit) throws IOException {
+        long[] sequences = index.search(query, limit);
+        List<HistoryEntry> found = new ArrayList<>(sequences.length);
+        for (long sequence : sequences) {
+            // Messages deleted by the retention since they were indexed are skipped
+            if (sequence >= history.getFirstSequence()) {
+                found.addAll(history.read(sequence, 1));
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return number of stored messages not indexed yet
+     * @throws IOException if the history could not be read
+     */
+    public long getBacklog() throws IOException {
+        return Math.max(0, history.getNextSequence() - Math.max(nextSequence, history.getFirstSequence()));
+    }
+
+    /**
+     * Stop the indexer thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        indexer.interrupt();
+    }
+}
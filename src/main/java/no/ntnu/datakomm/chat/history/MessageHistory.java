@@ -0,0 +1,445 @@
+package no.ntnu.datakomm.chat.history;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+import no.ntnu.datakomm.chat.TextMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Append-only store of chat messages on disk, so the chat log survives a restart. Messages are
+ * written to segment files of a fixed size through memory-mapped buffers; a full segment is
+ * sealed and a new one started. Every 64th message of a segment is indexed by sequence number
+ * and time, so any message can be found with a short scan, and opening the history only maps
+ * the last segment.
+ *
+ * <p>{@link #append(TextMessage, boolean)} only queues the message and never blocks: one writer
+ * thread of the execution model writes the queued messages in batches. Messages are readable
+ * once written, and on disk once the OS writes back the mapped pages, or at once after
+ * {@link #flush()}. Segments older than the retention time are deleted.
+ */
+public class MessageHistory implements AutoCloseable {
+    public static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(30);
+
+    // Largest number of messages waiting for the writer
+    private static final int QUEUE_CAPACITY = 65536;
+    // Largest number of messages written in one batch
+    private static final int BATCH_SIZE = 1024;
+    // The writer writes the mapped pages to disk this often while messages arrive
+    private static final long FORCE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Path dir;
+    private final int segmentBytes;
+    // Oldest first. Only the last one is appended to
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread writer;
+    private volatile Duration retention = DEFAULT_RETENTION;
+    private volatile boolean closed = false;
+
+    // Guarded by "this"
+    private long queuedCount = 0;
+    private long writtenCount = 0;
+    private long droppedCount = 0;
+
+    // Timestamp of the last written message. Only used by the writer
+    private long lastTimestamp = 0;
+
+    /**
+     * A message waiting for the writer.
+     */
+    private static final class Pending {
+        final TextMessage message;
+        final boolean local;
+
+        Pending(TextMessage message, boolean local) {
+            this.message = message;
+            this.local = local;
+        }
+    }
+
+    private MessageHistory(Path dir, int segmentBytes, ExecutionModel executionModel) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        List<Segment> found = new ArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            files.map(Segment::existing).filter(s -> s != null).forEach(found::add);
+        }
+        found.sort(Comparator.comparingLong(Segment::getBaseSequence));
+        if (found.isEmpty()) {
+            found.add(Segment.create(dir, 0, segmentBytes));
+        } else {
+            found.get(found.size() - 1).openForAppend(segmentBytes);
+        }
+        segments.addAll(found);
+        List<HistoryEntry> last = readTail(1);
+        if (!last.isEmpty()) {
+            lastTimestamp = last.get(0).getTimestamp();
+        }
+        this.writer = executionModel.start("chat-history-writer", this::writeLoop);
+    }
+
+    /**
+     * Open the history stored in a directory, or start a new one.
+     *
+     * @param dir            The directory, created if needed
+     * @param executionModel Starts the writer thread
+     * @return the history
+     * @throws IOException if the directory or the last segment could not be opened
+     */
+    public static MessageHistory open(Path dir, ExecutionModel executionModel) throws IOException {
+        return open(dir, executionModel, DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Open the history stored in a directory, or start a new one.
+     *
+     * @param dir            The directory, created if needed
+     * @param executionModel Starts the writer thread
+     * @param segmentBytes   Size of each segment file. No message can be larger
+     * @return the history
+     * @throws IOException if the directory or the last segment could not be opened
+     */
+    public static MessageHistory open(Path dir, ExecutionModel executionModel, int segmentBytes) throws IOException {
+        if (segmentBytes < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+        }
+        return new MessageHistory(dir, segmentBytes, executionModel);
+    }
+
+    /**
+     * Queue a message to be stored. Never blocks: if the writer is too far behind, the message
+     * is dropped and counted.
+     *
+     * @param message The message
+     * @param local   When true, this message was sent by us. When false - received from another user
+     * @return false if the message was dropped
+     */
+    public boolean append(TextMessage message, boolean local) {
+        if (closed || !queue.offer(new Pending(message, local))) {
+            synchronized (this) {
+                droppedCount++;
+            }
+            return false;
+        }
+        synchronized (this) {
+            queuedCount++;
+        }
+        return true;
+    }
+
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>(BATCH_SIZE);
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, BATCH_SIZE - 1);
+                    write(batch);
+                    batch.clear();
+                    unforced = true;
+                }
+                if (unforced && System.nanoTime() - lastForce >= FORCE_INTERVAL_NANOS) {
+                    lastSegment().force();
+                    lastForce = System.nanoTime();
+                    unforced = false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.out.println("Message history stopped: " + e.getMessage());
+            closed = true;
+        }
+    }
+
+    private void write(List<Pending> batch) throws IOException {
+        int written = 0;
+        int dropped = 0;
+        for (Pending pending : batch) {
+            try {
+                if (writeOne(pending)) {
+                    written++;
+                } else {
+                    dropped++;
+                }
+            } catch (RuntimeException e) {
+                // One bad message must not stop the writer
+                System.out.println("Message history skipped a message: " + e);
+                dropped++;
+            }
+        }
+        synchronized (this) {
+            writtenCount += written + dropped;
+            droppedCount += dropped;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Write one message. A missing sender or text is stored as empty.
+     *
+     * @return false if the message is too large to store
+     */
+    private boolean writeOne(Pending pending) throws IOException {
+        String name = pending.message.getSender();
+        byte[] sender = name != null ? name.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        ByteBuffer text = pending.message.getTextBytes();
+        if (text == null) {
+            text = ByteBuffer.allocate(0);
+        }
+        if (sender.length > Segment.MAX_SENDER_BYTES
+                || Segment.RECORD_HEADER + Segment.BODY_HEADER + sender.length + text.remaining() > segmentBytes) {
+            return false;
+        }
+        long timestamp = nextTimestamp(pending.message.getReceivedAt());
+        Segment segment = lastSegment();
+        if (!segment.append(timestamp, pending.message.isPrivate(), pending.local, sender, text)) {
+            segment = roll(segment);
+            segment.append(timestamp, pending.message.isPrivate(), pending.local, sender, text);
+        }
+        return true;
+    }
+
+    /**
+     * @param receivedAt When the message was received
+     * @return the time the message was received, but never earlier than the last stored
+     * message, so that the messages are sorted by time
+     */
+    private long nextTimestamp(long receivedAt) {
+        long timestamp = Math.max(receivedAt, lastTimestamp);
+        lastTimestamp = timestamp;
+        return timestamp;
+    }
+
+    /**
+     * Seal the full segment, start a new one and delete segments past the retention time.
+     */
+    private Segment roll(Segment full) throws IOException {
+        full.seal();
+        Segment next = Segment.create(dir, full.getNextSequence(), segmentBytes);
+        segments.add(next);
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        // A segment is old when the one after it started before the cutoff
+        while (segments.size() > 1) {
+            long first = segments.get(1).getFirstTimestamp();
+            if (first == -1 || first >= cutoff) {
+                break;
+            }
+            segments.remove(0).delete();
+        }
+        return next;
+    }
+
+    private Segment lastSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * Read stored messages, oldest first.
+     *
+     * @param fromSequence Sequence number of the first message
+     * @param max          Largest number of messages to read
+     * @return the messages, fewer than asked for at the end of the history
+     * @throws IOException if a segment could not be read
+     */
+    public List<HistoryEntry> read(long fromSequence, int max) throws IOException {
+        List<HistoryEntry> entries = new ArrayList<>(Math.min(max, BATCH_SIZE));
+        List<Segment> snapshot = new ArrayList<>(segments);
+        for (int i = segmentOf(snapshot, fromSequence); i < snapshot.size() && entries.size() < max; i++) {
+            snapshot.get(i).read(fromSequence, max - entries.size(), entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Read the newest stored messages.
+     *
+     * @param count Largest number of messages to read
+     * @return the messages, oldest first
+     * @throws IOException if a segment could not be read
+     */
+    public List<HistoryEntry> readTail(int count) throws IOException {
+        return readBefore(getNextSequence(), count);
+    }
+
+    /**
+     * Read the messages just before a message, for scrolling back.
+     *
+     * @param sequence Sequence number of the message
+     * @param count    Largest number of messages to read
+     * @return the messages, oldest first
+     * @throws IOException if a segment could not be read
+     */
+    public List<HistoryEntry> readBefore(long sequence, int count) throws IOException {
+        long from = Math.max(getFirstSequence(), sequence - count);
+        if (from >= sequence) {
+            return Collections.emptyList();
+        }
+        return read(from, (int) (sequence - from));
+    }
+
+    /**
+     * @param timestamp Time in milliseconds since the epoch
+     * @return sequence number of the first message stored at or after the time, or
+     * {@link #getNextSequence()} if there is none
+     * @throws IOException if a segment could not be read
+     */
+    public long findSequence(long timestamp) throws IOException {
+        List<Segment> snapshot = new ArrayList<>(segments);
+        // The last segment that starts before the time holds the message, or it is the first of the next
+        int low = 0;
+        int high = snapshot.size() - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            long first = snapshot.get(mid).getFirstTimestamp();
+            if (first != -1 && first < timestamp) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        for (int i = low; i < snapshot.size(); i++) {
+            Segment segment = snapshot.get(i);
+            long sequence = segment.findSequence(timestamp);
+            if (sequence < segment.getNextSequence()) {
+                return sequence;
+            }
+        }
+        return getNextSequence();
+    }
+
+    private static int segmentOf(List<Segment> snapshot, long sequence) {
+        for (int i = snapshot.size() - 1; i > 0; i--) {
+            if (snapshot.get(i).getBaseSequence() <= sequence) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return sequence number of the oldest stored message
+     */
+    public long getFirstSequence() {
+        return segments.get(0).getBaseSequence();
+    }
+
+    /**
+     * @return sequence number the next written message gets
+     * @throws IOException if the last segment could not be read
+     */
+    public long getNextSequence() throws IOException {
+        return lastSegment().getNextSequence();
+    }
+
+    /**
+     * Wait until the message with a sequence number is written, for threads that follow the
+     * history.
+     *
+     * @param sequence      Sequence number of the message
+     * @param timeoutMillis Longest time to wait
+     * @return true if the message is written, false on timeout or when the history is closed
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IOException          if the last segment could not be read
+     */
+    public boolean awaitSequence(long sequence, long timeoutMillis) throws InterruptedException, IOException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (this) {
+            while (getNextSequence() <= sequence && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                wait(remaining);
+            }
+        }
+        return getNextSequence() > sequence;
+    }
+
+    /**
+     * Set how long messages are kept. Older segments are deleted when a new segment is started.
+     *
+     * @param retention How long messages are kept, 30 days by default
+     */
+    public void setRetention(Duration retention) {
+        if (retention.isNegative() || retention.isZero()) {
+            throw new IllegalArgumentException("Retention must be positive");
+        }
+        this.retention = retention;
+    }
+
+    /**
+     * @return number of messages that were not stored: the writer was too far behind, the
+     * message was too large, or the history was closed
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return number of messages queued and not written yet
+     */
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Wait until all messages queued so far are written, and write them to disk.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void flush() throws InterruptedException {
+        synchronized (this) {
+            long target = queuedCount;
+            while (writtenCount < target && writer.isAlive()) {
+                wait(100);
+            }
+        }
+        lastSegment().force();
+    }
+
+    /**
+     * Write the queued messages, stop the writer and close the files.
+     */
+    @Override
+    public void close() {
+        if (closed && !writer.isAlive()) {
+            return;
+        }
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            writer.join(Duration.ofSeconds(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                System.out.println("Could not close history segment: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package no.ntnu.datakomm.chat.history;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * In-memory inverted index of stored messages, split into segments of 65536 sequence numbers.
+ * Each segment maps every word and every sender to the sorted positions of the messages that
+ * have it, and marks which messages are private. A query is run on all segments in parallel on
+ * the common fork/join pool.
+ *
+ * <p>Messages must be added in sequence order, by one thread. Searches can run at the same time.
+ */
+class SearchIndex {
+    static final int SEGMENT_BITS = 16;
+    static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    // Oldest first
+    private final List<IndexSegment> segments = new CopyOnWriteArrayList<>();
+
+    /**
+     * A growable sorted list of message positions within a segment.
+     */
+    private static final class Postings {
+        int[] positions = new int[4];
+        int size = 0;
+
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+    }
+
+    /**
+     * The index of the messages with sequence numbers base to base + SEGMENT_SIZE - 1.
+     */
+    private static final class IndexSegment {
+        final long base;
+        final Map<String, Postings> terms = new HashMap<>();
+        final Map<String, Postings> senders = new HashMap<>();
+        final BitSet privateMessages = new BitSet();
+        // Positions of the messages added, in order
+        final Postings all = new Postings();
+
+        IndexSegment(long base) {
+            this.base = base;
+        }
+
+        synchronized void add(int position, List<String> words, String sender, boolean priv) {
+            for (String word : words) {
+                terms.computeIfAbsent(word, w -> new Postings()).add(position);
+            }
+            senders.computeIfAbsent(sender, s -> new Postings()).add(position);
+            if (priv) {
+                privateMessages.set(position);
+            }
+            all.add(position);
+        }
+
+        /**
+         * @return sequence numbers of the newest matching messages, at most limit, oldest first
+         */
+        synchronized long[] search(SearchQuery query, int limit) {
+            List<Postings> lists = new ArrayList<>();
+            for (String term : query.getTerms()) {
+                Postings postings = terms.get(term);
+                if (postings == null) {
+                    return new long[0];
+                }
+                lists.add(postings);
+            }
+            if (query.getSender() != null) {
+                Postings postings = senders.get(query.getSender());
+                if (postings == null) {
+                    return new long[0];
+                }
+                lists.add(postings);
+            }
+            if (lists.isEmpty()) {
+                lists.add(all);
+            }
+            // Walk the shortest list backwards, newest first, and look the others up
+            lists.sort((a, b) -> Integer.compare(a.size, b.size));
+            Postings shortest = lists.get(0);
+            long[] found = new long[Math.min(limit, shortest.size)];
+            int count = 0;
+            for (int i = shortest.size - 1; i >= 0 && count < found.length; i--) {
+                int position = shortest.positions[i];
+                if (matchesVisibility(query.getVisibility(), position) && inAll(lists, position)) {
+                    found[count++] = base + position;
+                }
+            }
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = found[count - 1 - i];
+            }
+            return result;
+        }
+
+        private boolean matchesVisibility(SearchQuery.Visibility visibility, int position) {
+            switch (visibility) {
+                case PUBLIC:
+                    return !privateMessages.get(position);
+                case PRIVATE:
+                    return privateMessages.get(position);
+                default:
+                    return true;
+            }
+        }
+
+        private static boolean inAll(List<Postings> lists, int position) {
+            for (int i = 1; i < lists.size(); i++) {
+                Postings postings = lists.get(i);
+                if (Arrays.binarySearch(postings.positions, 0, postings.size, position) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Searches a range of segments, splitting it in halves until each task has one segment.
+     */
+    private static final class SegmentSearch extends RecursiveTask<long[]> {
+        private final List<IndexSegment> segments;
+        private final int from;
+        private final int to;
+        private final SearchQuery query;
+        private final int limit;
+
+        SegmentSearch(List<IndexSegment> segments, int from, int to, SearchQuery query, int limit) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.query = query;
+            this.limit = limit;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from == 1) {
+                return segments.get(from).search(query, limit);
+            }
+            int middle = (from + to) >>> 1;
+            SegmentSearch older = new SegmentSearch(segments, from, middle, query, limit);
+            older.fork();
+            long[] newer = new SegmentSearch(segments, middle, to, query, limit).compute();
+            long[] old = older.join();
+            // Keep the newest: all of the newer half, then the end of the older half
+            int fromOld = Math.min(old.length, Math.max(0, limit - newer.length));
+            long[] merged = new long[fromOld + newer.length];
+            System.arraycopy(old, old.length - fromOld, merged, 0, fromOld);
+            System.arraycopy(newer, 0, merged, fromOld, newer.length);
+            return merged;
+        }
+    }
+
+    /**
+     * Index a message. Messages must be added in sequence order.
+     *
+     * @param entry The stored message
+     */
+    void add(HistoryEntry entry) {
+        long sequence = entry.getSequence();
+        long base = sequence & -SEGMENT_SIZE;
+        IndexSegment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (segment == null || segment.base != base) {
+            segment = new IndexSegment(base);
+            segments.add(segment);
+        }
+        segment.add((int) (sequence - base), SearchQuery.tokenize(entry.getMessage().getText()),
+                entry.getMessage().getSender(), entry.getMessage().isPrivate());
+    }
+
+    /**
+     * Forget the segments that only hold messages older than a sequence number, for example
+     * once the history has deleted them.
+     *
+     * @param sequence The oldest sequence number still stored
+     */
+    void dropBefore(long sequence) {
+        while (segments.size() > 1 && segments.get(0).base + SEGMENT_SIZE <= sequence) {
+            segments.remove(0);
+        }
+    }
+
+    /**
+     * @param query The query
+     * @param limit Largest number of results
+     * @return sequence numbers of the newest matching messages, oldest first
+     */
+    long[] search(SearchQuery query, int limit) {
+        List<IndexSegment> snapshot = new ArrayList<>(segments);
+        if (snapshot.isEmpty() || query.isEmpty() || limit <= 0) {
+            return new long[0];
+        }
+        return ForkJoinPool.commonPool().invoke(new SegmentSearch(snapshot, 0, snapshot.size(), query, limit));
+    }
+}
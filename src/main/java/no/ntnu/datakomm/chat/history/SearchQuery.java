@@ -0,0 +1,126 @@
+package no.ntnu.datakomm.chat.history;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * What to search the message history for: words that must all be in the message text, and
+ * optionally the sender and whether the message is private.
+ */
+public class SearchQuery {
+
+    /**
+     * Which messages a query matches by how they were sent.
+     */
+    public enum Visibility {
+        ANY,
+        PUBLIC,
+        PRIVATE
+    }
+
+    // Longer words are not indexed
+    static final int MAX_TERM_LENGTH = 64;
+
+    private final List<String> terms;
+    private String sender = null;
+    private Visibility visibility = Visibility.ANY;
+
+    /**
+     * @param text Words the messages must contain, in any case and order
+     */
+    public SearchQuery(String text) {
+        this.terms = tokenize(text);
+    }
+
+    /**
+     * Read a query as typed in a search box: words, plus {@code from:name} for the sender and
+     * {@code is:private} or {@code is:public}.
+     *
+     * @param input The typed query
+     * @return the query
+     */
+    public static SearchQuery parse(String input) {
+        StringBuilder text = new StringBuilder();
+        String sender = null;
+        Visibility visibility = Visibility.ANY;
+        for (String word : input.strip().split("\\s+")) {
+            if (word.startsWith("from:") && word.length() > 5) {
+                sender = word.substring(5);
+            } else if (word.equalsIgnoreCase("is:private")) {
+                visibility = Visibility.PRIVATE;
+            } else if (word.equalsIgnoreCase("is:public")) {
+                visibility = Visibility.PUBLIC;
+            } else {
+                text.append(word).append(' ');
+            }
+        }
+        SearchQuery query = new SearchQuery(text.toString());
+        query.setSender(sender);
+        query.setVisibility(visibility);
+        return query;
+    }
+
+    /**
+     * Split a text into the words that are indexed: runs of letters and digits, in lower case,
+     * each once.
+     *
+     * @param text The text
+     * @return the words, in order of first appearance
+     */
+    static List<String> tokenize(String text) {
+        Set<String> words = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    words.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+        }
+        return words.isEmpty() ? Collections.emptyList() : new ArrayList<>(words);
+    }
+
+    /**
+     * @return the words the messages must contain, in lower case
+     */
+    public List<String> getTerms() {
+        return terms;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    /**
+     * @param sender Only match messages from this user, or null for any sender
+     */
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    public Visibility getVisibility() {
+        return visibility;
+    }
+
+    /**
+     * @param visibility Only match public or private messages, or {@link Visibility#ANY}
+     */
+    public void setVisibility(Visibility visibility) {
+        this.visibility = visibility;
+    }
+
+    /**
+     * @return true when the query has nothing to match on
+     */
+    public boolean isEmpty() {
+        return terms.isEmpty() && sender == null && visibility == Visibility.ANY;
+    }
+}
@@ -0,0 +1,388 @@
+package no.ntnu.datakomm.chat.history;
+
+import no.ntnu.datakomm.chat.TextMessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * One file of a {@link MessageHistory}: a run of records written through a memory-mapped
+ * buffer, and a sparse index of every 64th record kept next to it.
+ *
+ * <p>A record is an int body length, an int CRC-32C of the body, and the body: a long
+ * timestamp, a flags byte, an unsigned short sender length, the sender and the text, both
+ * UTF-8. The unused end of the file is zeros, so the records end at the first zero length or
+ * the first record whose checksum does not match, which is where a crash may have cut one.
+ *
+ * <p>Only the writer thread appends. Any thread can read: records are published by the
+ * volatile record count, which is written after the record.
+ */
+class Segment {
+    static final int INDEX_INTERVAL = 64;
+    // Body length and checksum
+    static final int RECORD_HEADER = 8;
+    // Timestamp, flags and sender length
+    static final int BODY_HEADER = 11;
+    static final int MAX_SENDER_BYTES = 0xFFFF;
+
+    private static final byte FLAG_PRIVATE = 1;
+    private static final byte FLAG_LOCAL = 2;
+    private static final int INDEX_MAGIC = 0x43484958;
+    private static final String SUFFIX = ".log";
+    private static final String INDEX_SUFFIX = ".idx";
+
+    private final Path file;
+    private final Path indexFile;
+    private final long baseSequence;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private boolean writable = false;
+    // True once the index and the end of the records are known
+    private boolean loaded = false;
+
+    private volatile int end = 0;
+    private volatile int count = 0;
+
+    // Offset and timestamp of record number i * INDEX_INTERVAL. Guarded by "this"
+    private int[] indexOffsets = new int[16];
+    private long[] indexTimestamps = new long[16];
+    private int indexSize = 0;
+
+    private Segment(Path dir, long baseSequence) {
+        String name = String.format("%020d", baseSequence);
+        this.file = dir.resolve(name + SUFFIX);
+        this.indexFile = dir.resolve(name + INDEX_SUFFIX);
+        this.baseSequence = baseSequence;
+    }
+
+    /**
+     * Create a new, empty segment file, open for appending.
+     *
+     * @param dir          The history directory
+     * @param baseSequence Sequence number of the first record of the segment
+     * @param size         Size of the file
+     */
+    static Segment create(Path dir, long baseSequence, int size) throws IOException {
+        Segment segment = new Segment(dir, baseSequence);
+        segment.channel = FileChannel.open(segment.file, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segment.buffer = segment.channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        segment.writable = true;
+        segment.loaded = true;
+        return segment;
+    }
+
+    /**
+     * @param file A file in the history directory
+     * @return the segment stored in the file, not opened yet, or null if the file is not a segment
+     */
+    static Segment existing(Path file) {
+        String name = file.getFileName().toString();
+        if (!name.endsWith(SUFFIX)) {
+            return null;
+        }
+        try {
+            return new Segment(file.getParent(), Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Open an existing segment to append more records to it.
+     *
+     * @param size Smallest size of the file
+     */
+    synchronized void openForAppend(int size) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        writable = true;
+        load();
+    }
+
+    /**
+     * Map the file and find its records, once. Uses the index file when there is one, and
+     * scans only the records written after it.
+     */
+    private synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        if (buffer == null) {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (!readIndex()) {
+            indexSize = 0;
+            end = 0;
+            count = 0;
+        }
+        scan();
+        loaded = true;
+    }
+
+    private boolean readIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return false;
+        }
+        ByteBuffer index = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        if (index.remaining() < 16 || index.getInt() != INDEX_MAGIC) {
+            return false;
+        }
+        int records = index.getInt();
+        int recordsEnd = index.getInt();
+        int entries = index.getInt();
+        if (records < 0 || recordsEnd < 0 || recordsEnd > buffer.capacity()
+                || entries != (records + INDEX_INTERVAL - 1) / INDEX_INTERVAL
+                || index.remaining() != entries * 12) {
+            return false;
+        }
+        indexOffsets = new int[Math.max(16, entries)];
+        indexTimestamps = new long[Math.max(16, entries)];
+        for (int i = 0; i < entries; i++) {
+            indexOffsets[i] = index.getInt();
+            indexTimestamps[i] = index.getLong();
+        }
+        indexSize = entries;
+        end = recordsEnd;
+        count = records;
+        return true;
+    }
+
+    /**
+     * Find the records after the known end: the ones written after the index file, or all of
+     * them if there was none.
+     */
+    private void scan() {
+        int offset = end;
+        int records = count;
+        CRC32C crc = new CRC32C();
+        while (offset + RECORD_HEADER + BODY_HEADER <= buffer.capacity()) {
+            int length = buffer.getInt(offset);
+            if (length < BODY_HEADER || length > buffer.capacity() - offset - RECORD_HEADER) {
+                break;
+            }
+            crc.reset();
+            crc.update(buffer.slice(offset + RECORD_HEADER, length));
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            if (records % INDEX_INTERVAL == 0) {
+                addToIndex(offset, buffer.getLong(offset + RECORD_HEADER));
+            }
+            records++;
+            offset += RECORD_HEADER + length;
+        }
+        end = offset;
+        count = records;
+    }
+
+    private synchronized void addToIndex(int offset, long timestamp) {
+        if (indexSize == indexOffsets.length) {
+            indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+            indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+        }
+        indexOffsets[indexSize] = offset;
+        indexTimestamps[indexSize] = timestamp;
+        indexSize++;
+    }
+
+    /**
+     * Append one record. Only called by the writer thread.
+     *
+     * @return false if the record does not fit in the rest of the file
+     */
+    boolean append(long timestamp, boolean priv, boolean local, byte[] sender, ByteBuffer text) {
+        int length = BODY_HEADER + sender.length + text.remaining();
+        int offset = end;
+        if (length > buffer.capacity() - offset - RECORD_HEADER) {
+            return false;
+        }
+        MappedByteBuffer b = buffer;
+        int body = offset + RECORD_HEADER;
+        b.putLong(body, timestamp);
+        b.put(body + 8, (byte) ((priv ? FLAG_PRIVATE : 0) | (local ? FLAG_LOCAL : 0)));
+        b.putShort(body + 9, (short) sender.length);
+        b.put(body + BODY_HEADER, sender);
+        b.put(body + BODY_HEADER + sender.length, text, text.position(), text.remaining());
+        CRC32C crc = new CRC32C();
+        crc.update(b.slice(body, length));
+        b.putInt(offset + 4, (int) crc.getValue());
+        // The length goes last: a record with a length is complete
+        b.putInt(offset, length);
+        int records = count;
+        if (records % INDEX_INTERVAL == 0) {
+            addToIndex(offset, timestamp);
+        }
+        end = body + length;
+        count = records + 1;
+        return true;
+    }
+
+    /**
+     * Read records, oldest first.
+     *
+     * @param fromSequence Sequence number of the first record to read
+     * @param max          Largest number of records to read
+     * @param out          Receives the records
+     * @return number of records read
+     */
+    int read(long fromSequence, int max, List<HistoryEntry> out) throws IOException {
+        load();
+        int records = count;
+        int first = (int) Math.max(0, fromSequence - baseSequence);
+        if (first >= records || max <= 0) {
+            return 0;
+        }
+        int offset;
+        synchronized (this) {
+            offset = indexOffsets[first / INDEX_INTERVAL];
+        }
+        MappedByteBuffer b = buffer;
+        for (int i = first - first % INDEX_INTERVAL; i < first; i++) {
+            offset += RECORD_HEADER + b.getInt(offset);
+        }
+        int read = 0;
+        for (int i = first; i < records && read < max; i++) {
+            int length = b.getInt(offset);
+            out.add(decode(b, offset, length, baseSequence + i));
+            offset += RECORD_HEADER + length;
+            read++;
+        }
+        return read;
+    }
+
+    private static HistoryEntry decode(MappedByteBuffer b, int offset, int length, long sequence) {
+        int body = offset + RECORD_HEADER;
+        long timestamp = b.getLong(body);
+        byte flags = b.get(body + 8);
+        int senderLength = b.getShort(body + 9) & 0xFFFF;
+        byte[] senderBytes = new byte[senderLength];
+        b.get(body + BODY_HEADER, senderBytes);
+        byte[] text = new byte[length - BODY_HEADER - senderLength];
+        b.get(body + BODY_HEADER + senderLength, text);
+        String sender = new String(senderBytes, StandardCharsets.UTF_8);
+        // The text stays in UTF-8 until it is shown
+        TextMessage message = new TextMessage(sender, (flags & FLAG_PRIVATE) != 0, text, timestamp, sequence);
+        return new HistoryEntry(sequence, timestamp, message, (flags & FLAG_LOCAL) != 0);
+    }
+
+    /**
+     * @param timestamp Time in milliseconds since the epoch
+     * @return sequence number of the first record stored at or after the time, or the sequence
+     * number after the last record if there is none
+     */
+    long findSequence(long timestamp) throws IOException {
+        load();
+        int records = count;
+        int slot;
+        int offset;
+        synchronized (this) {
+            // Last indexed record stored before the time
+            slot = Arrays.binarySearch(indexTimestamps, 0, indexSize, timestamp);
+            if (slot < 0) {
+                slot = -slot - 2;
+            } else {
+                // Timestamps may repeat: go back to the first indexed record with this one
+                while (slot > 0 && indexTimestamps[slot - 1] == timestamp) {
+                    slot--;
+                }
+                slot--;
+            }
+            if (slot < 0) {
+                return baseSequence;
+            }
+            offset = indexOffsets[slot];
+        }
+        MappedByteBuffer b = buffer;
+        for (int i = slot * INDEX_INTERVAL; i < records; i++) {
+            if (b.getLong(offset + RECORD_HEADER) >= timestamp) {
+                return baseSequence + i;
+            }
+            offset += RECORD_HEADER + b.getInt(offset);
+        }
+        return baseSequence + records;
+    }
+
+    /**
+     * @return timestamp of the first record, or -1 if the segment is empty
+     */
+    long getFirstTimestamp() throws IOException {
+        load();
+        synchronized (this) {
+            return indexSize > 0 ? indexTimestamps[0] : -1;
+        }
+    }
+
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return sequence number after the last record
+     */
+    long getNextSequence() throws IOException {
+        load();
+        return baseSequence + count;
+    }
+
+    /**
+     * Write the records to disk. Only called for the segment being appended to.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Stop appending: write the records and the index to disk. The segment can still be read.
+     */
+    synchronized void seal() throws IOException {
+        if (writable) {
+            buffer.force();
+            writeIndex();
+            writable = false;
+        }
+    }
+
+    private void writeIndex() throws IOException {
+        ByteBuffer index = ByteBuffer.allocate(16 + indexSize * 12);
+        index.putInt(INDEX_MAGIC).putInt(count).putInt(end).putInt(indexSize);
+        for (int i = 0; i < indexSize; i++) {
+            index.putInt(indexOffsets[i]).putLong(indexTimestamps[i]);
+        }
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Files.write(temp, index.array());
+        Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Seal the segment and close its file.
+     */
+    synchronized void close() throws IOException {
+        seal();
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    /**
+     * Close the segment and delete its files.
+     */
+    synchronized void delete() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        Files.deleteIfExists(indexFile);
+        Files.deleteIfExists(file);
+    }
+}
@@ -0,0 +1,259 @@
+package no.ntnu.datakomm.chat.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Settings of one load run: where to connect, how many users to simulate, and what they send.
+ */
+public class LoadConfig {
+
+    /**
+     * The commands a simulated user sends.
+     */
+    public enum Command {
+        MSG,
+        PRIVMSG,
+        USERS,
+        HELP
+    }
+
+    private String host = "localhost";
+    private int port = 1300;
+    private int users = 10;
+    private double ratePerUser = 1.0;
+    private long durationSeconds = 30;
+    private long reportIntervalSeconds = 5;
+    private int messageLength = 40;
+    private boolean virtualThreads = true;
+    private boolean nio = false;
+    private boolean compact = false;
+    private String userPrefix = "load";
+    private final Map<Command, Integer> mix = new EnumMap<>(Command.class);
+
+    public LoadConfig() {
+        mix.put(Command.MSG, 70);
+        mix.put(Command.PRIVMSG, 20);
+        mix.put(Command.USERS, 5);
+        mix.put(Command.HELP, 5);
+    }
+
+    /**
+     * Read settings from command line arguments of the form {@code --name value}. Settings that
+     * are not given keep their defaults.
+     *
+     * @param args The command line arguments
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is unknown or has a bad value
+     */
+    public static LoadConfig fromArgs(String[] args) {
+        LoadConfig config = new LoadConfig();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            try {
+                switch (name) {
+                    case "--host" -> config.setHost(value);
+                    case "--port" -> config.setPort(Integer.parseInt(value));
+                    case "--users" -> config.setUsers(Integer.parseInt(value));
+                    case "--rate" -> config.setRatePerUser(Double.parseDouble(value));
+                    case "--duration" -> config.setDurationSeconds(Long.parseLong(value));
+                    case "--report" -> config.setReportIntervalSeconds(Long.parseLong(value));
+                    case "--length" -> config.setMessageLength(Integer.parseInt(value));
+                    case "--threads" -> config.setVirtualThreads(parseThreads(value));
+                    case "--nio" -> config.setNio(Boolean.parseBoolean(value));
+                    case "--compact" -> config.setCompact(Boolean.parseBoolean(value));
+                    case "--prefix" -> config.setUserPrefix(value);
+                    case "--mix" -> config.setMix(value);
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + name + ": " + value);
+            }
+        }
+        return config;
+    }
+
+    private static boolean parseThreads(String value) {
+        switch (value) {
+            case "virtual":
+                return true;
+            case "platform":
+                return false;
+            default:
+                throw new IllegalArgumentException("Threads must be virtual or platform");
+        }
+    }
+
+    /**
+     * @return a description of the options understood by {@link #fromArgs(String[])}
+     */
+    public static String usage() {
+        return String.join("\n",
+                "Options:",
+                "  --host <name>        chat server host (localhost)",
+                "  --port <n>           chat server port (1300)",
+                "  --users <n>          number of simulated users (10)",
+                "  --rate <r>           commands per second per user (1.0)",
+                "  --duration <s>       length of the run in seconds (30)",
+                "  --report <s>         seconds between progress lines, 0 for none (5)",
+                "  --length <n>         length of sent message texts (40)",
+                "  --threads <kind>     virtual or platform (virtual)",
+                "  --nio <bool>         share one non-blocking event loop (false)",
+                "  --compact <bool>     use the compact framing if the server supports it (false)",
+                "  --prefix <name>      user name prefix (load)",
+                "  --mix <weights>      e.g. msg=70,privmsg=20,users=5,help=5");
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public void setPort(int port) {
+        if (port < 1 || port > 65535) {
+            throw new IllegalArgumentException("Port must be between 1 and 65535");
+        }
+        this.port = port;
+    }
+
+    public int getUsers() {
+        return users;
+    }
+
+    public void setUsers(int users) {
+        if (users < 1) {
+            throw new IllegalArgumentException("Number of users must be positive");
+        }
+        this.users = users;
+    }
+
+    public double getRatePerUser() {
+        return ratePerUser;
+    }
+
+    public void setRatePerUser(double ratePerUser) {
+        if (!(ratePerUser > 0)) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+        this.ratePerUser = ratePerUser;
+    }
+
+    public long getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(long durationSeconds) {
+        if (durationSeconds < 1) {
+            throw new IllegalArgumentException("Duration must be positive");
+        }
+        this.durationSeconds = durationSeconds;
+    }
+
+    public long getReportIntervalSeconds() {
+        return reportIntervalSeconds;
+    }
+
+    public void setReportIntervalSeconds(long reportIntervalSeconds) {
+        if (reportIntervalSeconds < 0) {
+            throw new IllegalArgumentException("Report interval must not be negative");
+        }
+        this.reportIntervalSeconds = reportIntervalSeconds;
+    }
+
+    public int getMessageLength() {
+        return messageLength;
+    }
+
+    public void setMessageLength(int messageLength) {
+        if (messageLength < 1) {
+            throw new IllegalArgumentException("Message length must be positive");
+        }
+        this.messageLength = messageLength;
+    }
+
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    public boolean isNio() {
+        return nio;
+    }
+
+    public void setNio(boolean nio) {
+        this.nio = nio;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    public String getUserPrefix() {
+        return userPrefix;
+    }
+
+    public void setUserPrefix(String userPrefix) {
+        if (userPrefix.isEmpty() || userPrefix.contains(" ")) {
+            throw new IllegalArgumentException("User prefix must be one word");
+        }
+        this.userPrefix = userPrefix;
+    }
+
+    /**
+     * @return how often each command is sent, relative to the others
+     */
+    public Map<Command, Integer> getMix() {
+        return mix;
+    }
+
+    /**
+     * Set how often each command is sent, relative to the others. Commands that are not listed
+     * are not sent.
+     *
+     * @param weights Comma separated {@code command=weight} pairs, for example
+     *                {@code msg=70,privmsg=20,users=5,help=5}
+     */
+    public void setMix(String weights) {
+        Map<Command, Integer> parsed = new EnumMap<>(Command.class);
+        for (String pair : weights.split(",")) {
+            String[] parts = pair.split("=", 2);
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Mix entries must be command=weight: " + pair);
+            }
+            Command command;
+            try {
+                command = Command.valueOf(parts[0].trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown command in mix: " + parts[0]);
+            }
+            int weight = Integer.parseInt(parts[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Mix weights must not be negative");
+            }
+            parsed.put(command, weight);
+        }
+        if (parsed.values().stream().mapToInt(Integer::intValue).sum() == 0) {
+            throw new IllegalArgumentException("At least one mix weight must be positive");
+        }
+        mix.clear();
+        mix.putAll(parsed);
+    }
+}
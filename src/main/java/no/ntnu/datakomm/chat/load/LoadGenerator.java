@@ -0,0 +1,214 @@
+package no.ntnu.datakomm.chat.load;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+import no.ntnu.datakomm.chat.LatencyHistogram;
+import no.ntnu.datakomm.chat.NioEventLoop;
+import no.ntnu.datakomm.chat.TCPClient;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load generator: simulates many chat users, each with its own {@link TCPClient}, and
+ * reports throughput, error counts and reply latencies. Uses no JavaFX class, so it runs from
+ * the class path without JavaFX installed:
+ *
+ * <pre>
+ * java -cp target/classes no.ntnu.datakomm.chat.load.LoadGenerator --host localhost --users 500 --rate 2
+ * </pre>
+ *
+ * See {@link LoadConfig#usage()} for all options.
+ */
+public class LoadGenerator {
+    // Longest time to wait for each login result
+    private static final long LOGIN_TIMEOUT_MS = 10_000;
+    // Time given to outstanding replies after the last command was sent
+    private static final long DRAIN_MILLIS = 2000;
+
+    private final LoadConfig config;
+    private final LoadStats stats = new LoadStats();
+    private final PrintStream out;
+
+    /**
+     * @param config The settings of the run
+     * @param out    Where progress and the final report are printed
+     */
+    public LoadGenerator(LoadConfig config, PrintStream out) {
+        this.config = config;
+        this.out = out;
+    }
+
+    public static void main(String[] args) {
+        LoadConfig config;
+        try {
+            config = LoadConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(LoadConfig.usage());
+            System.exit(2);
+            return;
+        }
+        try {
+            new LoadGenerator(config, System.out).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Could not start: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return the counters of this run
+     */
+    public LoadStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Connect and log in all users, let them send for the configured duration, and print the
+     * report.
+     *
+     * @throws IOException          if the shared event loop could not be opened
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run() throws IOException, InterruptedException {
+        ExecutionModel executionModel = config.isVirtualThreads()
+                ? ExecutionModel.virtual() : ExecutionModel.platform();
+        NioEventLoop eventLoop = config.isNio() ? new NioEventLoop() : null;
+        try {
+            List<SimulatedUser> users = login(executionModel, eventLoop);
+            if (users.isEmpty()) {
+                out.println("No user could log in, nothing to measure");
+                return;
+            }
+            List<String> names = new ArrayList<>(users.size());
+            for (SimulatedUser user : users) {
+                names.add(user.getName());
+            }
+
+            out.printf("%d of %d users logged in, sending for %d s%n",
+                    users.size(), config.getUsers(), config.getDurationSeconds());
+            long start = System.nanoTime();
+            long deadline = start + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+            CountDownLatch finished = new CountDownLatch(users.size());
+            for (SimulatedUser user : users) {
+                executionModel.start("load-" + user.getName(), () -> {
+                    try {
+                        user.run(config, names, deadline);
+                    } finally {
+                        finished.countDown();
+                    }
+                });
+            }
+            waitAndReport(finished, start);
+
+            // Give the last replies a moment before closing
+            long drainUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_MILLIS);
+            while (pendingReplies(users) > 0 && System.nanoTime() < drainUntil) {
+                Thread.sleep(50);
+            }
+            long elapsed = System.nanoTime() - start;
+            int unanswered = pendingReplies(users);
+            for (SimulatedUser user : users) {
+                user.disconnect();
+            }
+            printReport(elapsed, unanswered);
+        } finally {
+            executionModel.shutdown(Duration.ofSeconds(5));
+            if (eventLoop != null) {
+                eventLoop.close();
+            }
+        }
+    }
+
+    private List<SimulatedUser> login(ExecutionModel executionModel, NioEventLoop eventLoop)
+            throws InterruptedException {
+        // Users log in in parallel, each on a thread of the execution model
+        List<SimulatedUser> loggedIn = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(config.getUsers());
+        long runId = System.currentTimeMillis() % 100_000;
+        for (int i = 0; i < config.getUsers(); i++) {
+            TCPClient client = new TCPClient(eventLoop);
+            client.setExecutionModel(executionModel);
+            client.setCompactMode(config.isCompact());
+            SimulatedUser user = new SimulatedUser(client, config.getUserPrefix() + runId + "_" + i, stats);
+            executionModel.start("load-login", () -> {
+                try {
+                    if (user.connectAndLogin(config.getHost(), config.getPort(), LOGIN_TIMEOUT_MS)) {
+                        synchronized (loggedIn) {
+                            loggedIn.add(user);
+                        }
+                    } else {
+                        user.disconnect();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        return loggedIn;
+    }
+
+    private void waitAndReport(CountDownLatch finished, long start) throws InterruptedException {
+        long interval = config.getReportIntervalSeconds();
+        if (interval == 0) {
+            finished.await();
+            return;
+        }
+        long lastSent = 0;
+        long lastReplies = 0;
+        while (!finished.await(interval, TimeUnit.SECONDS)) {
+            long sent = stats.getSentCount();
+            long replies = stats.getReplyCount();
+            out.printf("[%4d s] sent %8.1f/s  replies %8.1f/s  received %d  errors %d  msg latency p99 %.3f ms%n",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start),
+                    (double) (sent - lastSent) / interval, (double) (replies - lastReplies) / interval,
+                    stats.getReceivedCount(), stats.getMsgErrorCount() + stats.getCmdErrorCount(),
+                    stats.getLatency(LoadConfig.Command.MSG).getPercentileMicros(99) / 1000.0);
+            lastSent = sent;
+            lastReplies = replies;
+        }
+    }
+
+    private static int pendingReplies(List<SimulatedUser> users) {
+        int pending = 0;
+        for (SimulatedUser user : users) {
+            pending += user.getPendingCount();
+        }
+        return pending;
+    }
+
+    private void printReport(long elapsedNanos, int unanswered) {
+        double seconds = elapsedNanos / 1e9;
+        long sent = stats.getSentCount();
+        out.println();
+        out.printf("Users:      %d logged in, %d login errors, %d disconnects%n",
+                stats.getLoggedInCount(), stats.getLoginErrorCount(), stats.getDisconnectCount());
+        out.printf("Sent:       %d commands in %.1f s (%.1f/s), %d failed sends%n",
+                sent, seconds, sent / seconds, stats.getSendFailureCount());
+        out.printf("Replies:    %d (%.1f/s), %d unanswered%n",
+                stats.getReplyCount(), stats.getReplyCount() / seconds, unanswered);
+        out.printf("Received:   %d messages from others (%.1f/s)%n",
+                stats.getReceivedCount(), stats.getReceivedCount() / seconds);
+        out.printf("Errors:     msgerr %d, cmderr %d, loginerr %d (%.2f %% of sent)%n",
+                stats.getMsgErrorCount(), stats.getCmdErrorCount(), stats.getLoginErrorCount(),
+                stats.getErrorRate() * 100);
+        out.println("Latency:");
+        out.println("  login    " + stats.getLoginLatency());
+        for (LoadConfig.Command command : LoadConfig.Command.values()) {
+            LatencyHistogram latency = stats.getLatency(command);
+            if (latency.getCount() > 0) {
+                out.printf("  %-8s %s%n", command.name().toLowerCase(), latency);
+            }
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package no.ntnu.datakomm.chat.load;
+
+import no.ntnu.datakomm.chat.LatencyHistogram;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by all simulated users of a load run. Every field may be updated from any
+ * thread.
+ */
+public class LoadStats {
+    private final Map<LoadConfig.Command, LongAdder> sent = new EnumMap<>(LoadConfig.Command.class);
+    private final Map<LoadConfig.Command, LatencyHistogram> latency = new EnumMap<>(LoadConfig.Command.class);
+    private final LatencyHistogram loginLatency = new LatencyHistogram();
+    private final LongAdder sendFailures = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder replies = new LongAdder();
+    private final LongAdder msgErrors = new LongAdder();
+    private final LongAdder cmdErrors = new LongAdder();
+    private final LongAdder loginErrors = new LongAdder();
+    private final LongAdder loggedIn = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    public LoadStats() {
+        for (LoadConfig.Command command : LoadConfig.Command.values()) {
+            sent.put(command, new LongAdder());
+            latency.put(command, new LatencyHistogram());
+        }
+    }
+
+    void commandSent(LoadConfig.Command command) {
+        sent.get(command).increment();
+    }
+
+    void sendFailed() {
+        sendFailures.increment();
+    }
+
+    void replyReceived(LoadConfig.Command command, long latencyNanos) {
+        replies.increment();
+        latency.get(command).recordNanos(latencyNanos);
+    }
+
+    void messageReceived() {
+        received.increment();
+    }
+
+    void msgError() {
+        msgErrors.increment();
+    }
+
+    void cmdError() {
+        cmdErrors.increment();
+    }
+
+    void loginResult(boolean success, long latencyNanos) {
+        loginLatency.recordNanos(latencyNanos);
+        if (success) {
+            loggedIn.increment();
+        } else {
+            loginErrors.increment();
+        }
+    }
+
+    void disconnected() {
+        disconnects.increment();
+    }
+
+    /**
+     * @return total number of commands sent, login excluded
+     */
+    public long getSentCount() {
+        long total = 0;
+        for (LongAdder count : sent.values()) {
+            total += count.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param command A command
+     * @return number of times the command was sent
+     */
+    public long getSentCount(LoadConfig.Command command) {
+        return sent.get(command).sum();
+    }
+
+    /**
+     * @param command A command
+     * @return the latencies from sending the command to receiving its reply
+     */
+    public LatencyHistogram getLatency(LoadConfig.Command command) {
+        return latency.get(command);
+    }
+
+    public LatencyHistogram getLoginLatency() {
+        return loginLatency;
+    }
+
+    public long getReplyCount() {
+        return replies.sum();
+    }
+
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    public long getSendFailureCount() {
+        return sendFailures.sum();
+    }
+
+    public long getMsgErrorCount() {
+        return msgErrors.sum();
+    }
+
+    public long getCmdErrorCount() {
+        return cmdErrors.sum();
+    }
+
+    public long getLoginErrorCount() {
+        return loginErrors.sum();
+    }
+
+    public long getLoggedInCount() {
+        return loggedIn.sum();
+    }
+
+    public long getDisconnectCount() {
+        return disconnects.sum();
+    }
+
+    /**
+     * @return the share of sent commands that got an error reply, between 0 and 1
+     */
+    public double getErrorRate() {
+        long total = getSentCount();
+        return total == 0 ? 0 : (double) (msgErrors.sum() + cmdErrors.sum()) / total;
+    }
+}
@@ -0,0 +1,227 @@
+package no.ntnu.datakomm.chat.load;
+
+import no.ntnu.datakomm.chat.ChatListener;
+import no.ntnu.datakomm.chat.TCPClient;
+import no.ntnu.datakomm.chat.TextMessage;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One simulated chat user: a {@link TCPClient} that logs in and sends a random mix of commands
+ * at a steady rate, and a {@link ChatListener} that times the replies.
+ *
+ * <p>The server answers the commands of one connection in order, so every reply (msgok,
+ * msgerr, users, supported, cmderr) belongs to the oldest command that has not been answered
+ * yet. Messages from other users are counted but are not replies.
+ */
+class SimulatedUser implements ChatListener {
+
+    /**
+     * A sent command waiting for its reply.
+     */
+    private static final class Pending {
+        final LoadConfig.Command command;
+        final long sentAt;
+
+        Pending(LoadConfig.Command command, long sentAt) {
+            this.command = command;
+            this.sentAt = sentAt;
+        }
+    }
+
+    private final TCPClient client;
+    private final String name;
+    private final LoadStats stats;
+    private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final CountDownLatch loginDone = new CountDownLatch(1);
+    private volatile boolean loggedIn = false;
+    private volatile boolean connected = false;
+    private long loginSentAt;
+
+    /**
+     * @param client The client to send with, not connected yet
+     * @param name   User name to log in with
+     * @param stats  Where to count what happens
+     */
+    SimulatedUser(TCPClient client, String name, LoadStats stats) {
+        this.client = client;
+        this.name = name;
+        this.stats = stats;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Connect, start listening and log in. Waits for the login result.
+     *
+     * @param host      The chat server host
+     * @param port      The chat server port
+     * @param timeoutMs Longest time to wait for the login result
+     * @return true if logged in
+     * @throws InterruptedException if interrupted while waiting for the login result
+     */
+    boolean connectAndLogin(String host, int port, long timeoutMs) throws InterruptedException {
+        if (!client.connect(host, port)) {
+            return false;
+        }
+        connected = true;
+        client.addListener(this);
+        client.startListenThread();
+        loginSentAt = System.nanoTime();
+        client.tryLogin(name);
+        return loginDone.await(timeoutMs, TimeUnit.MILLISECONDS) && loggedIn;
+    }
+
+    /**
+     * Send commands at the given rate until the deadline passes or the connection closes. The
+     * send times are fixed in advance, so a slow send is followed by quicker ones instead of
+     * lowering the rate.
+     *
+     * @param config   The rate, mix and message length
+     * @param others   Names of the other users, recipients of private messages
+     * @param deadline When to stop, in {@link System#nanoTime()} time
+     */
+    void run(LoadConfig config, List<String> others, long deadline) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long period = (long) (1_000_000_000L / config.getRatePerUser());
+        String text = "x".repeat(config.getMessageLength());
+        Map<LoadConfig.Command, Integer> mix = config.getMix();
+        int totalWeight = mix.values().stream().mapToInt(Integer::intValue).sum();
+
+        // Spread the users over the first period, so they do not all send at once
+        long next = System.nanoTime() + random.nextLong(period);
+        while (connected && next < deadline && !Thread.currentThread().isInterrupted()) {
+            long wait = next - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            send(pick(mix, totalWeight, random), text, others, random);
+            next += period;
+        }
+    }
+
+    private static LoadConfig.Command pick(Map<LoadConfig.Command, Integer> mix, int totalWeight,
+                                           ThreadLocalRandom random) {
+        int r = random.nextInt(totalWeight);
+        for (Map.Entry<LoadConfig.Command, Integer> entry : mix.entrySet()) {
+            r -= entry.getValue();
+            if (r < 0) {
+                return entry.getKey();
+            }
+        }
+        return LoadConfig.Command.MSG;
+    }
+
+    private void send(LoadConfig.Command command, String text, List<String> others,
+                      ThreadLocalRandom random) {
+        if (command == LoadConfig.Command.PRIVMSG && others.isEmpty()) {
+            command = LoadConfig.Command.MSG;
+        }
+        // Queue the send time first: the reply may arrive before the send call returns
+        pending.add(new Pending(command, System.nanoTime()));
+        boolean sent;
+        switch (command) {
+            case PRIVMSG:
+                sent = client.sendPrivateMessage(others.get(random.nextInt(others.size())), text);
+                break;
+            case USERS:
+                sent = client.sendRequest("users");
+                break;
+            case HELP:
+                sent = client.sendRequest("help");
+                break;
+            case MSG:
+            default:
+                sent = client.sendPublicMessage("msg " + text);
+        }
+        if (sent) {
+            stats.commandSent(command);
+        } else {
+            // The connection is broken, no more replies will come
+            stats.sendFailed();
+            pending.clear();
+            connected = false;
+        }
+    }
+
+    /**
+     * Close the connection.
+     */
+    void disconnect() {
+        connected = false;
+        client.disconnect();
+    }
+
+    /**
+     * @return number of commands still waiting for a reply
+     */
+    int getPendingCount() {
+        return pending.size();
+    }
+
+    private void replyReceived() {
+        Pending request = pending.poll();
+        if (request != null) {
+            stats.replyReceived(request.command, System.nanoTime() - request.sentAt);
+        }
+    }
+
+    @Override
+    public void onDisconnect() {
+        // Only count connections closed by the server, not the ones we closed ourselves
+        if (connected) {
+            connected = false;
+            stats.disconnected();
+        }
+        loginDone.countDown();
+    }
+
+    @Override
+    public void onLoginResult(boolean success, String errMsg) {
+        stats.loginResult(success, System.nanoTime() - loginSentAt);
+        loggedIn = success;
+        loginDone.countDown();
+    }
+
+    @Override
+    public void onMessageReceived(TextMessage message) {
+        stats.messageReceived();
+    }
+
+    @Override
+    public void onMessageAccepted() {
+        replyReceived();
+    }
+
+    @Override
+    public void onMessageError(String errMsg) {
+        stats.msgError();
+        replyReceived();
+    }
+
+    @Override
+    public void onUserList(String[] usernames) {
+        replyReceived();
+    }
+
+    @Override
+    public void onSupportedCommands(String[] commands) {
+        replyReceived();
+    }
+
+    @Override
+    public void onCommandError(String errMsg) {
+        stats.cmdError();
+        replyReceived();
+    }
+}
@@ -0,0 +1,308 @@
+package no.ntnu.datakomm.chat.server;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A stand-in chat server that speaks the same line protocol as the course server, for tests
+ * and benchmarks that must run without network access. It can be embedded:
+ *
+ * <pre>
+ * try (ChatServer server = new ChatServer(new ServerConfig())) {
+ *     server.start();
+ *     client.connect("localhost", server.getPort());
+ *     ...
+ * }
+ * </pre>
+ *
+ * or run on its own, without JavaFX, with
+ * {@code java -cp target/classes no.ntnu.datakomm.chat.server.ChatServer --port 1300}.
+ *
+ * <p>Every client gets its own thread of an {@link ExecutionModel}, virtual by default, and
+ * its commands are answered in order. {@link ServerConfig} sets how far public messages are
+ * fanned out and which faults are injected: reply delays, lines written in pieces, and clients
+ * read slowly. {@link #flood(int, double, String, String)} pushes a scripted burst of messages.
+ */
+public class ChatServer implements AutoCloseable {
+    private final ServerConfig config;
+    private final ExecutionModel executionModel;
+    private final Set<ServerSession> sessions = ConcurrentHashMap.newKeySet();
+    // Logged in users, sorted by name for the "users" reply
+    private final Map<String, ServerSession> online = new ConcurrentSkipListMap<>();
+    // Private messages for users that have logged in before and are now logged out
+    private final Map<String, Deque<String>> inboxes = new ConcurrentHashMap<>();
+    private final LongAdder commandCount = new LongAdder();
+    private final LongAdder lineCount = new LongAdder();
+    private ServerSocket serverSocket;
+
+    /**
+     * Create a server that runs every client on its own virtual thread.
+     *
+     * @param config The server settings
+     */
+    public ChatServer(ServerConfig config) {
+        this(config, ExecutionModel.virtual());
+    }
+
+    /**
+     * @param config         The server settings
+     * @param executionModel Starts the accept thread and one thread per client
+     */
+    public ChatServer(ServerConfig config, ExecutionModel executionModel) {
+        this.config = config;
+        this.executionModel = executionModel;
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(ServerConfig.usage());
+            System.exit(2);
+            return;
+        }
+        ChatServer server = new ChatServer(config);
+        server.start();
+        System.out.println("Chat server listening on port " + server.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        // The server threads are daemon threads, keep the JVM alive until it is stopped
+        Thread.currentThread().join();
+    }
+
+    /**
+     * Start listening for clients.
+     *
+     * @throws IOException if the port could not be opened
+     */
+    public synchronized void start() throws IOException {
+        if (serverSocket != null) {
+            return;
+        }
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(config.getPort()));
+        ServerSocket listening = serverSocket;
+        executionModel.start("chat-server-accept", () -> acceptLoop(listening));
+    }
+
+    /**
+     * @return the port the server listens on, useful when the config asked for any free port
+     */
+    public synchronized int getPort() {
+        return serverSocket != null ? serverSocket.getLocalPort() : -1;
+    }
+
+    private void acceptLoop(ServerSocket listening) {
+        while (!listening.isClosed()) {
+            try {
+                Socket socket = listening.accept();
+                socket.setTcpNoDelay(true);
+                if (config.getSlowReadBytesPerSecond() > 0) {
+                    // A small receive window makes the client feel the slow reads sooner
+                    socket.setReceiveBufferSize(4096);
+                }
+                ServerSession session = new ServerSession(this, config, socket);
+                sessions.add(session);
+                executionModel.start("chat-server-session", session::serve);
+            } catch (IOException e) {
+                if (!listening.isClosed()) {
+                    System.err.println("Chat server could not accept: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Stop listening, disconnect all clients and stop their threads.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (serverSocket != null) {
+                try {
+                    serverSocket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+        for (ServerSession session : sessions) {
+            session.close();
+        }
+        executionModel.shutdown(Duration.ofSeconds(2));
+    }
+
+    /**
+     * Send public messages to every logged in user, as if they came from the given sender. The
+     * messages are sent at the given rate on a thread of the execution model.
+     *
+     * @param count             Number of messages
+     * @param messagesPerSecond Rate of the messages, 0 or less for as fast as possible
+     * @param sender            Sender name shown to the clients
+     * @param text              Message text, followed by the number of each message
+     * @return a future that completes when all messages are sent, or stops the flood when
+     * cancelled
+     */
+    public CompletableFuture<Void> flood(int count, double messagesPerSecond, String sender, String text) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        long period = messagesPerSecond > 0 ? (long) (1_000_000_000L / messagesPerSecond) : 0;
+        executionModel.start("chat-server-flood", () -> {
+            long next = System.nanoTime();
+            for (int i = 1; i <= count && !done.isDone(); i++) {
+                String line = "msg " + sender + " " + text + " " + i;
+                for (ServerSession session : online.values()) {
+                    session.send(line);
+                }
+                if (period > 0) {
+                    next += period;
+                    LockSupport.parkNanos(next - System.nanoTime());
+                }
+            }
+            done.complete(null);
+        });
+        return done;
+    }
+
+    /**
+     * Log a session in under a name.
+     *
+     * @return false if the name is taken by another session
+     */
+    boolean register(String name, ServerSession session) {
+        ServerSession existing = online.putIfAbsent(name, session);
+        if (existing != null && existing != session) {
+            return false;
+        }
+        inboxes.putIfAbsent(name, new ArrayDeque<>());
+        return true;
+    }
+
+    void unregister(String name, ServerSession session) {
+        online.remove(name, session);
+    }
+
+    void sessionClosed(ServerSession session) {
+        sessions.remove(session);
+    }
+
+    /**
+     * @return names of the logged in users, sorted
+     */
+    List<String> getUsernames() {
+        return new ArrayList<>(online.keySet());
+    }
+
+    /**
+     * Forward a public message to the other logged in users, at most as many as the fan-out
+     * setting allows.
+     *
+     * @return number of users the message was sent to
+     */
+    int broadcast(ServerSession from, String line) {
+        int sent = 0;
+        int limit = config.getMaxFanOut();
+        for (ServerSession session : online.values()) {
+            if (sent >= limit) {
+                break;
+            }
+            if (session != from && session.send(line)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Send a private message to a logged in user, or keep it in the inbox of a user that is
+     * logged out.
+     *
+     * @return false if no user with the name has ever logged in
+     */
+    boolean deliver(String recipient, String line) {
+        ServerSession session = online.get(recipient);
+        if (session != null && session.send(line)) {
+            return true;
+        }
+        Deque<String> inbox = inboxes.get(recipient);
+        if (inbox == null) {
+            return false;
+        }
+        synchronized (inbox) {
+            inbox.addLast(line);
+            while (inbox.size() > config.getInboxCapacity()) {
+                inbox.pollFirst();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the messages kept for a user.
+     */
+    List<String> takeInbox(String name) {
+        Deque<String> inbox = inboxes.get(name);
+        if (inbox == null) {
+            return Collections.emptyList();
+        }
+        synchronized (inbox) {
+            List<String> messages = new ArrayList<>(inbox);
+            inbox.clear();
+            return messages;
+        }
+    }
+
+    void commandReceived() {
+        commandCount.increment();
+    }
+
+    void lineSent() {
+        lineCount.increment();
+    }
+
+    /**
+     * @return number of connected clients
+     */
+    public int getSessionCount() {
+        return sessions.size();
+    }
+
+    /**
+     * @return number of logged in users
+     */
+    public int getOnlineCount() {
+        return online.size();
+    }
+
+    /**
+     * @return number of commands received from all clients
+     */
+    public long getCommandCount() {
+        return commandCount.sum();
+    }
+
+    /**
+     * @return number of lines sent to all clients
+     */
+    public long getLineCount() {
+        return lineCount.sum();
+    }
+}
@@ -0,0 +1,166 @@
+package no.ntnu.datakomm.chat.server;
+
+/**
+ * Settings of a {@link ChatServer}: how messages are fanned out and which faults are injected
+ * to make the server behave like a slow or far-away one.
+ */
+public class ServerConfig {
+    private int port = 0;
+    private int maxFanOut = Integer.MAX_VALUE;
+    private long replyDelayMillis = 0;
+    private int partialWriteBytes = 0;
+    private long slowReadBytesPerSecond = 0;
+    private int inboxCapacity = 100;
+    private boolean compact = true;
+
+    /**
+     * Read settings from command line arguments of the form {@code --name value}. Settings that
+     * are not given keep their defaults.
+     *
+     * @param args The command line arguments
+     * @return the settings
+     * @throws IllegalArgumentException if an argument is unknown or has a bad value
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (int i = 0; i < args.length; i++) {
+            String name = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + name);
+            }
+            String value = args[++i];
+            try {
+                switch (name) {
+                    case "--port" -> config.setPort(Integer.parseInt(value));
+                    case "--fan-out" -> config.setMaxFanOut(Integer.parseInt(value));
+                    case "--delay" -> config.setReplyDelayMillis(Long.parseLong(value));
+                    case "--partial-write" -> config.setPartialWriteBytes(Integer.parseInt(value));
+                    case "--slow-read" -> config.setSlowReadBytesPerSecond(Long.parseLong(value));
+                    case "--inbox" -> config.setInboxCapacity(Integer.parseInt(value));
+                    case "--compact" -> config.setCompact(Boolean.parseBoolean(value));
+                    default -> throw new IllegalArgumentException("Unknown option " + name);
+                }
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad number for " + name + ": " + value);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * @return a description of the options understood by {@link #fromArgs(String[])}
+     */
+    public static String usage() {
+        return String.join("\n",
+                "Options:",
+                "  --port <n>           port to listen on, 0 for any free port (0)",
+                "  --fan-out <n>        largest number of users a public message is sent to (all)",
+                "  --delay <ms>         delay before every reply (0)",
+                "  --partial-write <n>  write replies in pieces of this many bytes, 0 for whole (0)",
+                "  --slow-read <n>      read at most this many bytes per second per client, 0 for no limit (0)",
+                "  --inbox <n>          private messages kept for each logged out user (100)",
+                "  --compact <bool>     offer the compact framing to clients (true)");
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @param port Port to listen on, 0 for any free port
+     */
+    public void setPort(int port) {
+        if (port < 0 || port > 65535) {
+            throw new IllegalArgumentException("Port must be between 0 and 65535");
+        }
+        this.port = port;
+    }
+
+    public int getMaxFanOut() {
+        return maxFanOut;
+    }
+
+    /**
+     * @param maxFanOut Largest number of other users a public message is forwarded to, 0 to
+     *                  forward public messages to nobody
+     */
+    public void setMaxFanOut(int maxFanOut) {
+        if (maxFanOut < 0) {
+            throw new IllegalArgumentException("Fan-out must not be negative");
+        }
+        this.maxFanOut = maxFanOut;
+    }
+
+    public long getReplyDelayMillis() {
+        return replyDelayMillis;
+    }
+
+    /**
+     * @param replyDelayMillis Time the server waits before answering each command. Commands of
+     *                         one client are answered in order, so delays add up
+     */
+    public void setReplyDelayMillis(long replyDelayMillis) {
+        if (replyDelayMillis < 0) {
+            throw new IllegalArgumentException("Delay must not be negative");
+        }
+        this.replyDelayMillis = replyDelayMillis;
+    }
+
+    public int getPartialWriteBytes() {
+        return partialWriteBytes;
+    }
+
+    /**
+     * @param partialWriteBytes Write every line in pieces of this many bytes, each in its own
+     *                          write, so the client sees lines split over several reads. 0 to
+     *                          write whole lines
+     */
+    public void setPartialWriteBytes(int partialWriteBytes) {
+        if (partialWriteBytes < 0) {
+            throw new IllegalArgumentException("Partial write size must not be negative");
+        }
+        this.partialWriteBytes = partialWriteBytes;
+    }
+
+    public long getSlowReadBytesPerSecond() {
+        return slowReadBytesPerSecond;
+    }
+
+    /**
+     * @param slowReadBytesPerSecond Largest number of bytes read from each client per second,
+     *                               so the client's socket buffers fill up. 0 for no limit
+     */
+    public void setSlowReadBytesPerSecond(long slowReadBytesPerSecond) {
+        if (slowReadBytesPerSecond < 0) {
+            throw new IllegalArgumentException("Read rate must not be negative");
+        }
+        this.slowReadBytesPerSecond = slowReadBytesPerSecond;
+    }
+
+    public int getInboxCapacity() {
+        return inboxCapacity;
+    }
+
+    /**
+     * @param inboxCapacity Largest number of private messages kept for a user that is logged
+     *                      out, oldest are dropped first
+     */
+    public void setInboxCapacity(int inboxCapacity) {
+        if (inboxCapacity < 0) {
+            throw new IllegalArgumentException("Inbox capacity must not be negative");
+        }
+        this.inboxCapacity = inboxCapacity;
+    }
+
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * @param compact When true, the server lists the compact framing as supported and switches
+     *                to it when a client asks. When false, it behaves like a text-only server
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+}
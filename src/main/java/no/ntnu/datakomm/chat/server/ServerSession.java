@@ -0,0 +1,271 @@
+package no.ntnu.datakomm.chat.server;
+
+import no.ntnu.datakomm.chat.CompactFraming;
+import no.ntnu.datakomm.chat.LineHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One client connection of a {@link ChatServer}. Reads the client's commands one line at a
+ * time on its own thread and answers them in order. Other sessions write forwarded messages to
+ * this client through {@link #send(String)}.
+ */
+class ServerSession {
+    // Largest piece read at once in slow-read mode
+    private static final int SLOW_READ_CHUNK = 64;
+
+    private final ChatServer server;
+    private final ServerConfig config;
+    private final Socket socket;
+    private final OutputStream out;
+    private final Object writeLock = new Object();
+    private volatile String username;
+    // Set once the client has switched to the compact framing. Only used by the serve thread
+    private CompactFraming.Decoder decoder;
+    // Set once this server has switched to the compact framing. Guarded by writeLock
+    private CompactFraming.Encoder encoder;
+
+    ServerSession(ChatServer server, ServerConfig config, Socket socket) throws IOException {
+        this.server = server;
+        this.config = config;
+        this.socket = socket;
+        this.out = socket.getOutputStream();
+    }
+
+    /**
+     * @return the name this client logged in with, or null before login
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * Read and answer commands until the client disconnects.
+     */
+    void serve() {
+        try {
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            byte[] buffer = new byte[config.getSlowReadBytesPerSecond() > 0 ? SLOW_READ_CHUNK : 8192];
+            LineHandler compactLines = (bytes, offset, length) ->
+                    handle(new String(bytes, offset, length, StandardCharsets.UTF_8).strip());
+            int read;
+            while ((read = in.read(buffer)) >= 0 && !Thread.currentThread().isInterrupted()) {
+                if (decoder != null) {
+                    decoder.decode(ByteBuffer.wrap(buffer, 0, read), compactLines);
+                } else {
+                    for (int i = 0; i < read; i++) {
+                        if (buffer[i] == '\n') {
+                            handle(line.toString(StandardCharsets.UTF_8).strip());
+                            line.reset();
+                            if (decoder != null) {
+                                // The client sends compact frames after its request line
+                                decoder.decode(ByteBuffer.wrap(buffer, i + 1, read - i - 1), compactLines);
+                                break;
+                            }
+                        } else {
+                            line.write(buffer[i]);
+                        }
+                    }
+                }
+                throttle(read);
+            }
+        } catch (IOException e) {
+            // The client went away
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            close();
+        }
+    }
+
+    private void throttle(int bytesRead) throws InterruptedException {
+        long rate = config.getSlowReadBytesPerSecond();
+        if (rate > 0) {
+            long nanos = bytesRead * 1_000_000_000L / rate;
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+    }
+
+    /**
+     * Answer one command. When interrupted during the reply delay, the command is not answered
+     * and the thread stays interrupted.
+     *
+     * @param line The command line, without the line terminator
+     */
+    private void handle(String line) {
+        if (line.isEmpty()) {
+            return;
+        }
+        server.commandReceived();
+        String[] parts = line.split(" ", 2);
+        String command = parts[0];
+        String rest = parts.length > 1 ? parts[1].strip() : "";
+        if (config.getReplyDelayMillis() > 0) {
+            try {
+                Thread.sleep(config.getReplyDelayMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        switch (command) {
+            case "login" -> login(rest);
+            case "msg" -> publicMessage(rest);
+            case "privmsg" -> privateMessage(rest);
+            case "users" -> send("users " + String.join(" ", server.getUsernames()));
+            case "help" -> send("supported login msg privmsg users help inbox"
+                    + (config.isCompact() ? " " + CompactFraming.FEATURE : ""));
+            case "inbox" -> inbox();
+            case CompactFraming.REQUEST -> startCompact();
+            default -> send("cmderr command not supported");
+        }
+    }
+
+    private void login(String name) {
+        if (!name.matches("[A-Za-z0-9_]+")) {
+            send("loginerr incorrect username format");
+        } else if (name.equals(username)) {
+            send("loginok");
+        } else if (!server.register(name, this)) {
+            send("loginerr username already in use");
+        } else {
+            String previous = username;
+            username = name;
+            if (previous != null) {
+                server.unregister(previous, this);
+            }
+            send("loginok");
+        }
+    }
+
+    private void publicMessage(String text) {
+        String sender = username;
+        if (sender == null) {
+            send("msgerr unauthorized");
+            return;
+        }
+        int recipients = server.broadcast(this, "msg " + sender + " " + text);
+        send("msgok " + recipients);
+    }
+
+    private void privateMessage(String rest) {
+        String sender = username;
+        if (sender == null) {
+            send("msgerr unauthorized");
+            return;
+        }
+        String[] parts = rest.split(" ", 2);
+        String recipient = parts[0];
+        String text = parts.length > 1 ? parts[1] : "";
+        if (server.deliver(recipient, "privmsg " + sender + " " + text)) {
+            send("msgok 1");
+        } else {
+            send("msgerr incorrect recipient " + recipient);
+        }
+    }
+
+    /**
+     * Switch both directions to the compact framing: replies after "compactok", and commands
+     * after the request line.
+     */
+    private void startCompact() {
+        if (!config.isCompact()) {
+            send("cmderr command not supported");
+            return;
+        }
+        synchronized (writeLock) {
+            send(CompactFraming.ACCEPT);
+            encoder = CompactFraming.serverEncoder();
+        }
+        decoder = CompactFraming.serverDecoder();
+    }
+
+    private void inbox() {
+        String name = username;
+        if (name == null) {
+            send("msgerr unauthorized");
+            return;
+        }
+        List<String> stored = server.takeInbox(name);
+        List<String> lines = new ArrayList<>(stored.size() + 1);
+        lines.add("inbox " + stored.size());
+        lines.addAll(stored);
+        // One write for the whole replay, which also compresses better
+        sendAll(lines);
+    }
+
+    /**
+     * Send one line to this client. Can be called from any thread.
+     *
+     * @param line The line, without the line terminator
+     * @return false if the connection is broken
+     */
+    boolean send(String line) {
+        return sendAll(List.of(line));
+    }
+
+    /**
+     * Send lines to this client in one write. Can be called from any thread.
+     *
+     * @param lines The lines, without the line terminators
+     * @return false if the connection is broken
+     */
+    boolean sendAll(List<String> lines) {
+        StringBuilder text = new StringBuilder();
+        for (String line : lines) {
+            text.append(line).append('\n');
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        int piece = config.getPartialWriteBytes();
+        synchronized (writeLock) {
+            if (encoder != null) {
+                bytes = encoder.encode(bytes, 0, bytes.length);
+            }
+            try {
+                if (piece <= 0) {
+                    out.write(bytes);
+                } else {
+                    for (int offset = 0; offset < bytes.length; offset += piece) {
+                        out.write(bytes, offset, Math.min(piece, bytes.length - offset));
+                        out.flush();
+                        // Give the pieces a chance to leave in separate segments
+                        Thread.yield();
+                    }
+                }
+                out.flush();
+                for (int i = 0; i < lines.size(); i++) {
+                    server.lineSent();
+                }
+                return true;
+            } catch (IOException e) {
+                close();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Close the connection and log the user out.
+     */
+    void close() {
+        String name = username;
+        if (name != null) {
+            server.unregister(name, this);
+        }
+        server.sessionClosed(this);
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChatScrollbackTest {
+
+    private static List<ChatLogEntry> entries(int from, int count) {
+        List<ChatLogEntry> batch = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++) {
+            batch.add(new ChatLogEntry(new TextMessage("alice", false, "message " + i), false, false, false));
+        }
+        return batch;
+    }
+
+    private static String text(ChatScrollback scrollback, int index) {
+        return scrollback.getEntries().get(index).getMessage().getText();
+    }
+
+    @Test
+    public void followingArchivesDownToTheCap() {
+        ChatScrollback scrollback = new ChatScrollback(10, 100);
+        assertEquals(0, scrollback.append(entries(0, 10), true));
+        assertEquals(5, scrollback.append(entries(10, 5), true));
+        assertEquals(10, scrollback.getEntries().size());
+        assertEquals(5, scrollback.getArchivedCount());
+        assertEquals("message 5", text(scrollback, 0));
+    }
+
+    @Test
+    public void scrolledBackArchivesOnlyPastTheLargerCap() {
+        ChatScrollback scrollback = new ChatScrollback(10, 100);
+        scrollback.append(entries(0, 10), true);
+        // The user reads message 3 at the top of the window
+        int top = 3;
+
+        assertEquals(0, scrollback.append(entries(10, 10), false));
+        int archived = scrollback.append(entries(20, 2), false);
+        assertEquals(2, archived);
+        // The entry being read moved up by the number archived
+        assertEquals("message 3", text(scrollback, top - archived));
+
+        // Back at the bottom, the list is archived down to the cap
+        assertEquals(10, scrollback.trim());
+        assertEquals("message 12", text(scrollback, 0));
+    }
+
+    @Test
+    public void scrolledBackStaysBounded() {
+        ChatScrollback scrollback = new ChatScrollback(10, 100);
+        int archived = 0;
+        for (int i = 0; i < 1000; i++) {
+            archived += scrollback.append(entries(i, 1), false);
+            assertTrue(scrollback.getEntries().size() <= 10 * ChatScrollback.SCROLLED_BACK_FACTOR);
+        }
+        assertEquals(1000 - 10 * ChatScrollback.SCROLLED_BACK_FACTOR, archived);
+        assertEquals(100, scrollback.getArchivedCount());
+        assertEquals("message 999", text(scrollback, scrollback.getEntries().size() - 1));
+    }
+}
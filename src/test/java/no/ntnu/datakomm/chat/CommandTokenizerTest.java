@@ -0,0 +1,58 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class CommandTokenizerTest {
+
+    private final CommandTokenizer tokenizer = new CommandTokenizer();
+
+    private ServerCommand tokenize(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        return tokenizer.tokenize(bytes, 0, bytes.length);
+    }
+
+    @Test
+    public void messageHasSenderAndPayload() {
+        assertEquals(ServerCommand.MSG, tokenize("msg alice hello  there "));
+        assertEquals("alice", tokenizer.sender());
+        assertEquals("hello  there", tokenizer.payload());
+    }
+
+    @Test
+    public void repeatedSpacesSeparateWords() {
+        assertEquals(ServerCommand.USERS, tokenize("  users   alice bob  carol "));
+        assertArrayEquals(new String[]{"alice", "bob", "carol"}, tokenizer.payloadWords());
+        assertEquals("", tokenizer.sender());
+    }
+
+    @Test
+    public void lineInTheMiddleOfABuffer() {
+        byte[] buffer = "xxprivmsg bob hei påyy".getBytes(StandardCharsets.UTF_8);
+        int length = buffer.length - 4;
+        assertEquals(ServerCommand.PRIVMSG, tokenizer.tokenize(buffer, 2, length));
+        assertEquals("bob", tokenizer.internedSender());
+        assertEquals("hei på", tokenizer.payload());
+        assertArrayEquals("hei på".getBytes(StandardCharsets.UTF_8), tokenizer.payloadBytes());
+    }
+
+    @Test
+    public void emptyAndUnknownLines() {
+        assertEquals(ServerCommand.UNKNOWN, tokenize(""));
+        assertEquals("", tokenizer.payload());
+        assertEquals(0, tokenizer.payloadWords().length);
+        assertEquals(ServerCommand.UNKNOWN, tokenize("hello world"));
+        assertEquals(ServerCommand.MSGOK, tokenize("msgok"));
+        assertEquals("", tokenizer.payload());
+    }
+
+    @Test
+    public void messageWithoutText() {
+        assertEquals(ServerCommand.MSG, tokenize("msg alice"));
+        assertEquals("alice", tokenizer.sender());
+        assertEquals("", tokenizer.payload());
+    }
+}
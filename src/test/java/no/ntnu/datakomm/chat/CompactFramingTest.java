@@ -0,0 +1,93 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompactFramingTest {
+
+    private static final List<String> SERVER_LINES = List.of(
+            "loginok",
+            "msg alice hello everyone",
+            "privmsg bob hei på deg 😀",
+            "users alice bob carol",
+            "msgok",
+            "inbox 2",
+            "something the table does not know",
+            "",
+            "msg alice " + "long ".repeat(5000));
+
+    /**
+     * Encode the lines in writes of a few lines each, as the sending side flushes them.
+     */
+    private static byte[] encode(CompactFraming.Encoder encoder, List<String> lines) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < lines.size(); i += 3) {
+            StringBuilder write = new StringBuilder();
+            for (String line : lines.subList(i, Math.min(i + 3, lines.size()))) {
+                write.append(line).append('\n');
+            }
+            byte[] bytes = write.toString().getBytes(StandardCharsets.UTF_8);
+            stream.writeBytes(encoder.encode(bytes, 0, bytes.length));
+        }
+        return stream.toByteArray();
+    }
+
+    private static List<String> decode(CompactFraming.Decoder decoder, byte[] stream, Random chunks)
+            throws IOException {
+        List<String> lines = new ArrayList<>();
+        LineHandler handler = (buffer, offset, length) ->
+                lines.add(new String(buffer, offset, length, StandardCharsets.UTF_8));
+        int position = 0;
+        while (position < stream.length) {
+            int n = Math.min(stream.length - position, 1 + chunks.nextInt(64));
+            decoder.decode(ByteBuffer.wrap(stream, position, n), handler);
+            position += n;
+        }
+        return lines;
+    }
+
+    @Test
+    public void serverLinesSurviveArbitraryChunking() throws Exception {
+        byte[] stream = encode(CompactFraming.serverEncoder(), SERVER_LINES);
+        for (long seed = 0; seed < 20; seed++) {
+            assertEquals("Seed " + seed, SERVER_LINES,
+                    decode(CompactFraming.clientDecoder(), stream, new Random(seed)));
+        }
+    }
+
+    @Test
+    public void clientCommandsRoundTripOneByteAtATime() throws Exception {
+        List<String> commands = List.of("login alice", "msg hello", "privmsg bob blåbær", "users", "help", "inbox");
+        byte[] stream = encode(CompactFraming.clientEncoder(), commands);
+        CompactFraming.Decoder decoder = CompactFraming.serverDecoder();
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < stream.length; i++) {
+            decoder.decode(ByteBuffer.wrap(stream, i, 1), (buffer, offset, length) ->
+                    lines.add(new String(buffer, offset, length, StandardCharsets.UTF_8)));
+        }
+        assertEquals(commands, lines);
+    }
+
+    @Test
+    public void knownCommandWordsAreCompressed() {
+        byte[] line = "msgok\n".repeat(1000).getBytes(StandardCharsets.US_ASCII);
+        byte[] encoded = CompactFraming.serverEncoder().encode(line, 0, line.length);
+        assertTrue(encoded.length < line.length / 10);
+    }
+
+    @Test(expected = IOException.class)
+    public void garbageIsRejected() throws Exception {
+        byte[] garbage = new byte[64];
+        new Random(1).nextBytes(garbage);
+        CompactFraming.clientDecoder().decode(ByteBuffer.wrap(garbage), (buffer, offset, length) -> { });
+    }
+}
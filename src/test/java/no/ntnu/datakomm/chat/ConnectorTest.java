@@ -0,0 +1,199 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectorTest {
+
+    private final ExecutionModel executionModel = ExecutionModel.virtual();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @After
+    public void closeAll() throws Exception {
+        for (AutoCloseable resource : resources) {
+            resource.close();
+        }
+        executionModel.close();
+    }
+
+    private static InetAddress address(String literal) throws UnknownHostException {
+        return InetAddress.getByName(literal);
+    }
+
+    private ServerSocket listen(String host, int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, address(host));
+        resources.add(server);
+        return server;
+    }
+
+    /**
+     * Open a listener that never answers new connections: its accept queue is filled up, so
+     * that further connection attempts are dropped. Skips the test where the system does not
+     * work that way.
+     */
+    private int blackhole(String host) throws IOException {
+        ServerSocket hole = new ServerSocket(0, 1, address(host));
+        resources.add(hole);
+        for (int i = 0; i < 5; i++) {
+            Socket filler = new Socket();
+            resources.add(filler);
+            try {
+                filler.connect(new InetSocketAddress(hole.getInetAddress(), hole.getLocalPort()), 200);
+            } catch (SocketTimeoutException e) {
+                return hole.getLocalPort();
+            }
+        }
+        Assume.assumeTrue("Full accept queues do not drop connections here", false);
+        return -1;
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static InetAddress remote(SocketChannel channel) throws IOException {
+        return ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+    }
+
+    @Test
+    public void refusedAddressFallsBackToTheNextAtOnce() throws Exception {
+        int port = listen("127.0.0.1", 0).getLocalPort();
+        // Nothing listens on 127.0.0.3
+        Connector connector = new Connector(new ClientMetrics(),
+                host -> new InetAddress[]{address("127.0.0.3"), address("127.0.0.1")});
+        connector.setAttemptDelay(Duration.ofSeconds(5));
+
+        long start = System.nanoTime();
+        try (SocketChannel channel = connector.connect("chat.test", port, executionModel)) {
+            assertEquals(address("127.0.0.1"), remote(channel));
+            assertTrue(channel.isBlocking());
+        }
+        assertTrue("A refusal should not wait for the attempt delay", millisSince(start) < 2000);
+    }
+
+    @Test
+    public void everyAddressRefusedFails() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        Connector connector = new Connector(new ClientMetrics(),
+                host -> new InetAddress[]{address("127.0.0.1"), address("127.0.0.3")});
+        try {
+            connector.connect("chat.test", port, executionModel).close();
+            fail("Connected to a closed port");
+        } catch (SocketTimeoutException e) {
+            fail("Refusals should fail at once, not time out");
+        } catch (IOException e) {
+            // Refused
+        }
+    }
+
+    @Test
+    public void blackholedAddressLosesToTheNextAfterTheAttemptDelay() throws Exception {
+        int port = blackhole("127.0.0.2");
+        listen("127.0.0.1", port);
+        Connector connector = new Connector(new ClientMetrics(),
+                host -> new InetAddress[]{address("127.0.0.2"), address("127.0.0.1")});
+        connector.setAttemptDelay(Duration.ofMillis(200));
+
+        long start = System.nanoTime();
+        try (SocketChannel channel = connector.connect("chat.test", port, executionModel)) {
+            assertEquals(address("127.0.0.1"), remote(channel));
+        }
+        long took = millisSince(start);
+        assertTrue("Took " + took + " ms", took >= 200 && took < 3000);
+    }
+
+    @Test
+    public void deadlineExpires() throws Exception {
+        int port = blackhole("127.0.0.2");
+        Connector connector = new Connector(new ClientMetrics(),
+                host -> new InetAddress[]{address("127.0.0.2")});
+        connector.setTimeout(Duration.ofMillis(300));
+
+        long start = System.nanoTime();
+        try {
+            connector.connect("chat.test", port, executionModel).close();
+            fail("Connected to a blackholed address");
+        } catch (SocketTimeoutException e) {
+            long took = millisSince(start);
+            assertTrue("Took " + took + " ms", took >= 300 && took < 3000);
+        }
+    }
+
+    @Test
+    public void slowLookupTimesOut() throws Exception {
+        Connector connector = new Connector(new ClientMetrics(), host -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                // Given up on
+            }
+            return new InetAddress[0];
+        });
+        connector.setTimeout(Duration.ofMillis(200));
+        try {
+            connector.connect("chat.test", 1, executionModel).close();
+            fail("Connected without an address");
+        } catch (SocketTimeoutException e) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void lastGoodAddressIsTriedFirstWithoutWaitingForTheLookup() throws Exception {
+        int port = listen("127.0.0.1", 0).getLocalPort();
+        AtomicInteger lookups = new AtomicInteger();
+        Connector connector = new Connector(new ClientMetrics(), host -> {
+            if (lookups.incrementAndGet() > 1) {
+                try {
+                    Thread.sleep(10_000);
+                } catch (InterruptedException e) {
+                    // Given up on
+                }
+            }
+            return new InetAddress[]{address("127.0.0.3"), address("127.0.0.1")};
+        });
+        connector.setAttemptDelay(Duration.ofSeconds(5));
+        connector.connect("chat.test", port, executionModel).close();
+
+        long start = System.nanoTime();
+        try (SocketChannel channel = connector.connect("chat.test", port, executionModel)) {
+            assertEquals(address("127.0.0.1"), remote(channel));
+        }
+        assertTrue("Should not wait for the lookup", millisSince(start) < 2000);
+    }
+
+    @Test
+    public void interleaveAlternatesFamilies() throws Exception {
+        InetAddress v6a = address("::1");
+        InetAddress v6b = address("fe80::1");
+        InetAddress v6c = address("fe80::2");
+        InetAddress v4a = address("127.0.0.1");
+        InetAddress v4b = address("127.0.0.2");
+
+        assertEquals(List.of(v6a, v4a, v6b, v4b, v6c),
+                Connector.interleave(new InetAddress[]{v6a, v6b, v6c, v4a, v4b}));
+        assertEquals(List.of(v4a, v6a, v4b, v6b),
+                Connector.interleave(new InetAddress[]{v4a, v4b, v6a, v6b}));
+        assertEquals(List.of(v4a, v4b),
+                Connector.interleave(new InetAddress[]{v4a, v4b}));
+    }
+}
@@ -0,0 +1,107 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EventRingTest {
+
+    private static ChatEvent message(String text) {
+        return ChatEvent.message(new TextMessage("alice", false, text));
+    }
+
+    @Test
+    public void fullMessageLaneDropsTheOldest() throws Exception {
+        EventRing ring = new EventRing(2);
+        ring.offer(message("1"), OverflowPolicy.DROP_OLDEST);
+        ring.offer(message("2"), OverflowPolicy.DROP_OLDEST);
+        ring.offer(message("3"), OverflowPolicy.DROP_OLDEST);
+
+        assertEquals(2, ring.size());
+        assertEquals(1, ring.droppedCount());
+        assertEquals("2", ring.take().message.getText());
+        assertEquals("3", ring.take().message.getText());
+    }
+
+    @Test
+    public void fullControlLaneGrowsInsteadOfDropping() throws Exception {
+        EventRing ring = new EventRing(2);
+        ring.offer(ChatEvent.commandError("first"), OverflowPolicy.DROP_OLDEST);
+        // Move the head, so that growing has to unwrap the ring
+        ring.take();
+        for (int i = 0; i < 5; i++) {
+            ring.offer(ChatEvent.commandError("error " + i), OverflowPolicy.DROP_OLDEST);
+        }
+
+        assertEquals(5, ring.size());
+        assertEquals(0, ring.droppedCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals("error " + i, ring.take().text);
+        }
+    }
+
+    @Test
+    public void controlLaneStopsGrowingAtTheLimit() throws Exception {
+        EventRing ring = new EventRing(2);
+        for (int i = 0; i < EventRing.CONTROL_LIMIT; i++) {
+            ring.offer(ChatEvent.commandError("error " + i), OverflowPolicy.DROP_OLDEST);
+        }
+        Thread producer = new Thread(() -> {
+            try {
+                ring.offer(ChatEvent.commandError("last"), OverflowPolicy.DROP_OLDEST);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue("Producer should wait for room", producer.isAlive());
+        assertEquals(EventRing.CONTROL_LIMIT, ring.size());
+
+        assertEquals("error 0", ring.take().text);
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(EventRing.CONTROL_LIMIT, ring.size());
+        assertEquals(0, ring.droppedCount());
+    }
+
+    @Test
+    public void controlEventsOvertakeMessages() throws Exception {
+        EventRing ring = new EventRing(4);
+        ring.offer(message("hello"), OverflowPolicy.COALESCE);
+        ring.offer(ChatEvent.commandError("unknown command"), OverflowPolicy.COALESCE);
+
+        assertEquals(ChatEvent.Type.COMMAND_ERROR, ring.take().type);
+        assertEquals("hello", ring.take().message.getText());
+    }
+
+    @Test
+    public void connectionChangesWaitForEarlierMessages() throws Exception {
+        EventRing ring = new EventRing(4);
+        ring.offer(message("public"), OverflowPolicy.BLOCK);
+        ring.offer(ChatEvent.message(new TextMessage("bob", true, "private")), OverflowPolicy.BLOCK);
+        ring.offer(ChatEvent.connectionState(ConnectionState.RECONNECTING), OverflowPolicy.BLOCK);
+        ring.offer(message("after reconnecting"), OverflowPolicy.BLOCK);
+        ring.offer(ChatEvent.disconnect(), OverflowPolicy.BLOCK);
+        ring.offer(ChatEvent.commandError("unknown command"), OverflowPolicy.BLOCK);
+
+        // Private before public, as usual, but both before the state change
+        assertEquals("private", ring.take().message.getText());
+        assertEquals("public", ring.take().message.getText());
+        assertEquals(ConnectionState.RECONNECTING, ring.take().state);
+        assertEquals("after reconnecting", ring.take().message.getText());
+        assertEquals(ChatEvent.Type.DISCONNECT, ring.take().type);
+        assertEquals(ChatEvent.Type.COMMAND_ERROR, ring.take().type);
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void coalesceReplacesQueuedUserList() throws Exception {
+        EventRing ring = new EventRing(4);
+        ring.offer(ChatEvent.userList(new String[]{"alice"}), OverflowPolicy.COALESCE);
+        ring.offer(ChatEvent.userList(new String[]{"alice", "bob"}), OverflowPolicy.COALESCE);
+
+        assertEquals(1, ring.size());
+        assertArrayEquals(new String[]{"alice", "bob"}, ring.take().words);
+    }
+}
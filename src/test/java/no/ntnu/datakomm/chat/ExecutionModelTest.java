@@ -0,0 +1,43 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExecutionModelTest {
+
+    @Test
+    public void platformModeStartsPlatformThreads() throws Exception {
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+            model.start("test", () -> virtual.complete(Thread.currentThread().isVirtual()));
+            assertFalse(virtual.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void scheduledRunsUseVirtualThreadsInPlatformMode() throws Exception {
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            CompletableFuture<Boolean> virtual = new CompletableFuture<>();
+            model.schedule("test", () -> virtual.complete(Thread.currentThread().isVirtual()),
+                    1, TimeUnit.MILLISECONDS);
+            assertTrue(virtual.get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void fixedDelayRunsUntilCancelled() throws Exception {
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            CountDownLatch runs = new CountDownLatch(3);
+            Future<?> handle = model.scheduleWithFixedDelay("test", runs::countDown,
+                    0, 1, TimeUnit.MILLISECONDS);
+            assertTrue(runs.await(5, TimeUnit.SECONDS));
+            handle.cancel(false);
+        }
+    }
+}
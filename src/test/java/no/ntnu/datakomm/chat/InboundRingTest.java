@@ -0,0 +1,100 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class InboundRingTest {
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static String read(InboundRing ring, int length) throws Exception {
+        byte[] data = new byte[length];
+        int n = 0;
+        while (n < length) {
+            n += ring.read(data, n, length - n);
+        }
+        return new String(data, StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void bytesWrapAroundTheEnd() throws Exception {
+        InboundRing ring = new InboundRing(8, new ClientMetrics());
+        ring.write(bytes("abcdef"), 0, 6);
+        assertEquals("abcd", read(ring, 4));
+        // Two bytes at the end, four at the start
+        ring.write(bytes("ghijkl"), 0, 6);
+        assertEquals("efghijkl", read(ring, 8));
+    }
+
+    @Test
+    public void fullRingPausesUntilHalfEmpty() throws Exception {
+        ClientMetrics metrics = new ClientMetrics();
+        InboundRing ring = new InboundRing(8, metrics);
+        AtomicInteger resumed = new AtomicInteger();
+        assertFalse(ring.pauseIfFull(resumed::incrementAndGet));
+
+        ring.write(bytes("abcdefgh"), 0, 8);
+        assertEquals(8, metrics.getInboundBufferedBytes());
+        assertTrue(ring.pauseIfFull(resumed::incrementAndGet));
+        assertEquals(1, metrics.getInboundStalls());
+
+        assertEquals("abc", read(ring, 3));
+        assertEquals(0, resumed.get());
+        assertEquals("d", read(ring, 1));
+        assertEquals(1, resumed.get());
+        // Run once only
+        assertEquals("efgh", read(ring, 4));
+        assertEquals(1, resumed.get());
+    }
+
+    @Test
+    public void writerWaitsWhileFull() throws Exception {
+        InboundRing ring = new InboundRing(4, new ClientMetrics());
+        Thread writer = new Thread(() -> {
+            try {
+                ring.write(bytes("abcdefghij"), 0, 10);
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        assertEquals("abcdefghij", read(ring, 10));
+        writer.join(5000);
+        assertFalse(writer.isAlive());
+    }
+
+    @Test
+    public void closedRingEndsAfterTheLastBytes() throws Exception {
+        InboundRing ring = new InboundRing(8, new ClientMetrics());
+        ring.write(bytes("ab"), 0, 2);
+        ring.close();
+        assertEquals("ab", read(ring, 2));
+        assertEquals(-1, ring.read(new byte[1], 0, 1));
+    }
+
+    @Test
+    public void timesTheWaitOfTheOldestBytesTaken() throws Exception {
+        ClientMetrics metrics = new ClientMetrics();
+        InboundRing ring = new InboundRing(64, metrics);
+        ring.write(bytes("old"), 0, 3);
+        Thread.sleep(50);
+        ring.write(bytes("new"), 0, 3);
+        assertEquals("oldnew", read(ring, 6));
+
+        LatencyHistogram wait = metrics.getInboundWaitLatency();
+        assertEquals(1, wait.getCount());
+        assertTrue(wait.getMaxMicros() >= 50_000);
+
+        // The "old" run is gone: only the wait of the new bytes counts
+        ring.write(bytes("x"), 0, 1);
+        read(ring, 1);
+        assertEquals(2, wait.getCount());
+        assertTrue(wait.getPercentileMicros(50) < 50_000);
+    }
+}
@@ -0,0 +1,73 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReadsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileMicros(99));
+        assertEquals(0, histogram.getMeanMicros(), 0);
+    }
+
+    @Test
+    public void smallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10; micros++) {
+            histogram.recordNanos(micros * 1000L);
+        }
+        assertEquals(5, histogram.getPercentileMicros(50));
+        assertEquals(9, histogram.getPercentileMicros(90));
+        assertEquals(10, histogram.getPercentileMicros(100));
+        assertEquals(1, histogram.getPercentileMicros(0));
+        assertEquals(5.5, histogram.getMeanMicros(), 1e-9);
+    }
+
+    @Test
+    public void percentilesAreWithinTheRelativeError() {
+        Random random = new Random(7);
+        long[] values = new long[100_000];
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < values.length; i++) {
+            // Spread over six orders of magnitude
+            values[i] = (long) Math.pow(10, random.nextDouble() * 6);
+            histogram.recordNanos(values[i] * 1000);
+        }
+        Arrays.sort(values);
+        for (double percentile : new double[]{10, 50, 90, 99, 99.9}) {
+            long exact = values[(int) Math.ceil(values.length * percentile / 100) - 1];
+            long estimate = histogram.getPercentileMicros(percentile);
+            assertTrue("p" + percentile + " " + estimate + " < " + exact, estimate >= exact);
+            assertTrue("p" + percentile + " " + estimate + " vs " + exact, estimate <= exact * 1.07);
+        }
+        assertEquals(values[values.length - 1], histogram.getPercentileMicros(100));
+        assertEquals(values[values.length - 1], histogram.getMaxMicros());
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(-5000);
+        histogram.recordNanos(Long.MAX_VALUE);
+        assertEquals(0, histogram.getPercentileMicros(50));
+        assertEquals(Long.MAX_VALUE / 1000, histogram.getPercentileMicros(100));
+    }
+
+    @Test
+    public void resetForgetsEverything() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordNanos(5_000_000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxMicros());
+        histogram.recordNanos(3000);
+        assertEquals(3, histogram.getPercentileMicros(99));
+    }
+}
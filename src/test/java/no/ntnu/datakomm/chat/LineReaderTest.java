@@ -0,0 +1,87 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class LineReaderTest {
+
+    /**
+     * A stream that hands out its bytes in reads of the given sizes, repeated.
+     */
+    private static InputStream chunked(byte[] data, int... sizes) {
+        return new ByteArrayInputStream(data) {
+            private int next = 0;
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int size = sizes[next++ % sizes.length];
+                return super.read(b, off, Math.min(len, size));
+            }
+        };
+    }
+
+    private static List<String> readAll(InputStream in) throws IOException {
+        LineReader reader = new LineReader(in);
+        List<String> lines = new ArrayList<>();
+        while (reader.readLine((buffer, offset, length) ->
+                lines.add(new String(buffer, offset, length, StandardCharsets.UTF_8)))) {
+            // Collecting
+        }
+        return lines;
+    }
+
+    private static byte[] utf8(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void linesSplitAcrossReadsAreJoined() throws Exception {
+        byte[] data = utf8("msg alice hello there\nusers alice bob\nmsgok\n");
+        for (int size = 1; size <= data.length; size++) {
+            assertEquals("Reads of " + size + " bytes",
+                    List.of("msg alice hello there", "users alice bob", "msgok"),
+                    readAll(chunked(data, size)));
+        }
+    }
+
+    @Test
+    public void crlfAndEmptyLines() throws Exception {
+        byte[] data = utf8("loginok\r\n\r\n\nmsgok\r\n");
+        assertEquals(List.of("loginok", "", "", "msgok"), readAll(chunked(data, 3, 1, 5)));
+    }
+
+    @Test
+    public void crSplitFromItsLf() throws Exception {
+        byte[] data = utf8("loginok\r\nmsgok\r\n");
+        // "\r" ends the first read, "\n" starts the second
+        assertEquals(List.of("loginok", "msgok"), readAll(chunked(data, 8, 100)));
+    }
+
+    @Test
+    public void incompleteLastLineIsNotDelivered() throws Exception {
+        assertEquals(List.of("msgok"), readAll(chunked(utf8("msgok\nmsg alice unfinished"), 4)));
+    }
+
+    @Test
+    public void multiByteCharacterSplitAtReadBoundary() throws Exception {
+        String line = "msg alice blåbærsyltetøy 你好 😀";
+        byte[] data = utf8(line + "\n");
+        for (int size = 1; size < 8; size++) {
+            assertEquals(List.of(line), readAll(chunked(data, size)));
+        }
+    }
+
+    @Test
+    public void longLinesGrowTheLineBuffer() throws Exception {
+        String line = "msg alice " + "x".repeat(20_000);
+        assertEquals(List.of(line, "msgok"), readAll(chunked(utf8(line + "\nmsgok\n"), 4096)));
+    }
+}
@@ -0,0 +1,102 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioConnectionTest {
+    private NioEventLoop loop;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = new NioEventLoop();
+        loop.start();
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+        server.close();
+    }
+
+    @Test
+    public void chunksLargerThanTheWriteBufferArriveInOrder() throws Exception {
+        NioConnection connection = connect(() -> { });
+        Socket peer = server.accept();
+        byte[] sent = new byte[200_000];
+        for (int i = 0; i < sent.length; i++) {
+            sent[i] = (byte) (i * 31);
+        }
+        for (int offset = 0; offset < sent.length; offset += 50_000) {
+            connection.write(sent, offset, 50_000);
+        }
+
+        InputStream in = peer.getInputStream();
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        while (received.size() < sent.length) {
+            int n = in.read(chunk);
+            assertTrue(n > 0);
+            received.write(chunk, 0, n);
+        }
+        assertArrayEquals(sent, received.toByteArray());
+        peer.close();
+    }
+
+    @Test
+    public void writeAfterCloseFails() throws Exception {
+        NioConnection connection = connect(() -> { });
+        server.accept().close();
+        connection.close();
+        try {
+            connection.write(new byte[]{'x', '\n'}, 0, 2);
+            fail("Expected the write to fail");
+        } catch (IOException e) {
+            assertTrue(connection.isClosed());
+        }
+    }
+
+    @Test
+    public void backlogBeyondTheLimitFailsAndClosesTheConnection() throws Exception {
+        CountDownLatch closed = new CountDownLatch(1);
+        NioConnection connection = connect(closed::countDown);
+        // Accepted but never read, so the socket buffers fill up and bytes stay queued
+        Socket peer = server.accept();
+        byte[] chunk = new byte[64 * 1024];
+        Arrays.fill(chunk, (byte) 'x');
+        boolean failed = false;
+        for (long written = 0; written < 256L * 1024 * 1024 && !failed; written += chunk.length) {
+            try {
+                connection.write(chunk, 0, chunk.length);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        assertTrue(failed);
+        assertTrue(closed.await(5, TimeUnit.SECONDS));
+        peer.close();
+    }
+
+    private NioConnection connect(Runnable onClose) throws Exception {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+        NioConnection connection = new NioConnection(loop, channel, (buffer, offset, length) -> { }, onClose);
+        connection.startReading();
+        return connection;
+    }
+}
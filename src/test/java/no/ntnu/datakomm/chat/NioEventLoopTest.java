@@ -0,0 +1,89 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioEventLoopTest {
+    private NioEventLoop loop;
+    private ServerSocket server;
+
+    @Before
+    public void setUp() throws Exception {
+        loop = new NioEventLoop();
+        loop.start();
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        loop.close();
+        server.close();
+    }
+
+    @Test
+    public void throwingHandlerClosesOnlyItsConnection() throws Exception {
+        CountDownLatch brokenClosed = new CountDownLatch(1);
+        NioConnection broken = connect(
+                (buffer, offset, length) -> {
+                    throw new IllegalStateException("handler bug");
+                },
+                brokenClosed::countDown);
+        Socket brokenPeer = server.accept();
+
+        BlockingQueue<String> lines = new ArrayBlockingQueue<>(10);
+        NioConnection healthy = connect(
+                (buffer, offset, length) -> lines.add(new String(buffer, offset, length, StandardCharsets.UTF_8)),
+                () -> { });
+        Socket healthyPeer = server.accept();
+
+        send(brokenPeer, "msg a boom\n");
+        assertTrue(brokenClosed.await(5, TimeUnit.SECONDS));
+        assertTrue(broken.isClosed());
+
+        send(healthyPeer, "msg b still here\n");
+        assertEquals("msg b still here", lines.poll(5, TimeUnit.SECONDS));
+        assertFalse(healthy.isClosed());
+        assertTrue(loop.isRunning());
+
+        brokenPeer.close();
+        healthyPeer.close();
+    }
+
+    @Test
+    public void throwingTaskDoesNotStopTheLoop() throws Exception {
+        CountDownLatch ran = new CountDownLatch(1);
+        loop.execute(() -> {
+            throw new IllegalStateException("task bug");
+        });
+        loop.execute(ran::countDown);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+    }
+
+    private NioConnection connect(LineHandler handler, Runnable onClose) throws Exception {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(server.getInetAddress(), server.getLocalPort()));
+        NioConnection connection = new NioConnection(loop, channel, handler, onClose);
+        connection.startReading();
+        return connection;
+    }
+
+    private static void send(Socket socket, String text) throws Exception {
+        OutputStream out = socket.getOutputStream();
+        out.write(text.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
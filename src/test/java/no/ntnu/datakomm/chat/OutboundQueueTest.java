@@ -0,0 +1,51 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class OutboundQueueTest {
+
+    @Test
+    public void commandsAreWrittenAtTheEndOfTheBatch() {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        OutboundQueue queue = new OutboundQueue(sent::write, FlushPolicy.endOfBatch());
+        assertTrue(queue.enqueue("login alice", false));
+        assertTrue(queue.enqueue("msg hei på deg", false));
+        assertEquals(0, sent.size());
+        assertTrue(queue.endBatch());
+        assertEquals("login alice\nmsg hei på deg\n", sent.toString(StandardCharsets.UTF_8));
+        assertEquals(0, queue.bufferedBytes());
+    }
+
+    @Test
+    public void failedQueueRejectsFurtherCommands() throws Exception {
+        List<String> queued = new ArrayList<>();
+        OutboundQueue queue = new OutboundQueue((data, offset, length) -> {
+            throw new IOException("Broken pipe");
+        }, FlushPolicy.immediate(), (command, reply) -> queued.add(command));
+        assertFalse(queue.enqueue("users", true));
+        assertEquals(List.of("users"), queued);
+
+        CompletableFuture<Void> reply = new CompletableFuture<>();
+        assertFalse(queue.enqueue("msg hello", false, reply));
+        assertFalse(queue.endBatch());
+        // Neither queued nor buffered, and the caller hears about it
+        assertEquals(List.of("users"), queued);
+        assertEquals(0, queue.bufferedBytes());
+        try {
+            reply.get();
+            fail("Reply should have failed");
+        } catch (ExecutionException e) {
+            assertEquals("Broken pipe", e.getCause().getMessage());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.junit.Assert.*;
+
+public class OutboundSchedulerTest {
+
+    @Test
+    public void heldBackCommandsAreSentByOneDrainerThread() throws Exception {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        OutboundQueue queue = new OutboundQueue((data, offset, length) -> {
+            synchronized (sent) {
+                sent.write(data, offset, length);
+            }
+        }, FlushPolicy.immediate());
+        OutboundScheduler scheduler = new OutboundScheduler(new ClientMetrics());
+        scheduler.setLimit(ClientMetrics.Outbound.MSG, RateLimit.perSecond(50, 1));
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            scheduler.attach(queue, model);
+            for (int i = 0; i < 5; i++) {
+                scheduler.submit("msg " + i, true, null);
+            }
+            assertEquals(4, scheduler.backlog());
+            assertEquals(1, model.getActiveThreadCount());
+
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (scheduler.backlog() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, scheduler.backlog());
+            synchronized (sent) {
+                assertEquals("msg 0\nmsg 1\nmsg 2\nmsg 3\nmsg 4\n", sent.toString(StandardCharsets.UTF_8));
+            }
+            // The drainer waits for more until the connection goes
+            assertEquals(1, model.getActiveThreadCount());
+            scheduler.detach(new IOException("Connection closed"));
+            deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (model.getActiveThreadCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, model.getActiveThreadCount());
+        }
+    }
+
+    @Test
+    public void interruptedDrainerIsReplacedByTheNextCommand() throws Exception {
+        ByteArrayOutputStream sent = new ByteArrayOutputStream();
+        OutboundQueue queue = new OutboundQueue((data, offset, length) -> {
+            synchronized (sent) {
+                sent.write(data, offset, length);
+            }
+        }, FlushPolicy.immediate());
+        OutboundScheduler scheduler = new OutboundScheduler(new ClientMetrics());
+        scheduler.setLimit(ClientMetrics.Outbound.MSG, RateLimit.perSecond(20, 1));
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            scheduler.attach(queue, model);
+            scheduler.submit("msg 0", true, null);
+            scheduler.submit("msg 1", true, null);
+            assertEquals(1, model.getActiveThreadCount());
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (thread.getName().equals("chat-outbound")) {
+                    thread.interrupt();
+                }
+            }
+            long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (model.getActiveThreadCount() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, model.getActiveThreadCount());
+
+            scheduler.submit("msg 2", true, null);
+            deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+            while (scheduler.backlog() > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, scheduler.backlog());
+            synchronized (sent) {
+                assertEquals("msg 0\nmsg 1\nmsg 2\n", sent.toString(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    public void controlCommandsGoBeforeWaitingMessages() throws Exception {
+        StringBuilder sent = new StringBuilder();
+        OutboundQueue queue = new OutboundQueue((data, offset, length) ->
+                sent.append(new String(data, offset, length, StandardCharsets.UTF_8)), FlushPolicy.immediate());
+        OutboundScheduler scheduler = new OutboundScheduler(new ClientMetrics());
+        scheduler.setLimit(ClientMetrics.Outbound.MSG, RateLimit.perSecond(0.001, 1));
+        try (ExecutionModel model = ExecutionModel.platform()) {
+            scheduler.attach(queue, model);
+            scheduler.submit("msg first", true, null);
+            scheduler.submit("msg second", true, null);
+            scheduler.submit("users", true, null);
+            assertEquals("msg first\nusers\n", sent.toString());
+            assertEquals(1, scheduler.backlog());
+        }
+    }
+}
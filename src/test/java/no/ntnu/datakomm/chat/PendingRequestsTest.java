@@ -0,0 +1,131 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class PendingRequestsTest {
+
+    @Test
+    public void repliesCompleteCommandsInWriteOrder() throws Exception {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<String[]> users = new CompletableFuture<>();
+        CompletableFuture<Void> message = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.USERS, users);
+        pending.add(ClientMetrics.Outbound.MSG, message);
+
+        String[] names = {"alice", "bob"};
+        pending.complete(ServerCommand.USERS, names);
+        pending.complete(ServerCommand.MSGOK, null);
+
+        assertSame(names, users.get());
+        assertTrue(message.isDone() && !message.isCompletedExceptionally());
+        assertEquals(0, pending.size());
+    }
+
+    @Test
+    public void cmderrFailsTheOldestCommandWhateverItsKind() throws Exception {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<String[]> users = new CompletableFuture<>();
+        CompletableFuture<String[]> help = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.USERS, users);
+        pending.add(ClientMetrics.Outbound.HELP, help);
+
+        pending.fail(ServerCommand.CMDERR, new ChatCommandException(ServerCommand.CMDERR, "command not supported"));
+        String[] commands = {"login", "msg"};
+        pending.complete(ServerCommand.SUPPORTED, commands);
+
+        assertEquals(ServerCommand.CMDERR, failure(users).getReply());
+        assertSame(commands, help.get());
+    }
+
+    @Test
+    public void replyOfAnotherKindFailsTheOldestCommand() throws Exception {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<String[]> users = new CompletableFuture<>();
+        CompletableFuture<Void> login = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.USERS, users);
+        pending.add(ClientMetrics.Outbound.LOGIN, login);
+
+        pending.complete(ServerCommand.SUPPORTED, new String[0]);
+        pending.complete(ServerCommand.LOGINOK, null);
+
+        assertEquals(ServerCommand.SUPPORTED, failure(users).getReply());
+        assertTrue(login.isDone() && !login.isCompletedExceptionally());
+    }
+
+    @Test
+    public void inboxIsAnsweredByItsHeaderOrMsgerr() throws Exception {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<Integer> first = new CompletableFuture<>();
+        CompletableFuture<Integer> second = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.INBOX, first);
+        pending.add(ClientMetrics.Outbound.INBOX, second);
+
+        pending.complete(ServerCommand.INBOX, 3);
+        ChatCommandException unauthorized = new ChatCommandException(ServerCommand.MSGERR, "unauthorized");
+        pending.fail(ServerCommand.MSGERR, unauthorized);
+
+        assertEquals(Integer.valueOf(3), first.get());
+        assertSame(unauthorized, failure(second));
+    }
+
+    @Test
+    public void commandsWithoutFutureKeepTheQueueInStep() throws Exception {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<String[]> users = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.MSG, null);
+        pending.add(ClientMetrics.Outbound.USERS, users);
+
+        assertFalse(pending.isNext(users));
+        pending.complete(ServerCommand.MSGOK, null);
+        assertTrue(pending.isNext(users));
+        assertEquals(PendingRequests.ReplyKind.USERS, pending.peekKind());
+    }
+
+    @Test
+    public void failAllEmptiesTheQueue() {
+        PendingRequests pending = new PendingRequests(new ClientMetrics());
+        CompletableFuture<Void> login = new CompletableFuture<>();
+        pending.add(ClientMetrics.Outbound.LOGIN, login);
+        pending.add(ClientMetrics.Outbound.MSG, null);
+
+        pending.failAll(new IllegalStateException("closed"));
+
+        assertTrue(login.isCompletedExceptionally());
+        assertEquals(0, pending.size());
+        assertNull(pending.peekKind());
+    }
+
+    @Test
+    public void replyTimesComeFromTheMatchedCommand() {
+        ClientMetrics metrics = new ClientMetrics();
+        PendingRequests pending = new PendingRequests(metrics);
+        pending.add(ClientMetrics.Outbound.LOGIN, null);
+        pending.add(ClientMetrics.Outbound.USERS, null);
+        pending.add(ClientMetrics.Outbound.MSG, null);
+        assertEquals(3, metrics.getUnansweredCommands());
+
+        pending.complete(ServerCommand.LOGINOK, null);
+        // Does not fit the users command, so it times nothing
+        pending.complete(ServerCommand.MSGOK, null);
+        pending.complete(ServerCommand.MSGOK, null);
+
+        assertEquals(1, metrics.getLoginReplyLatency().getCount());
+        assertEquals(1, metrics.getMessageReplyLatency().getCount());
+        assertEquals(0, metrics.getUnansweredCommands());
+    }
+
+    private static ChatCommandException failure(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get();
+            fail("Expected the future to fail");
+            return null;
+        } catch (ExecutionException e) {
+            return (ChatCommandException) e.getCause();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package no.ntnu.datakomm.chat;
+
+import no.ntnu.datakomm.chat.server.ChatServer;
+import no.ntnu.datakomm.chat.server.ServerConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TCPClientTest {
+
+    private ChatServer server;
+    private TCPClient client;
+    private NioEventLoop eventLoop;
+
+    /**
+     * Keeps the text of every message, taking its time over each one.
+     */
+    private static class SlowListener implements ChatListener {
+        final CompletableFuture<Boolean> login = new CompletableFuture<>();
+        final List<String> texts = new ArrayList<>();
+        private final long sleepMillis;
+        private final int expected;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        SlowListener(long sleepMillis, int expected) {
+            this.sleepMillis = sleepMillis;
+            this.expected = expected;
+        }
+
+        @Override
+        public void onLoginResult(boolean success, String errMsg) {
+            login.complete(success);
+        }
+
+        @Override
+        public void onMessageReceived(TextMessage message) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (texts) {
+                texts.add(message.getText());
+                if (texts.size() == expected) {
+                    done.complete(null);
+                }
+            }
+        }
+
+        @Override
+        public void onMessageError(String errMsg) {
+        }
+
+        @Override
+        public void onUserList(String[] usernames) {
+        }
+
+        @Override
+        public void onSupportedCommands(String[] commands) {
+        }
+
+        @Override
+        public void onCommandError(String errMsg) {
+        }
+
+        @Override
+        public void onDisconnect() {
+        }
+    }
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ChatServer(new ServerConfig());
+        server.start();
+        client = new TCPClient();
+    }
+
+    @After
+    public void stop() {
+        client.disconnect();
+        server.close();
+        if (eventLoop != null) {
+            eventLoop.close();
+        }
+    }
+
+    private void login(SlowListener listener) throws Exception {
+        assertTrue(client.connect("localhost", server.getPort()));
+        client.startListenThread();
+        client.tryLogin("alice");
+        assertTrue(listener.login.get(5, TimeUnit.SECONDS));
+    }
+
+    private static void assertAllInOrder(List<String> texts, int count) {
+        synchronized (texts) {
+            assertEquals(count, texts.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals("hi " + (i + 1), texts.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void slowDefaultListenerGetsEveryMessage() throws Exception {
+        int count = 200;
+        SlowListener listener = new SlowListener(1, count);
+        client.setListenerQueueCapacity(4);
+        client.addListener(listener);
+        login(listener);
+
+        server.flood(count, 0, "bob", "hi").get(10, TimeUnit.SECONDS);
+        listener.done.get(10, TimeUnit.SECONDS);
+        assertAllInOrder(listener.texts, count);
+        assertEquals(0, client.getDroppedEventCount());
+    }
+
+    /**
+     * A flood far larger than the inbound buffer, read by a slow listener: the reads stall
+     * while the listener catches up, and nothing is lost on the way.
+     */
+    private void assertSlowListenerStallsReads() throws Exception {
+        int count = 2000;
+        SlowListener listener = new SlowListener(0, count) {
+            @Override
+            public void onMessageReceived(TextMessage message) {
+                if (message.getText().endsWith("0")) {
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                super.onMessageReceived(message);
+            }
+        };
+        client.setInboundBufferCapacity(1024);
+        client.setListenerQueueCapacity(4);
+        client.addListener(listener, OverflowPolicy.BLOCK);
+        login(listener);
+
+        server.flood(count, 0, "bob", "hi").get(30, TimeUnit.SECONDS);
+        listener.done.get(30, TimeUnit.SECONDS);
+        assertAllInOrder(listener.texts, count);
+        assertTrue("Reads should have stalled", client.getMetrics().getInboundStalls() > 0);
+        assertEquals(0, client.getDroppedEventCount());
+    }
+
+    @Test
+    public void slowListenerHoldsBackBlockingReads() throws Exception {
+        assertSlowListenerStallsReads();
+    }
+
+    @Test
+    public void slowListenerHoldsBackNioReads() throws Exception {
+        eventLoop = new NioEventLoop();
+        eventLoop.start();
+        client = new TCPClient(eventLoop);
+        assertSlowListenerStallsReads();
+    }
+}
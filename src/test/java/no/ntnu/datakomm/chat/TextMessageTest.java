@@ -0,0 +1,46 @@
+package no.ntnu.datakomm.chat;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class TextMessageTest {
+
+    @Test
+    public void textIsDecodedOnce() {
+        byte[] utf8 = "blåbær".getBytes(StandardCharsets.UTF_8);
+        TextMessage message = new TextMessage("alice", false, utf8, 0, 1);
+        String text = message.getText();
+        assertEquals("blåbær", text);
+        assertSame(text, message.getText());
+    }
+
+    @Test
+    public void sendersShareOneString() {
+        TextMessage first = new TextMessage(new String("alice"), false, "a");
+        TextMessage second = new TextMessage(new String("alice"), true, "b");
+        assertSame(first.getSender(), second.getSender());
+    }
+
+    @Test
+    public void senderAndTextMayBeNull() {
+        TextMessage message = new TextMessage(null, false, (String) null);
+        assertNull(message.getSender());
+        assertNull(message.getText());
+        assertNull(message.getTextBytes());
+        assertEquals(message, new TextMessage(null, false, (String) null));
+        assertNotEquals(message, new TextMessage("alice", false, (String) null));
+    }
+
+    @Test
+    public void equalityIgnoresReceiveTimeAndSequence() {
+        byte[] utf8 = "hello".getBytes(StandardCharsets.UTF_8);
+        TextMessage first = new TextMessage("alice", true, utf8, 1000, 1);
+        TextMessage replayed = new TextMessage("alice", true, utf8.clone(), 2000, 7);
+        assertEquals(first, replayed);
+        assertEquals(first.hashCode(), replayed.hashCode());
+        assertNotEquals(first, new TextMessage("alice", false, "hello"));
+    }
+}
@@ -0,0 +1,88 @@
+package no.ntnu.datakomm.chat;
+
+import javafx.collections.ListChangeListener;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+
+public class UserListModelTest {
+
+    @Test
+    public void unchangedListDoesNotTouchTheView() {
+        UserListModel model = new UserListModel();
+        model.update(new String[]{"carol", "alice", "bob"});
+        List<String> changes = new ArrayList<>();
+        model.getUsers().addListener((ListChangeListener<String>) change -> changes.add(change.toString()));
+
+        assertEquals(0, model.update(new String[]{"bob", "carol", "alice", "bob"}));
+        assertTrue(changes.isEmpty());
+        assertEquals(List.of("alice", "bob", "carol"), model.getUsers());
+    }
+
+    @Test
+    public void joinedAndLeftNamesAreInsertedAndRemoved() {
+        UserListModel model = new UserListModel();
+        model.update(new String[]{"alice", "bob", "dave", "erin"});
+
+        assertEquals(5, model.update(new String[]{"alice", "carol", "cecil", "erin", "zoe"}));
+        assertEquals(List.of("alice", "carol", "cecil", "erin", "zoe"), model.getUsers());
+        assertEquals(7, model.getInsertedCount());
+        assertEquals(2, model.getRemovedCount());
+        assertTrue(model.contains("cecil"));
+        assertFalse(model.contains("bob"));
+    }
+
+    @Test
+    public void runsAreAppliedAsOneChangeEach() {
+        UserListModel model = new UserListModel();
+        model.update(new String[]{"a", "m", "z"});
+        List<String> events = new ArrayList<>();
+        model.getUsers().addListener((ListChangeListener<String>) change -> {
+            while (change.next()) {
+                events.add(change.getRemovedSize() + "-" + change.getAddedSize());
+            }
+        });
+        // b, c and d join together, m leaves
+        model.update(new String[]{"a", "b", "c", "d", "z"});
+        assertEquals(List.of("0-3", "1-0"), events);
+    }
+
+    @Test
+    public void shownInstancesAreKept() {
+        UserListModel model = new UserListModel();
+        String alice = new String("alice");
+        model.update(new String[]{alice});
+        model.update(new String[]{new String("alice"), "bob"});
+        assertSame(alice, model.getUsers().get(0));
+    }
+
+    @Test
+    public void randomUpdatesMatchTheReceivedList() {
+        Random random = new Random(42);
+        UserListModel model = new UserListModel();
+        Set<String> shown = new TreeSet<>();
+        for (int round = 0; round < 500; round++) {
+            String[] received = new String[random.nextInt(30)];
+            for (int i = 0; i < received.length; i++) {
+                received[i] = "user" + random.nextInt(40);
+            }
+            Set<String> expected = new TreeSet<>(List.of(received));
+            Set<String> difference = new HashSet<>(expected);
+            difference.addAll(shown);
+            Set<String> common = new HashSet<>(expected);
+            common.retainAll(shown);
+            difference.removeAll(common);
+
+            assertEquals(difference.size(), model.update(received));
+            assertEquals(new ArrayList<>(expected), model.getUsers());
+            shown = expected;
+        }
+    }
+}
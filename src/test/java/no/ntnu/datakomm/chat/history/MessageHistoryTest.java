@@ -0,0 +1,38 @@
+package no.ntnu.datakomm.chat.history;
+
+import no.ntnu.datakomm.chat.ExecutionModel;
+import no.ntnu.datakomm.chat.TextMessage;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class MessageHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void missingSenderAndTextAreStoredAsEmpty() throws Exception {
+        try (ExecutionModel executionModel = ExecutionModel.virtual();
+             MessageHistory history = MessageHistory.open(folder.getRoot().toPath(), executionModel)) {
+            assertTrue(history.append(new TextMessage(null, false, "hello"), false));
+            assertTrue(history.append(new TextMessage("alice", true, (String) null), true));
+            // The writer is still running
+            assertTrue(history.append(new TextMessage("bob", false, "still here"), false));
+            history.flush();
+
+            List<HistoryEntry> entries = history.read(0, 10);
+            assertEquals(3, entries.size());
+            assertEquals("", entries.get(0).getMessage().getSender());
+            assertEquals("hello", entries.get(0).getMessage().getText());
+            assertEquals("alice", entries.get(1).getMessage().getSender());
+            assertEquals("", entries.get(1).getMessage().getText());
+            assertEquals("still here", entries.get(2).getMessage().getText());
+            assertEquals(0, history.getDroppedCount());
+        }
+    }
+}